@@ -25,7 +25,7 @@ public class CellRenderer extends DefaultTreeCellRenderer{
 	public Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel, boolean expanded, boolean leaf, int row, boolean hasFocus) {
 		super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf, row, hasFocus);
         DefaultMutableTreeNode node = (DefaultMutableTreeNode) value;
-		if(node.getChildCount() > 0){
+		if(!node.isLeaf()){
 			setIcon(this.pack);
 		}else if(getFileName(node).endsWith(".class") || getFileName(node).endsWith(".java")){
 			setIcon(this.java_image);
@@ -0,0 +1,178 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.strobel.core.StringUtilities;
+
+/**
+ * An exploded class directory (target/classes, bin) opened like an archive:
+ * the directories are walked once, in parallel, into an EntryTable of the
+ * names a jar of it would have, so the tree is the one of the jar. The
+ * class files are indexed by internal name for ClassDirectoryTypeLoader.
+ */
+public class ClassDirectory {
+
+	private final File root;
+	// null for a class root that was not walked
+	private final EntryTable entryTable;
+	// internal name -> class file, null: looked up by path
+	private final Map<String, File> classFiles;
+
+	private ClassDirectory(File root, EntryTable entryTable, Map<String, File> classFiles) {
+		this.root = root;
+		this.entryTable = entryTable;
+		this.classFiles = classFiles;
+	}
+
+	/**
+	 * Lists the files under the directory, one task per subdirectory.
+	 * Symbolic links to directories are not followed, unreadable
+	 * directories are left out.
+	 */
+	public static ClassDirectory index(File root, int threadCount) throws IOException {
+		if (!root.isDirectory())
+			throw new FileNotFoundException(root.getPath());
+		Queue<String> names = new ConcurrentLinkedQueue<>();
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threadCount));
+		try {
+			pool.invoke(new DirectoryWalker(root.toPath(), "", names));
+		} finally {
+			pool.shutdownNow();
+		}
+
+		// the walk order depends on the threads
+		String[] sortedNames = names.toArray(new String[names.size()]);
+		Arrays.sort(sortedNames);
+		EntryTable table = new EntryTable();
+		Map<String, File> classFiles = new HashMap<>(sortedNames.length * 2);
+		for (String name : sortedNames) {
+			table.add(name);
+			if (name.endsWith(".class")) {
+				classFiles.put(StringUtilities.removeRight(name, ".class"), new File(root, name));
+			}
+		}
+		table.trim();
+		return new ClassDirectory(root, table, classFiles);
+	}
+
+	/**
+	 * The class root of a lone class file: the directory its package starts
+	 * in. It is not walked, its classes are looked up by path.
+	 *
+	 * @return null if the file is not where its class name puts it, or is
+	 *         not a class file
+	 */
+	public static ClassDirectory forClassFile(File classFile) {
+		String internalName;
+		try {
+			internalName = new ClassFileReader(Files.readAllBytes(classFile.toPath())).getThisClassName();
+		} catch (Exception e) {
+			return null;
+		}
+		if (internalName == null)
+			return null;
+		String[] segments = internalName.split("/");
+		if (!classFile.getName().equals(segments[segments.length - 1] + ".class"))
+			return null;
+		File root = classFile.getAbsoluteFile().getParentFile();
+		for (int i = segments.length - 2; i >= 0 && root != null; i--) {
+			if (!root.getName().equals(segments[i]))
+				return null;
+			root = root.getParentFile();
+		}
+		return (root != null) ? new ClassDirectory(root, null, null) : null;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the files under the directory, null for a class root of a
+	 *         lone class file
+	 */
+	public EntryTable getEntryTable() {
+		return entryTable;
+	}
+
+	/**
+	 * @return the classes of the index, empty for a class root of a lone
+	 *         class file
+	 */
+	public Set<String> getInternalNames() {
+		return (classFiles != null) ? classFiles.keySet() : Collections.<String> emptySet();
+	}
+
+	/**
+	 * @param internalName
+	 *            like "com/acme/Model"
+	 * @return null if there is no such class file
+	 */
+	public File getClassFile(String internalName) {
+		if (classFiles != null)
+			return classFiles.get(internalName);
+		File file = new File(root, internalName + ".class");
+		return file.isFile() ? file : null;
+	}
+
+	/**
+	 * @param name
+	 *            like "com/acme/model.properties"
+	 * @return null if there is no such file
+	 */
+	public File getFile(String name) {
+		File file = new File(root, name);
+		return file.isFile() ? file : null;
+	}
+
+	private static class DirectoryWalker extends RecursiveAction {
+		private static final long serialVersionUID = -2860128164829357183L;
+
+		private final Path directory;
+		// "" or like "com/acme/"
+		private final String prefix;
+		private final Queue<String> names;
+
+		private DirectoryWalker(Path directory, String prefix, Queue<String> names) {
+			this.directory = directory;
+			this.prefix = prefix;
+			this.names = names;
+		}
+
+		@Override
+		protected void compute() {
+			List<DirectoryWalker> subdirectories = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+				for (Path path : stream) {
+					String name = prefix + path.getFileName().toString();
+					if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+						subdirectories.add(new DirectoryWalker(path, name + "/", names));
+					} else if (Files.isRegularFile(path)) {
+						names.add(name);
+					}
+				}
+			} catch (IOException e) {
+				// unreadable, like a missing directory
+				return;
+			}
+			invokeAll(subdirectories);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Loads types from the class files of a ClassDirectory, found by internal
+ * name without scanning, like ZipArchiveTypeLoader does from an archive.
+ */
+public class ClassDirectoryTypeLoader implements ITypeLoader {
+
+	private final ClassDirectory directory;
+	// actual internal name -> name it was requested with
+	private final Map<String, String> knownMappings = new ConcurrentHashMap<>();
+	// told about them too, when the loader is indexed by it
+	private final LuytenTypeLoader index;
+
+	public ClassDirectoryTypeLoader(ClassDirectory directory) {
+		this(directory, null);
+	}
+
+	/**
+	 * @param index
+	 *            the loader this one is indexed by, told about the classes
+	 *            stored under another name than their own; may be null
+	 */
+	public ClassDirectoryTypeLoader(ClassDirectory directory, LuytenTypeLoader index) {
+		this.directory = directory;
+		this.index = index;
+	}
+
+	@Override
+	public boolean tryLoadType(String internalName, Buffer buffer) {
+		File file = directory.getClassFile(internalName);
+		if (file == null) {
+			String mappedName = knownMappings.get(internalName);
+			if (mappedName == null || mappedName.equals(internalName))
+				return false;
+			file = directory.getClassFile(mappedName);
+			if (file == null)
+				return false;
+		}
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			// like JarTypeLoader
+			throw new RuntimeException(e);
+		}
+		buffer.reset(bytes.length);
+		buffer.putByteArray(bytes, 0, bytes.length);
+		buffer.position(0);
+
+		try {
+			String actualName = new ClassFileReader(bytes).getThisClassName();
+			if (actualName != null && !actualName.equals(internalName)) {
+				knownMappings.put(actualName, internalName);
+				if (index != null) {
+					index.addMisplacedType(actualName, this);
+				}
+			}
+		} catch (Exception e) {
+			// not a class file, MetadataSystem will tell
+		}
+		return true;
+	}
+}
@@ -0,0 +1,323 @@
+package us.deathmarine.luyten;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal class file parser for scans over a whole archive: reads the
+ * constant pool without building a TypeDefinition, so it is cheap enough to
+ * run over every class and needs no MetadataSystem.
+ */
+public class ClassFileReader {
+
+	public static final int CONSTANT_UTF8 = 1;
+	public static final int CONSTANT_INTEGER = 3;
+	public static final int CONSTANT_FLOAT = 4;
+	public static final int CONSTANT_LONG = 5;
+	public static final int CONSTANT_DOUBLE = 6;
+	public static final int CONSTANT_CLASS = 7;
+	public static final int CONSTANT_STRING = 8;
+	public static final int CONSTANT_FIELDREF = 9;
+	public static final int CONSTANT_METHODREF = 10;
+	public static final int CONSTANT_INTERFACE_METHODREF = 11;
+	public static final int CONSTANT_NAME_AND_TYPE = 12;
+	public static final int CONSTANT_METHOD_HANDLE = 15;
+	public static final int CONSTANT_METHOD_TYPE = 16;
+	public static final int CONSTANT_DYNAMIC = 17;
+	public static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	public static final int CONSTANT_MODULE = 19;
+	public static final int CONSTANT_PACKAGE = 20;
+
+	public static final int ACC_BRIDGE = 0x0040;
+	public static final int ACC_INTERFACE = 0x0200;
+	public static final int ACC_SYNTHETIC = 0x1000;
+	public static final int ACC_ANNOTATION = 0x2000;
+	public static final int ACC_ENUM = 0x4000;
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private final byte[] b;
+	// offset of each constant's tag byte, 0 for the unusable slots
+	private final int[] offsets;
+	private final String[] strings;
+	// first byte after the constant pool: access flags
+	private final int header;
+	private List<Member> fields;
+	private List<Member> methods;
+
+	public ClassFileReader(byte[] b) throws IOException {
+		this.b = b;
+		if (b.length < 10 || readInt(0) != MAGIC)
+			throw new IOException("Not a class file");
+		int count = readUnsignedShort(8);
+		offsets = new int[count];
+		strings = new String[count];
+		int pos = 10;
+		try {
+			for (int i = 1; i < count; i++) {
+				offsets[i] = pos;
+				int tag = b[pos];
+				switch (tag) {
+				case CONSTANT_UTF8:
+					pos += 3 + readUnsignedShort(pos + 1);
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					pos += 5;
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					// takes two slots
+					pos += 9;
+					i++;
+					break;
+				case CONSTANT_CLASS:
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					pos += 3;
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					pos += 4;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag + " at " + i);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated class file");
+		}
+		if (pos > b.length)
+			throw new IOException("Truncated class file");
+		header = pos;
+	}
+
+	public static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	public int getConstantCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * @return 0 for index 0 and the second slot of long and double
+	 */
+	public int getTag(int index) {
+		return (offsets[index] != 0) ? b[offsets[index]] : 0;
+	}
+
+	public String getUtf8(int index) {
+		String s = strings[index];
+		if (s == null) {
+			int offset = offsets[index];
+			s = decodeUtf8(offset + 3, readUnsignedShort(offset + 1));
+			strings[index] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Internal name of a CONSTANT_Class
+	 */
+	public String getClassName(int index) {
+		return getUtf8(readUnsignedShort(offsets[index] + 1));
+	}
+
+	/**
+	 * Text of the literal and name constants: utf8 (names, descriptors and
+	 * string literals) and numbers, null for the other kinds
+	 */
+	public String getConstantText(int index) {
+		int offset = offsets[index];
+		switch (getTag(index)) {
+		case CONSTANT_UTF8:
+			return getUtf8(index);
+		case CONSTANT_INTEGER:
+			return String.valueOf(readInt(offset + 1));
+		case CONSTANT_FLOAT:
+			return String.valueOf(Float.intBitsToFloat(readInt(offset + 1)));
+		case CONSTANT_LONG:
+			return String.valueOf(readLong(offset + 1));
+		case CONSTANT_DOUBLE:
+			return String.valueOf(Double.longBitsToDouble(readLong(offset + 1)));
+		default:
+			return null;
+		}
+	}
+
+	public int getAccessFlags() {
+		return readUnsignedShort(header);
+	}
+
+	/**
+	 * Owner, name and descriptor of a CONSTANT_Fieldref, Methodref or
+	 * InterfaceMethodref
+	 */
+	public String[] getMemberRef(int index) {
+		int offset = offsets[index];
+		int nameAndType = offsets[readUnsignedShort(offset + 3)];
+		return new String[] { getClassName(readUnsignedShort(offset + 1)),
+				getUtf8(readUnsignedShort(nameAndType + 1)), getUtf8(readUnsignedShort(nameAndType + 3)) };
+	}
+
+	public String getThisClassName() {
+		return getClassName(readUnsignedShort(header + 2));
+	}
+
+	/**
+	 * @return null for java/lang/Object
+	 */
+	public String getSuperClassName() {
+		int index = readUnsignedShort(header + 4);
+		return (index != 0) ? getClassName(index) : null;
+	}
+
+	public String[] getInterfaceNames() {
+		String[] names = new String[readUnsignedShort(header + 6)];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = getClassName(readUnsignedShort(header + 8 + i * 2));
+		}
+		return names;
+	}
+
+	public List<Member> getFields() throws IOException {
+		readMembers();
+		return fields;
+	}
+
+	public List<Member> getMethods() throws IOException {
+		readMembers();
+		return methods;
+	}
+
+	private void readMembers() throws IOException {
+		if (fields != null)
+			return;
+		try {
+			int interfaceCount = readUnsignedShort(header + 6);
+			int pos = header + 8 + interfaceCount * 2;
+			List<Member> fields = new ArrayList<>();
+			pos = readMembers(pos, fields);
+			List<Member> methods = new ArrayList<>();
+			readMembers(pos, methods);
+			this.fields = fields;
+			this.methods = methods;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated class file");
+		}
+	}
+
+	private int readMembers(int pos, List<Member> members) {
+		int count = readUnsignedShort(pos);
+		pos += 2;
+		for (int i = 0; i < count; i++) {
+			Member member = new Member();
+			member.access = readUnsignedShort(pos);
+			member.name = getUtf8(readUnsignedShort(pos + 2));
+			member.descriptor = getUtf8(readUnsignedShort(pos + 4));
+			pos += 6;
+			int attributeCount = readUnsignedShort(pos);
+			pos += 2;
+			for (int a = 0; a < attributeCount; a++) {
+				int length = readInt(pos + 2);
+				if ("Code".equals(getUtf8(readUnsignedShort(pos)))) {
+					// max_stack, max_locals, code_length
+					member.codeLength = readInt(pos + 10);
+					member.codeOffset = pos + 14;
+				}
+				pos += 6 + length;
+			}
+			members.add(member);
+		}
+		return pos;
+	}
+
+	int readUnsignedByte(int pos) {
+		return b[pos] & 0xff;
+	}
+
+	int readUnsignedShort(int pos) {
+		return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+	}
+
+	int readInt(int pos) {
+		return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+	}
+
+	long readLong(int pos) {
+		return ((long) readInt(pos) << 32) | (readInt(pos + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Modified UTF-8, see DataInput
+	 */
+	private String decodeUtf8(int pos, int length) {
+		char[] chars = new char[length];
+		int count = 0;
+		int end = pos + length;
+		while (pos < end) {
+			int c = b[pos++] & 0xff;
+			if (c < 0x80) {
+				chars[count++] = (char) c;
+			} else if ((c & 0xE0) == 0xC0 && pos < end) {
+				chars[count++] = (char) (((c & 0x1F) << 6) | (b[pos++] & 0x3F));
+			} else if ((c & 0xF0) == 0xE0 && pos + 1 < end) {
+				chars[count++] = (char) (((c & 0x0F) << 12) | ((b[pos] & 0x3F) << 6) | (b[pos + 1] & 0x3F));
+				pos += 2;
+			} else {
+				// malformed: keep going
+				chars[count++] = '\uFFFD';
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	/**
+	 * Field or method
+	 */
+	public static class Member {
+		private int access;
+		private String name;
+		private String descriptor;
+		// bytecode in the class file, 0 if there is no Code attribute
+		private int codeOffset;
+		private int codeLength;
+
+		public int getAccess() {
+			return access;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getDescriptor() {
+			return descriptor;
+		}
+
+		int getCodeOffset() {
+			return codeOffset;
+		}
+
+		int getCodeLength() {
+			return codeLength;
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Finds the dependencies of an archive that are on this machine, nothing is
+ * downloaded: the jars of its manifest Class-Path, and the dependencies of
+ * the poms it carries (META-INF/maven) that are in the local Maven
+ * repository, with theirs from the .pom files there. Versions that cannot
+ * be worked out from the pom (managed by a parent, ranges) are taken as the
+ * highest one in the repository.
+ */
+public class ClasspathResolver {
+
+	private static final String MAVEN_DIRECTORY = "META-INF/maven/";
+	// hops from the archive's own pom
+	private static final int MAX_DEPTH = 8;
+	private static final int MAX_JARS = 500;
+
+	private static ClasspathResolver defaultResolver;
+
+	private final File localRepository;
+	private final RepositoryIndex index;
+
+	public ClasspathResolver(File localRepository, RepositoryIndex index) {
+		this.localRepository = localRepository;
+		this.index = index;
+	}
+
+	/**
+	 * Over ~/.m2/repository (or -Dmaven.repo.local), indexed in the config
+	 * directory
+	 */
+	public static synchronized ClasspathResolver getDefault() {
+		if (defaultResolver == null) {
+			String localRepository = System.getProperty("maven.repo.local");
+			File repository = (localRepository != null) ? new File(localRepository)
+					: new File(new File(System.getProperty("user.home"), ".m2"), "repository");
+			defaultResolver = new ClasspathResolver(repository, new RepositoryIndex(RepositoryIndex.getDefaultFile()));
+		}
+		return defaultResolver;
+	}
+
+	/**
+	 * @return null if none of its dependencies is here and readable
+	 */
+	public ClasspathTypeLoader createTypeLoader(File archiveFile, ZipArchive archive) throws IOException {
+		List<File> jars = resolve(archiveFile, archive);
+		if (jars.isEmpty())
+			return null;
+		ClasspathTypeLoader typeLoader = new ClasspathTypeLoader(jars, index);
+		try {
+			index.save();
+		} catch (IOException e) {
+			// listed again next time
+			e.printStackTrace();
+		}
+		return typeLoader.getJarFiles().isEmpty() ? null : typeLoader;
+	}
+
+	/**
+	 * @return the jars, in classpath order: the manifest Class-Path first,
+	 *         then the dependencies nearest first
+	 */
+	public List<File> resolve(File archiveFile, ZipArchive archive) throws IOException {
+		Set<File> jars = new LinkedHashSet<>();
+		addManifestClassPath(archiveFile, archive, jars);
+
+		// "groupId:artifactId", the nearest one wins like in Maven
+		Set<String> artifacts = new HashSet<>();
+		Deque<Pom> poms = new ArrayDeque<>();
+		for (ZipArchive.Entry entry : archive.getEntries()) {
+			String name = entry.getName();
+			if (name.startsWith(MAVEN_DIRECTORY) && name.endsWith("/pom.xml")) {
+				try (InputStream in = archive.getInputStream(entry)) {
+					Pom pom = Pom.parse(in, 0);
+					if (pom != null) {
+						artifacts.add(pom.groupId + ":" + pom.artifactId);
+						poms.add(pom);
+					}
+				}
+			}
+		}
+		while (!poms.isEmpty() && jars.size() < MAX_JARS) {
+			Pom pom = poms.removeFirst();
+			for (Dependency dependency : pom.dependencies) {
+				if (!dependency.isOnClasspath(pom.depth) || !artifacts.add(dependency.groupId + ":" + dependency.artifactId))
+					continue;
+				String version = getLocalVersion(dependency);
+				if (version == null)
+					continue;
+				String suffix = (dependency.classifier != null) ? "-" + dependency.classifier + ".jar" : ".jar";
+				jars.add(getArtifactFile(dependency, version, suffix));
+				File pomFile = getArtifactFile(dependency, version, ".pom");
+				if (pom.depth + 1 < MAX_DEPTH && pomFile.isFile()) {
+					try (InputStream in = new FileInputStream(pomFile)) {
+						Pom dependencyPom = Pom.parse(in, pom.depth + 1);
+						if (dependencyPom != null) {
+							poms.add(dependencyPom);
+						}
+					}
+				}
+			}
+		}
+		return new ArrayList<>(jars);
+	}
+
+	private static void addManifestClassPath(File archiveFile, ZipArchive archive, Set<File> jars) throws IOException {
+		ZipArchive.Entry entry = archive.getEntry("META-INF/MANIFEST.MF");
+		if (entry == null)
+			return;
+		Manifest manifest;
+		try (InputStream in = archive.getInputStream(entry)) {
+			manifest = new Manifest(in);
+		}
+		String classPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+		if (classPath == null)
+			return;
+		// relative URLs, like "lib/a.jar"
+		URI directory = archiveFile.getAbsoluteFile().getParentFile().toURI();
+		for (String url : classPath.trim().split("\\s+")) {
+			try {
+				URI uri = directory.resolve(url);
+				if ("file".equals(uri.getScheme())) {
+					File jar = new File(uri);
+					if (jar.isFile()) {
+						jars.add(jar);
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				// not a file URL
+			}
+		}
+	}
+
+	/**
+	 * @return the declared version if its jar is here, else the highest one
+	 *         that is, null if there is none
+	 */
+	private String getLocalVersion(Dependency dependency) {
+		String suffix = (dependency.classifier != null) ? "-" + dependency.classifier + ".jar" : ".jar";
+		if (dependency.version != null && getArtifactFile(dependency, dependency.version, suffix).isFile())
+			return dependency.version;
+		File[] versionDirectories = getArtifactDirectory(dependency).listFiles();
+		String highestVersion = null;
+		if (versionDirectories != null) {
+			for (File versionDirectory : versionDirectories) {
+				String version = versionDirectory.getName();
+				if ((highestVersion == null || compareVersions(version, highestVersion) > 0)
+						&& getArtifactFile(dependency, version, suffix).isFile()) {
+					highestVersion = version;
+				}
+			}
+		}
+		return highestVersion;
+	}
+
+	private File getArtifactDirectory(Dependency dependency) {
+		return new File(new File(localRepository, dependency.groupId.replace('.', '/')), dependency.artifactId);
+	}
+
+	private File getArtifactFile(Dependency dependency, String version, String suffix) {
+		return new File(new File(getArtifactDirectory(dependency), version), dependency.artifactId + "-" + version
+				+ suffix);
+	}
+
+	/**
+	 * Numbers as numbers, "1.10" after "1.9"
+	 */
+	static int compareVersions(String version1, String version2) {
+		String[] parts1 = version1.split("[.-]");
+		String[] parts2 = version2.split("[.-]");
+		for (int i = 0; i < Math.min(parts1.length, parts2.length); i++) {
+			int result;
+			if (parts1[i].matches("\\d{1,9}") && parts2[i].matches("\\d{1,9}")) {
+				result = Integer.compare(Integer.parseInt(parts1[i]), Integer.parseInt(parts2[i]));
+			} else {
+				result = parts1[i].compareTo(parts2[i]);
+			}
+			if (result != 0)
+				return result;
+		}
+		return Integer.compare(parts1.length, parts2.length);
+	}
+
+	private static class Pom {
+		private String groupId;
+		private String artifactId;
+		private int depth;
+		private final List<Dependency> dependencies = new ArrayList<>();
+
+		/**
+		 * @return null if it cannot be read
+		 */
+		private static Pom parse(InputStream in, int depth) {
+			Element project;
+			try {
+				// poms of untrusted archives: no DTD, nothing loaded from elsewhere
+				DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+				factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+				factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+				factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+				factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+				factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+				factory.setXIncludeAware(false);
+				factory.setExpandEntityReferences(false);
+				project = factory.newDocumentBuilder().parse(in).getDocumentElement();
+			} catch (Exception e) {
+				return null;
+			}
+			Element parent = getChild(project, "parent");
+			Map<String, String> properties = new HashMap<>();
+			Element propertiesElement = getChild(project, "properties");
+			if (propertiesElement != null) {
+				for (Element property : getChildren(propertiesElement, null)) {
+					properties.put(property.getNodeName(), property.getTextContent().trim());
+				}
+			}
+			Pom pom = new Pom();
+			pom.depth = depth;
+			pom.groupId = getText(project, "groupId", getText(parent, "groupId", null));
+			pom.artifactId = getText(project, "artifactId", null);
+			String version = getText(project, "version", getText(parent, "version", null));
+			properties.put("project.groupId", pom.groupId);
+			properties.put("project.version", version);
+			properties.put("project.parent.version", getText(parent, "version", null));
+			if (pom.groupId == null || pom.artifactId == null)
+				return null;
+
+			Element dependenciesElement = getChild(project, "dependencies");
+			if (dependenciesElement != null) {
+				for (Element element : getChildren(dependenciesElement, "dependency")) {
+					Dependency dependency = new Dependency();
+					dependency.groupId = substitute(getText(element, "groupId", null), properties);
+					dependency.artifactId = substitute(getText(element, "artifactId", null), properties);
+					dependency.version = substitute(getText(element, "version", null), properties);
+					dependency.classifier = substitute(getText(element, "classifier", null), properties);
+					dependency.type = getText(element, "type", "jar");
+					dependency.scope = getText(element, "scope", "compile");
+					dependency.isOptional = "true".equals(getText(element, "optional", null));
+					if (dependency.groupId != null && dependency.artifactId != null) {
+						pom.dependencies.add(dependency);
+					}
+				}
+			}
+			return pom;
+		}
+
+		/**
+		 * @return null if a property is unknown
+		 */
+		private static String substitute(String value, Map<String, String> properties) {
+			// properties may refer to properties
+			for (int i = 0; value != null && i < 8; i++) {
+				int start = value.indexOf("${");
+				if (start < 0)
+					return value;
+				int end = value.indexOf('}', start);
+				String property = (end > 0) ? properties.get(value.substring(start + 2, end)) : null;
+				value = (property != null) ? value.substring(0, start) + property + value.substring(end + 1) : null;
+			}
+			return null;
+		}
+
+		private static String getText(Element element, String name, String defaultText) {
+			Element child = (element != null) ? getChild(element, name) : null;
+			return (child != null) ? child.getTextContent().trim() : defaultText;
+		}
+
+		private static Element getChild(Element element, String name) {
+			List<Element> children = getChildren(element, name);
+			return children.isEmpty() ? null : children.get(0);
+		}
+
+		/**
+		 * @param name
+		 *            null for all of them
+		 */
+		private static List<Element> getChildren(Element element, String name) {
+			List<Element> children = new ArrayList<>();
+			NodeList nodes = element.getChildNodes();
+			for (int i = 0; i < nodes.getLength(); i++) {
+				Node node = nodes.item(i);
+				if (node.getNodeType() == Node.ELEMENT_NODE && (name == null || name.equals(node.getNodeName()))) {
+					children.add((Element) node);
+				}
+			}
+			return children;
+		}
+	}
+
+	private static class Dependency {
+		private String groupId;
+		private String artifactId;
+		private String version;
+		private String classifier;
+		private String type;
+		private String scope;
+		private boolean isOptional;
+
+		/**
+		 * Everything the archive compiles against, only what is passed on
+		 * from its dependencies
+		 */
+		private boolean isOnClasspath(int depth) {
+			if (!"jar".equals(type) && !"bundle".equals(type))
+				return false;
+			if (depth == 0)
+				return !"test".equals(scope) && !"system".equals(scope);
+			return !isOptional && ("compile".equals(scope) || "runtime".equals(scope));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Loads types from the dependencies of an archive (ClasspathResolver): a
+ * lookup goes to the jars that have its package only, a jar is opened on
+ * its first lookup.
+ */
+public class ClasspathTypeLoader implements ITypeLoader, AutoCloseable {
+
+	private final List<File> jarFiles;
+	// package, like "org/slf4j" -> jars that have classes in it
+	private final Map<String, List<Jar>> jarsByPackage = new HashMap<>();
+	private final List<Jar> jars = new ArrayList<>();
+
+	/**
+	 * @param jarFiles
+	 *            in classpath order; the ones that cannot be listed, like a
+	 *            truncated download, are left out
+	 */
+	public ClasspathTypeLoader(List<File> jarFiles, RepositoryIndex index) {
+		this.jarFiles = new ArrayList<>(jarFiles.size());
+		for (File jarFile : jarFiles) {
+			String[] packagePaths;
+			try {
+				packagePaths = index.getPackages(jarFile);
+			} catch (IOException e) {
+				// the other dependencies still resolve
+				e.printStackTrace();
+				continue;
+			}
+			this.jarFiles.add(jarFile);
+			Jar jar = new Jar(jarFile);
+			jars.add(jar);
+			for (String packagePath : packagePaths) {
+				List<Jar> packageJars = jarsByPackage.get(packagePath);
+				if (packageJars == null) {
+					packageJars = new ArrayList<>(1);
+					jarsByPackage.put(packagePath, packageJars);
+				}
+				packageJars.add(jar);
+			}
+		}
+	}
+
+	public List<File> getJarFiles() {
+		return jarFiles;
+	}
+
+	@Override
+	public boolean tryLoadType(String internalName, Buffer buffer) {
+		int slash = internalName.lastIndexOf('/');
+		List<Jar> packageJars = jarsByPackage.get((slash >= 0) ? internalName.substring(0, slash) : "");
+		if (packageJars == null)
+			return false;
+		for (Jar jar : packageJars) {
+			ITypeLoader loader = jar.getLoader();
+			if (loader != null && loader.tryLoadType(internalName, buffer))
+				return true;
+			buffer.reset();
+		}
+		return false;
+	}
+
+	@Override
+	public void close() {
+		for (Jar jar : jars) {
+			jar.close();
+		}
+	}
+
+	private static class Jar {
+		private final File file;
+		private ZipArchive archive;
+		private ITypeLoader loader;
+		private boolean isFailed;
+
+		private Jar(File file) {
+			this.file = file;
+		}
+
+		private synchronized ITypeLoader getLoader() {
+			if (loader == null && !isFailed) {
+				try {
+					archive = new ZipArchive(file);
+					loader = new ZipArchiveTypeLoader(archive);
+				} catch (IOException e) {
+					// deleted or not a zip after all
+					isFailed = true;
+				}
+			}
+			return loader;
+		}
+
+		private synchronized void close() {
+			Closer.tryClose(archive);
+			archive = null;
+			loader = null;
+			isFailed = true;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Headless batch mode: decompiles jars and classes into a zip or a
+ * directory with the same engine and settings as Save All. Must not touch
+ * AWT/Swing, it runs on build agents without a display.
+ */
+public class CommandLineDecompiler {
+
+	private static final String USAGE = "Usage: luyten [options] <input.jar|input.zip|input.class>...\n"
+			+ "  -o, --output <path>      output .zip (single jar input) or directory (required)\n"
+			+ "  -t, --threads <count>    decompiler threads, default: one per core\n"
+			+ "  -i, --include <glob>     decompile matching entries only (repeatable)\n"
+			+ "  -e, --exclude <glob>     skip matching entries (repeatable)\n"
+			+ "      --inner-classes      write inner classes into their own .java files\n"
+			+ "  -h, --help               this text\n"
+			+ "Globs match entry names: * within a directory, ** across directories\n"
+			+ "A class goes under the path of its package, with several inputs a jar goes\n"
+			+ "to a sub directory named after it\n"
+			+ "Decompiler settings are the ones saved by the Luyten GUI.";
+
+	private final PrintStream out;
+	private final PrintStream err;
+
+	private File output;
+	private int threadCount;
+	private boolean isInnerClassEntriesKept;
+	private List<String> includes = new ArrayList<>();
+	private List<String> excludes = new ArrayList<>();
+	private List<File> inputs = new ArrayList<>();
+
+	public CommandLineDecompiler(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	/**
+	 * Options first: a file to open in the GUI never starts with '-'
+	 */
+	public static boolean isCommandLineMode(String[] args) {
+		return args.length > 0 && args[0].startsWith("-");
+	}
+
+	/**
+	 * @return process exit code
+	 */
+	public int run(String[] args) {
+		try {
+			if (!parseArgs(args)) {
+				err.println(USAGE);
+				return 2;
+			}
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return 2;
+		}
+
+		long time = System.currentTimeMillis();
+		int decompiledCount = 0;
+		int copiedCount = 0;
+		try {
+			boolean isZipOutput = isArchive(output);
+			if (isZipOutput && (inputs.size() != 1 || !isArchive(inputs.get(0)))) {
+				err.println("Zip output requires exactly one jar or zip input");
+				return 2;
+			}
+			List<File> targets = getTargets(isZipOutput);
+			if (targets == null)
+				return 2;
+			for (int i = 0; i < inputs.size(); i++) {
+				File input = inputs.get(i);
+				File target = targets.get(i);
+				if (target == null) {
+					err.println("Skipped, not a jar, zip or class file: " + input);
+					continue;
+				}
+				JarDecompiler jarDecompiler = createJarDecompiler();
+				long inputTime = System.currentTimeMillis();
+				out.println("Decompiling " + input + " -> " + target);
+				if (isArchive(input)) {
+					if (isZipOutput) {
+						jarDecompiler.decompileToZip(input, target, new ConsoleListener());
+					} else {
+						jarDecompiler.decompileToDirectory(input, target, new ConsoleListener());
+					}
+				} else {
+					File directory = target.getParentFile();
+					if (!directory.isDirectory() && !directory.mkdirs())
+						throw new Exception("Cannot create directory: " + directory);
+					jarDecompiler.decompileClassFile(input, target);
+				}
+				decompiledCount += jarDecompiler.getDecompiledCount();
+				copiedCount += jarDecompiler.getCopiedCount();
+				printSummary("  ", jarDecompiler.getDecompiledCount(), jarDecompiler.getReusedCount(),
+						jarDecompiler.getCopiedCount(), inputTime);
+			}
+		} catch (Exception e) {
+			e.printStackTrace(err);
+			return 1;
+		}
+		if (inputs.size() > 1) {
+			printSummary("Total: ", decompiledCount, 0, copiedCount, time);
+		}
+		return 0;
+	}
+
+	/**
+	 * Where each input goes: a class under the path of its package, a jar
+	 * of several inputs in a sub directory named after it, with a suffix
+	 * when another input already has that name
+	 *
+	 * @return one per input, null for one that is not decompiled; null if
+	 *         two classes would overwrite each other
+	 */
+	private List<File> getTargets(boolean isZipOutput) throws IOException {
+		List<File> targets = new ArrayList<>(inputs.size());
+		// the first directory of each class target: not used for a jar
+		Set<String> usedNames = new HashSet<>();
+		Map<String, File> inputsByClassName = new HashMap<>();
+		for (File input : inputs) {
+			if (isArchive(input) || !input.getName().toLowerCase().endsWith(".class"))
+				continue;
+			String className = readClassName(input);
+			File previous = inputsByClassName.put(className, input);
+			if (previous != null) {
+				err.println("Both " + previous + " and " + input + " are " + className.replace('/', '.'));
+				return null;
+			}
+			int slash = className.indexOf('/');
+			usedNames.add(((slash >= 0) ? className.substring(0, slash) : className + ".java").toLowerCase());
+		}
+		for (File input : inputs) {
+			if (isArchive(input)) {
+				if (isZipOutput || inputs.size() == 1) {
+					targets.add(output);
+					continue;
+				}
+				// one sub directory per jar, lib.jar and lib.zip or two
+				// lib.jar of other directories apart
+				String baseName = getBaseName(input);
+				String name = baseName;
+				for (int n = 2; !usedNames.add(name.toLowerCase()); n++) {
+					name = baseName + "-" + n;
+				}
+				targets.add(new File(output, name));
+			} else if (input.getName().toLowerCase().endsWith(".class")) {
+				targets.add(new File(output, readClassName(input) + ".java"));
+			} else {
+				targets.add(null);
+			}
+		}
+		return targets;
+	}
+
+	/**
+	 * @return like "com/acme/Util"
+	 */
+	private static String readClassName(File classFile) throws IOException {
+		byte[] bytes;
+		try (InputStream in = new FileInputStream(classFile)) {
+			bytes = ClassFileReader.readAll(in);
+		}
+		String className = new ClassFileReader(bytes).getThisClassName();
+		// it becomes a path under the output directory
+		if (className == null || className.startsWith("/") || className.contains(".."))
+			throw new IOException("Invalid class file: " + classFile);
+		return className;
+	}
+
+	private boolean parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-h") || arg.equals("--help")) {
+				return false;
+			} else if (arg.equals("-o") || arg.equals("--output")) {
+				output = new File(getValue(args, ++i, arg));
+			} else if (arg.equals("-t") || arg.equals("--threads")) {
+				try {
+					threadCount = Integer.parseInt(getValue(args, ++i, arg));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid thread count: " + args[i]);
+				}
+			} else if (arg.equals("-i") || arg.equals("--include")) {
+				includes.add(getValue(args, ++i, arg));
+			} else if (arg.equals("-e") || arg.equals("--exclude")) {
+				excludes.add(getValue(args, ++i, arg));
+			} else if (arg.equals("--inner-classes")) {
+				isInnerClassEntriesKept = true;
+			} else if (arg.startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			} else {
+				File input = new File(arg);
+				if (!input.isFile())
+					throw new IllegalArgumentException("File not found: " + arg);
+				inputs.add(input);
+			}
+		}
+		if (output == null)
+			throw new IllegalArgumentException("Missing --output");
+		if (inputs.isEmpty())
+			throw new IllegalArgumentException("Missing input file");
+		return true;
+	}
+
+	private String getValue(String[] args, int i, String option) {
+		if (i >= args.length)
+			throw new IllegalArgumentException("Missing value for " + option);
+		return args[i];
+	}
+
+	private JarDecompiler createJarDecompiler() {
+		int threads = (threadCount > 0) ? threadCount : ParallelDecompiler.getPreferredThreadCount();
+		JarDecompiler jarDecompiler = new JarDecompiler(JarDecompiler.cloneSettings(), threads);
+		jarDecompiler.setFilterOutInnerClassEntries(!isInnerClassEntriesKept);
+		for (String include : includes) {
+			jarDecompiler.addInclude(include);
+		}
+		for (String exclude : excludes) {
+			jarDecompiler.addExclude(exclude);
+		}
+		return jarDecompiler;
+	}
+
+	private void printSummary(String prefix, int decompiledCount, int reusedCount, int copiedCount, long time) {
+		long millis = Math.max(1, System.currentTimeMillis() - time);
+		StringBuilder sb = new StringBuilder(prefix);
+		sb.append(decompiledCount).append(" classes decompiled");
+		if (reusedCount > 0) {
+			sb.append(", ").append(reusedCount).append(" unchanged");
+		}
+		sb.append(", ").append(copiedCount).append(" resources copied in ");
+		sb.append(String.format("%.1f s (%.1f classes/s)", millis / 1000.0, decompiledCount * 1000.0 / millis));
+		out.println(sb.toString());
+	}
+
+	private static boolean isArchive(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".jar") || name.endsWith(".zip");
+	}
+
+	private static String getBaseName(File file) {
+		String name = file.getName();
+		int i = name.lastIndexOf('.');
+		return (i > 0) ? name.substring(0, i) : name;
+	}
+
+	private class ConsoleListener implements JarDecompiler.Listener {
+		private int entryCount;
+		private int lastPercent = -1;
+
+		@Override
+		public void onStarted(int entryCount) {
+			this.entryCount = entryCount;
+		}
+
+		@Override
+		public void onEntry(String entryName, int tick) {
+			int percent = (entryCount > 0) ? (int) (tick * 100L / entryCount) : 100;
+			if (percent / 10 != lastPercent / 10) {
+				out.println("  " + percent + "%");
+			}
+			lastPercent = percent;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package us.deathmarine.luyten;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.prefs.Preferences;
@@ -20,6 +21,8 @@ public class ConfigSaver {
 	private static final String UNICODE_REPLACE_ENABLED_ID = "unicodeReplaceEnabled";
 	private static final String LANGUAGE_NAME_ID = "languageName";
 
+	private static final String CONFIG_DIRECTORY_NAME = ".luyten";
+
 	private static final String MAIN_WINDOW_ID_PREFIX = "main";
 	private static final String FIND_WINDOW_ID_PREFIX = "find";
 	private static final String WINDOW_IS_FULL_SCREEN_ID = "WindowIsFullScreen";
@@ -219,4 +222,16 @@ public class ConfigSaver {
 	public LuytenPreferences getLuytenPreferences() {
 		return luytenPreferences;
 	}
+
+	/**
+	 * Directory for caches and indexes (the settings are in the Preferences),
+	 * created on demand
+	 */
+	public static File getConfigDirectory(String subDirectory) {
+		File dir = new File(new File(System.getProperty("user.home"), CONFIG_DIRECTORY_NAME), subDirectory);
+		if (!dir.isDirectory()) {
+			dir.mkdirs();
+		}
+		return dir;
+	}
 }
@@ -0,0 +1,406 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Who uses a type, method or field: built from the bytecode of every class
+ * in the jar (invocations, field accesses, new, casts, class literals) and
+ * from the declarations (super types, member descriptors). Queries take the
+ * links of DecompilerLinkProvider and return the using members.
+ */
+public class CrossReferenceIndex {
+
+	private static final String CLASS_MEMBER = "<class>";
+
+	// target key -> ids of the using members
+	private final Map<String, int[]> usages = new HashMap<>();
+	private final List<SymbolIndex.Symbol> users = new ArrayList<>();
+	// internal name -> direct sub types in the jar
+	private final Map<String, List<String>> subTypes = new HashMap<>();
+
+	private CrossReferenceIndex() {}
+
+	/**
+	 * Reads every class entry, in parallel
+	 */
+	public static CrossReferenceIndex build(File file, int threadCount) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		try (final JarFile jfile = new JarFile(file)) {
+			List<Future<ClassReferences>> futures = new LinkedList<>();
+			Set<String> names = new HashSet<>();
+			for (final JarEntry entry : Collections.list(jfile.entries())) {
+				if (!entry.getName().endsWith(".class") || !names.add(entry.getName()))
+					continue;
+				futures.add(executor.submit(new Callable<ClassReferences>() {
+					@Override
+					public ClassReferences call() throws Exception {
+						try (InputStream in = jfile.getInputStream(entry)) {
+							return ClassReferences.read(ClassFileReader.readAll(in));
+						}
+					}
+				}));
+			}
+			List<ClassReferences> classes = new ArrayList<>(futures.size());
+			for (Future<ClassReferences> future : futures) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				try {
+					classes.add(future.get());
+				} catch (ExecutionException e) {
+					// broken class file: not indexed
+					e.getCause().printStackTrace();
+				}
+			}
+			CrossReferenceIndex index = new CrossReferenceIndex();
+			index.add(classes);
+			return index;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void add(List<ClassReferences> classes) {
+		Set<String> typeNames = new HashSet<>();
+		for (ClassReferences classReferences : classes) {
+			typeNames.add(classReferences.className);
+		}
+		Map<String, IntList> usageLists = new HashMap<>();
+		for (ClassReferences classReferences : classes) {
+			String className = classReferences.className;
+			String outerTypeName = SymbolIndex.findOuterTypeName(className, typeNames);
+			for (String superType : classReferences.superTypes) {
+				List<String> list = subTypes.get(superType);
+				if (list == null) {
+					list = new ArrayList<>(2);
+					subTypes.put(superType, list);
+				}
+				list.add(className);
+			}
+			for (MemberReferences member : classReferences.members) {
+				int userId = users.size();
+				if (CLASS_MEMBER.equals(member.name)) {
+					users.add(new SymbolIndex.Symbol(SymbolIndex.KIND_TYPE, SymbolIndex.getSimpleName(className),
+							className, outerTypeName, null));
+				} else {
+					int kind = (member.descriptor.startsWith("(")) ? SymbolIndex.KIND_METHOD : SymbolIndex.KIND_FIELD;
+					users.add(new SymbolIndex.Symbol(kind, member.name, className, outerTypeName, member.descriptor));
+				}
+				for (String target : member.targets) {
+					IntList list = usageLists.get(target);
+					if (list == null) {
+						list = new IntList();
+						usageLists.put(target, list);
+					}
+					list.add(userId);
+				}
+			}
+		}
+		for (Map.Entry<String, IntList> entry : usageLists.entrySet()) {
+			usages.put(entry.getKey(), entry.getValue().toArray());
+		}
+	}
+
+	/**
+	 * @param uniqueStr
+	 *            link of DecompilerLinkProvider: type|..., method|... or
+	 *            field|...
+	 * @return the using types, methods and fields grouped by class, in jar
+	 *         order. Members used through a sub type are included.
+	 */
+	public List<SymbolIndex.Symbol> findUsages(String uniqueStr) {
+		return findUsages(Collections.singletonList(this), uniqueStr);
+	}
+
+	/**
+	 * Usages across several jars, each indexed on its own: a sub type in
+	 * one jar of a type in another is followed
+	 *
+	 * @return grouped by jar in the order of the indexes, then as
+	 *         findUsages(String)
+	 */
+	public static List<SymbolIndex.Symbol> findUsages(List<CrossReferenceIndex> indexes, String uniqueStr) {
+		String[] linkParts = uniqueStr.split("\\|");
+		if (linkParts.length < 3)
+			return Collections.emptyList();
+		String typeName = linkParts[2].replace('.', '/');
+		if (typeName.startsWith("/")) {
+			// default package
+			typeName = typeName.substring(1);
+		}
+		List<String> keys = new ArrayList<>();
+		if (linkParts[0].equals("type")) {
+			keys.add(typeKey(typeName));
+		} else {
+			for (String owner : getTypeAndSubTypes(indexes, typeName)) {
+				if (linkParts[0].equals("method") && linkParts.length >= 5) {
+					keys.add(methodKey(owner, linkParts[3], linkParts[4]));
+				} else if (linkParts[0].equals("field") && linkParts.length >= 4) {
+					keys.add(fieldKey(owner, linkParts[3]));
+				}
+			}
+		}
+		List<SymbolIndex.Symbol> result = new ArrayList<>();
+		for (CrossReferenceIndex index : indexes) {
+			index.addUsers(keys, result);
+		}
+		return result;
+	}
+
+	private void addUsers(List<String> keys, List<SymbolIndex.Symbol> result) {
+		int[] userIds = new int[0];
+		for (String key : keys) {
+			int[] ids = usages.get(key);
+			if (ids != null) {
+				int length = userIds.length;
+				userIds = Arrays.copyOf(userIds, length + ids.length);
+				System.arraycopy(ids, 0, userIds, length, ids.length);
+			}
+		}
+		// user ids follow the jar order, members of a class are adjacent
+		Arrays.sort(userIds);
+		for (int i = 0; i < userIds.length; i++) {
+			if (i == 0 || userIds[i] != userIds[i - 1]) {
+				result.add(users.get(userIds[i]));
+			}
+		}
+	}
+
+	private static Set<String> getTypeAndSubTypes(List<CrossReferenceIndex> indexes, String typeName) {
+		Set<String> types = new LinkedHashSet<>();
+		ArrayDeque<String> queue = new ArrayDeque<>();
+		queue.add(typeName);
+		while (!queue.isEmpty()) {
+			String type = queue.poll();
+			if (types.add(type)) {
+				for (CrossReferenceIndex index : indexes) {
+					List<String> list = index.subTypes.get(type);
+					if (list != null) {
+						queue.addAll(list);
+					}
+				}
+			}
+		}
+		return types;
+	}
+
+	private static String typeKey(String typeName) {
+		return "t:" + typeName;
+	}
+
+	private static String methodKey(String owner, String name, String descriptor) {
+		return "m:" + owner + "." + name + descriptor;
+	}
+
+	private static String fieldKey(String owner, String name) {
+		return "f:" + owner + "." + name;
+	}
+
+	/**
+	 * What the members of one class file use, read on the worker threads
+	 */
+	private static class ClassReferences {
+		private String className;
+		private List<String> superTypes = new ArrayList<>();
+		private List<MemberReferences> members = new ArrayList<>();
+
+		private static ClassReferences read(byte[] bytes) throws Exception {
+			ClassFileReader reader = new ClassFileReader(bytes);
+			ClassReferences classReferences = new ClassReferences();
+			classReferences.className = reader.getThisClassName();
+
+			// extends and implements: used by the class itself
+			MemberReferences classMember = new MemberReferences(CLASS_MEMBER, null);
+			String superClassName = reader.getSuperClassName();
+			if (superClassName != null) {
+				classReferences.superTypes.add(superClassName);
+				classMember.addType(superClassName);
+			}
+			for (String interfaceName : reader.getInterfaceNames()) {
+				classReferences.superTypes.add(interfaceName);
+				classMember.addType(interfaceName);
+			}
+			classReferences.members.add(classMember);
+
+			for (ClassFileReader.Member field : reader.getFields()) {
+				MemberReferences member = new MemberReferences(field.getName(), field.getDescriptor());
+				member.addDescriptorTypes(field.getDescriptor());
+				classReferences.members.add(member);
+			}
+			for (ClassFileReader.Member method : reader.getMethods()) {
+				MemberReferences member = new MemberReferences(method.getName(), method.getDescriptor());
+				member.addDescriptorTypes(method.getDescriptor());
+				if (method.getCodeOffset() > 0) {
+					member.readCode(reader, method.getCodeOffset(), method.getCodeLength());
+				}
+				classReferences.members.add(member);
+			}
+			return classReferences;
+		}
+	}
+
+	private static class MemberReferences {
+		private final String name;
+		private final String descriptor;
+		private final Set<String> targets = new HashSet<>();
+
+		private MemberReferences(String name, String descriptor) {
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+
+		private void addType(String typeName) {
+			// arrays: the element type
+			if (typeName.startsWith("[")) {
+				addDescriptorTypes(typeName);
+			} else {
+				targets.add(typeKey(typeName));
+			}
+		}
+
+		private void addDescriptorTypes(String descriptor) {
+			int start = descriptor.indexOf('L');
+			while (start >= 0) {
+				int end = descriptor.indexOf(';', start);
+				if (end < 0)
+					break;
+				targets.add(typeKey(descriptor.substring(start + 1, end)));
+				start = descriptor.indexOf('L', end);
+			}
+		}
+
+		private void addMember(String[] memberRef, boolean isMethod) {
+			addType(memberRef[0]);
+			if (isMethod) {
+				targets.add(methodKey(memberRef[0], memberRef[1], memberRef[2]));
+			} else {
+				targets.add(fieldKey(memberRef[0], memberRef[1]));
+			}
+		}
+
+		private void addConstant(ClassFileReader reader, int index) {
+			if (reader.getTag(index) == ClassFileReader.CONSTANT_CLASS) {
+				addType(reader.getClassName(index));
+			}
+		}
+
+		/**
+		 * Walks the instructions, see JVMS 6.5
+		 */
+		private void readCode(ClassFileReader reader, int offset, int length) {
+			int pos = offset;
+			int end = offset + length;
+			while (pos < end) {
+				int opcode = reader.readUnsignedByte(pos);
+				switch (opcode) {
+				case 0x12: // ldc
+					addConstant(reader, reader.readUnsignedByte(pos + 1));
+					pos += 2;
+					break;
+				case 0x13: // ldc_w
+					addConstant(reader, reader.readUnsignedShort(pos + 1));
+					pos += 3;
+					break;
+				case 0xb2: // getstatic
+				case 0xb3: // putstatic
+				case 0xb4: // getfield
+				case 0xb5: // putfield
+					addMember(reader.getMemberRef(reader.readUnsignedShort(pos + 1)), false);
+					pos += 3;
+					break;
+				case 0xb6: // invokevirtual
+				case 0xb7: // invokespecial
+				case 0xb8: // invokestatic
+					addMember(reader.getMemberRef(reader.readUnsignedShort(pos + 1)), true);
+					pos += 3;
+					break;
+				case 0xb9: // invokeinterface
+					addMember(reader.getMemberRef(reader.readUnsignedShort(pos + 1)), true);
+					pos += 5;
+					break;
+				case 0xbb: // new
+				case 0xbd: // anewarray
+				case 0xc0: // checkcast
+				case 0xc1: // instanceof
+					addType(reader.getClassName(reader.readUnsignedShort(pos + 1)));
+					pos += 3;
+					break;
+				case 0xc5: // multianewarray
+					addType(reader.getClassName(reader.readUnsignedShort(pos + 1)));
+					pos += 4;
+					break;
+				case 0xaa: { // tableswitch
+					int padded = pos + 4 - ((pos - offset) & 3);
+					int low = reader.readInt(padded + 4);
+					int high = reader.readInt(padded + 8);
+					pos = padded + 12 + (high - low + 1) * 4;
+					break;
+				}
+				case 0xab: { // lookupswitch
+					int padded = pos + 4 - ((pos - offset) & 3);
+					int pairCount = reader.readInt(padded + 4);
+					pos = padded + 8 + pairCount * 8;
+					break;
+				}
+				case 0xc4: // wide
+					pos += (reader.readUnsignedByte(pos + 1) == 0x84) ? 6 : 4;
+					break;
+				default:
+					pos += getInstructionLength(opcode);
+				}
+			}
+		}
+
+		private static int getInstructionLength(int opcode) {
+			if (opcode == 0x10 || opcode == 0xbc || (opcode >= 0x15 && opcode <= 0x19)
+					|| (opcode >= 0x36 && opcode <= 0x3a) || opcode == 0xa9) {
+				// bipush, newarray, loads, stores, ret
+				return 2;
+			}
+			if (opcode == 0x11 || opcode == 0x14 || opcode == 0x84 || (opcode >= 0x99 && opcode <= 0xa8)
+					|| opcode == 0xc6 || opcode == 0xc7) {
+				// sipush, ldc2_w, iinc, branches, ifnull, ifnonnull
+				return 3;
+			}
+			if (opcode == 0xba || opcode == 0xc8 || opcode == 0xc9) {
+				// invokedynamic, goto_w, jsr_w
+				return 5;
+			}
+			return 1;
+		}
+	}
+
+	private static class IntList {
+		private int[] values = new int[4];
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		private int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
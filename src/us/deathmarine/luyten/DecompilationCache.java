@@ -0,0 +1,246 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * The decompiled text of recently seen types, with the link maps of the
+ * viewer when it made them, shared by the tabs, Find All and Save All. Keyed
+ * by archive, internal name and settings fingerprint; the least recently
+ * used types are dropped when the texts outgrow the byte budget. Backed by
+ * DecompilationDiskCache when it is turned on.
+ */
+public class DecompilationCache {
+
+	// of the maximum heap
+	private static final int DEFAULT_BUDGET_DIVISOR = 16;
+	private static final long MAX_DEFAULT_BUDGET_BYTES = 256L * 1024 * 1024;
+	// a Selection with its boxed offsets and its map or set entry
+	private static final int SELECTION_BYTES = 96;
+	private static final int ENTRY_BYTES = 128;
+
+	private static DecompilationCache defaultCache;
+
+	private final long budgetBytes;
+	// access ordered: the eldest is the least recently used
+	private final LinkedHashMap<Key, Result> results = new LinkedHashMap<>(256, 0.75f, true);
+	private long sizeBytes;
+	private volatile DecompilationDiskCache diskCache;
+
+	public DecompilationCache(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+
+	public static synchronized DecompilationCache getDefault() {
+		if (defaultCache == null) {
+			long budgetBytes = Math.min(Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_DIVISOR,
+					MAX_DEFAULT_BUDGET_BYTES);
+			defaultCache = new DecompilationCache(budgetBytes);
+			defaultCache.updateDiskCache();
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Turns the disk cache on or off, from the preferences
+	 */
+	public void updateDiskCache() {
+		boolean isEnabled = ConfigSaver.getLoadedInstance().getLuytenPreferences().isDecompilationDiskCacheEnabled();
+		diskCache = isEnabled ? DecompilationDiskCache.getDefault() : null;
+	}
+
+	/**
+	 * Changes with the file: a rebuilt jar under the same name is another
+	 * archive
+	 */
+	public static String getArchiveId(File file) {
+		return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+	}
+
+	/**
+	 * @return null if it is not cached
+	 */
+	public synchronized Result get(String archiveId, String internalName, String settingsFingerprint) {
+		return results.get(new Key(archiveId, internalName, settingsFingerprint));
+	}
+
+	/**
+	 * In memory, else on disk if the disk cache is on
+	 * 
+	 * @param typeLoader
+	 *            the loader of the decompiler: the disk cache is keyed by the
+	 *            class bytes
+	 * @param dependenciesId
+	 *            the part of archiveId the disk cache is keyed by, see
+	 *            Model.getDependenciesId(), empty for a bare archive
+	 * @return null if it is not cached
+	 */
+	public Result get(String archiveId, String internalName, String settingsFingerprint, ITypeLoader typeLoader,
+			String dependenciesId) {
+		Result result = get(archiveId, internalName, settingsFingerprint);
+		DecompilationDiskCache currentDiskCache = diskCache;
+		if (result != null || currentDiskCache == null)
+			return result;
+		String classHash = DecompilationDiskCache.getClassHash(typeLoader, internalName);
+		if (classHash == null)
+			return null;
+		result = currentDiskCache.get(classHash, settingsFingerprint, dependenciesId);
+		if (result != null) {
+			put(archiveId, internalName, settingsFingerprint, result);
+		}
+		return result;
+	}
+
+	/**
+	 * In memory, and on disk if the disk cache is on
+	 */
+	public void put(String archiveId, String internalName, String settingsFingerprint, ITypeLoader typeLoader,
+			String dependenciesId, Result result) {
+		put(archiveId, internalName, settingsFingerprint, result);
+		DecompilationDiskCache currentDiskCache = diskCache;
+		if (currentDiskCache != null) {
+			String classHash = DecompilationDiskCache.getClassHash(typeLoader, internalName);
+			if (classHash != null) {
+				currentDiskCache.put(classHash, settingsFingerprint, dependenciesId, result);
+			}
+		}
+	}
+
+	/**
+	 * A text without links does not replace one with them
+	 */
+	public synchronized void put(String archiveId, String internalName, String settingsFingerprint, Result result) {
+		if (result.sizeBytes > budgetBytes)
+			return;
+		Key key = new Key(archiveId, internalName, settingsFingerprint);
+		Result previous = results.get(key);
+		if (previous != null) {
+			if (previous.hasLinks() && !result.hasLinks())
+				return;
+			sizeBytes -= previous.sizeBytes;
+		}
+		results.put(key, result);
+		sizeBytes += result.sizeBytes;
+		for (Iterator<Result> eldest = results.values().iterator(); sizeBytes > budgetBytes && eldest.hasNext();) {
+			sizeBytes -= eldest.next().sizeBytes;
+			eldest.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		results.clear();
+		sizeBytes = 0;
+	}
+
+	public synchronized long getSizeBytes() {
+		return sizeBytes;
+	}
+
+	public synchronized int getCount() {
+		return results.size();
+	}
+
+	/**
+	 * Read only once cached: the tabs showing the type share it
+	 */
+	public static class Result {
+		private final String text;
+		private final Map<String, Selection> definitionToSelectionMap;
+		private final Map<String, Set<Selection>> referenceToSelectionsMap;
+		private final long sizeBytes;
+
+		/**
+		 * A text without links, like the one of Save All
+		 */
+		public Result(String text) {
+			this(text, null, null);
+		}
+
+		public Result(String text, Map<String, Selection> definitionToSelectionMap,
+				Map<String, Set<Selection>> referenceToSelectionsMap) {
+			this.text = text;
+			this.definitionToSelectionMap = definitionToSelectionMap;
+			this.referenceToSelectionsMap = referenceToSelectionsMap;
+			this.sizeBytes = estimateSize();
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public boolean hasLinks() {
+			return definitionToSelectionMap != null && referenceToSelectionsMap != null;
+		}
+
+		/**
+		 * @return null for a text without links
+		 */
+		public Map<String, Selection> getDefinitionToSelectionMap() {
+			return definitionToSelectionMap;
+		}
+
+		/**
+		 * @return null for a text without links
+		 */
+		public Map<String, Set<Selection>> getReferenceToSelectionsMap() {
+			return referenceToSelectionsMap;
+		}
+
+		public long getSizeBytes() {
+			return sizeBytes;
+		}
+
+		private long estimateSize() {
+			long size = ENTRY_BYTES + 2L * text.length();
+			if (definitionToSelectionMap != null) {
+				for (String uniqueStr : definitionToSelectionMap.keySet()) {
+					size += ENTRY_BYTES + 2L * uniqueStr.length() + SELECTION_BYTES;
+				}
+			}
+			if (referenceToSelectionsMap != null) {
+				for (Map.Entry<String, Set<Selection>> entry : referenceToSelectionsMap.entrySet()) {
+					size += ENTRY_BYTES + 2L * entry.getKey().length() + SELECTION_BYTES * entry.getValue().size();
+				}
+			}
+			return size;
+		}
+	}
+
+	private static class Key {
+		private final String archiveId;
+		private final String internalName;
+		private final String settingsFingerprint;
+
+		private Key(String archiveId, String internalName, String settingsFingerprint) {
+			this.archiveId = archiveId;
+			this.internalName = internalName;
+			this.settingsFingerprint = settingsFingerprint;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + archiveId.hashCode();
+			result = prime * result + internalName.hashCode();
+			result = prime * result + settingsFingerprint.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return archiveId.equals(other.archiveId) && internalName.equals(other.internalName)
+					&& settingsFingerprint.equals(other.settingsFingerprint);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Decompiled types kept across sessions, one deflated file per type under
+ * ~/.luyten/decompiled: the text and the link maps. Keyed by a hash of the
+ * class bytes, with those of its nested classes, by the settings fingerprint
+ * (it has the Procyon version) and by what the class is resolved against
+ * besides its own archive, so a rebuilt jar reuses its unchanged classes.
+ * Files are touched when read, the least recently read ones are deleted when
+ * the directory outgrows its cap.
+ */
+public class DecompilationDiskCache {
+
+	private static final int MAGIC = 0x4C594443;
+	private static final int VERSION = 1;
+	private static final String CACHE_DIRECTORY = "decompiled";
+	private static final String FILE_SUFFIX = ".dc";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+	// cleanup goes below the cap: not on every write
+	private static final int CLEANUP_PERCENT = 75;
+
+	private static DecompilationDiskCache defaultCache;
+
+	private final File directory;
+	private final long maxSizeBytes;
+	// -1 until the directory is listed
+	private long sizeBytes = -1;
+
+	public DecompilationDiskCache(File directory, long maxSizeBytes) {
+		this.directory = directory;
+		this.maxSizeBytes = maxSizeBytes;
+	}
+
+	public static synchronized DecompilationDiskCache getDefault() {
+		if (defaultCache == null) {
+			defaultCache = new DecompilationDiskCache(ConfigSaver.getConfigDirectory(CACHE_DIRECTORY),
+					DEFAULT_MAX_SIZE_BYTES);
+		}
+		return defaultCache;
+	}
+
+	/**
+	 * Hash of the class and of the nested classes it refers to (anonymous
+	 * and inner ones are decompiled into it), loaded through the loader of
+	 * the decompiler
+	 *
+	 * @return null if the type cannot be loaded
+	 */
+	public static String getClassHash(ITypeLoader typeLoader, String internalName) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			String nestedPrefix = internalName + "$";
+			Set<String> seen = new HashSet<>();
+			Deque<String> queue = new ArrayDeque<>();
+			queue.add(internalName);
+			seen.add(internalName);
+			Buffer buffer = new Buffer();
+			while (!queue.isEmpty()) {
+				String name = queue.removeFirst();
+				buffer.reset();
+				if (!typeLoader.tryLoadType(name, buffer)) {
+					if (name.equals(internalName))
+						return null;
+					// a nested class that is not there, as for the decompiler
+					digest.update(("missing:" + name).getBytes("UTF-8"));
+					continue;
+				}
+				byte[] bytes = Arrays.copyOf(buffer.array(), buffer.size());
+				digest.update(name.getBytes("UTF-8"));
+				digest.update(bytes);
+				ClassFileReader reader = new ClassFileReader(bytes);
+				for (int index = 1; index < reader.getConstantCount(); index++) {
+					if (reader.getTag(index) == ClassFileReader.CONSTANT_CLASS) {
+						String className = reader.getClassName(index);
+						if (className.startsWith(nestedPrefix) && seen.add(className)) {
+							queue.add(className);
+						}
+					}
+				}
+			}
+			return SettingsFingerprint.toHex(digest.digest());
+		} catch (Exception e) {
+			// not a class file: not cached
+			return null;
+		}
+	}
+
+	/**
+	 * @param dependenciesId
+	 *            see Model.getDependenciesId(), empty for a bare archive
+	 * @return null if it is not cached
+	 */
+	public DecompilationCache.Result get(String classHash, String settingsFingerprint, String dependenciesId) {
+		File file = getFile(classHash, settingsFingerprint, dependenciesId);
+		if (!file.isFile())
+			return null;
+		DecompilationCache.Result result;
+		try (DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (header.readInt() != MAGIC || header.readInt() != VERSION)
+				throw new IOException("Unknown cache format: " + file);
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(header)))) {
+				byte[] textBytes = new byte[in.readInt()];
+				in.readFully(textBytes);
+				String text = new String(textBytes, "UTF-8");
+				if (in.readBoolean()) {
+					Map<String, Selection> definitionToSelectionMap = new HashMap<>();
+					int definitionCount = in.readInt();
+					for (int i = 0; i < definitionCount; i++) {
+						String uniqueStr = in.readUTF();
+						definitionToSelectionMap.put(uniqueStr, new Selection(in.readInt(), in.readInt()));
+					}
+					Map<String, Set<Selection>> referenceToSelectionsMap = new HashMap<>();
+					int referenceCount = in.readInt();
+					for (int i = 0; i < referenceCount; i++) {
+						String uniqueStr = in.readUTF();
+						int selectionCount = in.readInt();
+						Set<Selection> selections = new HashSet<>();
+						for (int j = 0; j < selectionCount; j++) {
+							selections.add(new Selection(in.readInt(), in.readInt()));
+						}
+						referenceToSelectionsMap.put(uniqueStr, selections);
+					}
+					result = new DecompilationCache.Result(text, definitionToSelectionMap, referenceToSelectionsMap);
+				} else {
+					result = new DecompilationCache.Result(text);
+				}
+			}
+		} catch (Exception e) {
+			// broken, old format or deleted by a cleanup
+			file.delete();
+			return null;
+		}
+		// most recently read: deleted last
+		file.setLastModified(System.currentTimeMillis());
+		return result;
+	}
+
+	/**
+	 * A text without links does not replace one with them
+	 */
+	public void put(String classHash, String settingsFingerprint, String dependenciesId,
+			DecompilationCache.Result result) {
+		File file = getFile(classHash, settingsFingerprint, dependenciesId);
+		if (!result.hasLinks() && file.isFile())
+			return;
+		File tempFile = null;
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				return;
+			tempFile = File.createTempFile(file.getName(), TEMP_SUFFIX, directory);
+			write(tempFile, result);
+			synchronized (this) {
+				long previousLength = file.length();
+				file.delete();
+				if (!tempFile.renameTo(file))
+					return;
+				if (sizeBytes >= 0) {
+					sizeBytes += file.length() - previousLength;
+				}
+				if (getSizeBytes() > maxSizeBytes) {
+					cleanUp();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (tempFile != null && tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	public synchronized long getSizeBytes() {
+		if (sizeBytes < 0) {
+			sizeBytes = 0;
+			for (File file : listFiles()) {
+				sizeBytes += file.length();
+			}
+		}
+		return sizeBytes;
+	}
+
+	public synchronized void clear() {
+		for (File file : listFiles()) {
+			file.delete();
+		}
+		sizeBytes = -1;
+	}
+
+	private static void write(File tempFile, DecompilationCache.Result result) throws IOException {
+		Deflater def = new Deflater(Deflater.BEST_SPEED);
+		try (DataOutputStream header = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			DeflaterOutputStream deflater = new DeflaterOutputStream(header, def);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(deflater));
+			byte[] textBytes = result.getText().getBytes("UTF-8");
+			out.writeInt(textBytes.length);
+			out.write(textBytes);
+			out.writeBoolean(result.hasLinks());
+			if (result.hasLinks()) {
+				Map<String, Selection> definitionToSelectionMap = result.getDefinitionToSelectionMap();
+				out.writeInt(definitionToSelectionMap.size());
+				for (Map.Entry<String, Selection> entry : definitionToSelectionMap.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue().from);
+					out.writeInt(entry.getValue().to);
+				}
+				Map<String, Set<Selection>> referenceToSelectionsMap = result.getReferenceToSelectionsMap();
+				out.writeInt(referenceToSelectionsMap.size());
+				for (Map.Entry<String, Set<Selection>> entry : referenceToSelectionsMap.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue().size());
+					for (Selection selection : entry.getValue()) {
+						out.writeInt(selection.from);
+						out.writeInt(selection.to);
+					}
+				}
+			}
+			out.flush();
+			deflater.finish();
+		} finally {
+			def.end();
+		}
+	}
+
+	/**
+	 * Deletes the least recently read files down to a part of the cap
+	 */
+	private void cleanUp() {
+		File[] files = listFiles();
+		final long[] lastModified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Long.compare(lastModified[o1], lastModified[o2]);
+			}
+		});
+		long size = 0;
+		for (File file : files) {
+			size += file.length();
+		}
+		long targetSize = maxSizeBytes / 100 * CLEANUP_PERCENT;
+		for (int i = 0; i < order.length && size > targetSize; i++) {
+			File file = files[order[i]];
+			long length = file.length();
+			if (file.delete()) {
+				size -= length;
+			}
+		}
+		sizeBytes = size;
+	}
+
+	private File[] listFiles() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return new File[0];
+		int count = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(FILE_SUFFIX)) {
+				files[count++] = file;
+			}
+		}
+		return Arrays.copyOf(files, count);
+	}
+
+	private File getFile(String classHash, String settingsFingerprint, String dependenciesId) {
+		return new File(directory, SettingsFingerprint.md5Hex(classHash + "|" + settingsFingerprint + "|"
+				+ dependenciesId) + FILE_SUFFIX);
+	}
+}
@@ -0,0 +1,219 @@
+package us.deathmarine.luyten;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.assembler.metadata.TypeReference;
+import com.strobel.decompiler.DecompilationOptions;
+import com.strobel.decompiler.DecompilerSettings;
+import com.strobel.decompiler.PlainTextOutput;
+import com.strobel.decompiler.languages.Languages;
+
+/**
+ * Decompiles the classes likely to be opened next into DecompilationCache
+ * while the viewer is idle: the neighbours of the open class in its package
+ * and the types it refers to most. One type at a time on a low priority
+ * thread, with its own MetadataSystem so the viewer never waits for it; it
+ * pauses as soon as the viewer decompiles, a newer class replaces the
+ * pending ones.
+ */
+public class DecompilationPrefetcher {
+
+	// after the last foreground decompilation
+	private static final long IDLE_DELAY_MILLIS = 500;
+
+	private static DecompilationPrefetcher defaultPrefetcher;
+
+	private final Object lock = new Object();
+	private int foregroundCount;
+	private long foregroundEndTime;
+	private Batch pending;
+	private Thread thread;
+
+	public static synchronized DecompilationPrefetcher getDefault() {
+		if (defaultPrefetcher == null) {
+			defaultPrefetcher = new DecompilationPrefetcher();
+		}
+		return defaultPrefetcher;
+	}
+
+	/**
+	 * @param ownPath
+	 *            of the decompiled type, like "com/acme/Model"
+	 * @return the top level types with the most references in the text,
+	 *         like "com/acme/View", most referenced first
+	 */
+	public static List<String> getMostReferencedTypes(String ownPath,
+			Map<String, Set<Selection>> referenceToSelectionsMap, int maxCount) {
+		final Map<String, Integer> counts = new HashMap<>();
+		for (Map.Entry<String, Set<Selection>> entry : referenceToSelectionsMap.entrySet()) {
+			// "type|com/acme/View|com.acme.View", members the same after the type
+			String[] linkParts = entry.getKey().split("\\|");
+			if (linkParts.length < 3 || linkParts[1].equals(ownPath))
+				continue;
+			Integer count = counts.get(linkParts[1]);
+			counts.put(linkParts[1], ((count != null) ? count : 0) + entry.getValue().size());
+		}
+		List<String> types = new ArrayList<>(counts.keySet());
+		Collections.sort(types, new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				int result = counts.get(o2).compareTo(counts.get(o1));
+				return (result != 0) ? result : o1.compareTo(o2);
+			}
+		});
+		return (types.size() > maxCount) ? types.subList(0, maxCount) : types;
+	}
+
+	/**
+	 * Replaces the types not prefetched yet
+	 *
+	 * @param archiveId
+	 *            the key of the viewer, see Model.getDecompilationContextId()
+	 * @param typeLoader
+	 *            the loader of the viewer
+	 * @param dependenciesId
+	 *            see Model.getDependenciesId()
+	 * @param internalNames
+	 *            in the order to decompile them
+	 */
+	public void schedule(String archiveId, ITypeLoader typeLoader, String dependenciesId,
+			List<String> internalNames) {
+		synchronized (lock) {
+			pending = new Batch(archiveId, typeLoader, dependenciesId, new ArrayList<>(internalNames));
+			if (thread == null) {
+				thread = new Thread("prefetch") {
+					@Override
+					public void run() {
+						prefetch();
+					}
+				};
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.start();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * The file was closed
+	 */
+	public void cancel() {
+		synchronized (lock) {
+			pending = null;
+		}
+	}
+
+	public void onForegroundStarted() {
+		synchronized (lock) {
+			foregroundCount++;
+		}
+	}
+
+	public void onForegroundEnded() {
+		synchronized (lock) {
+			foregroundCount--;
+			foregroundEndTime = System.currentTimeMillis();
+			lock.notifyAll();
+		}
+	}
+
+	private void prefetch() {
+		Batch batch = null;
+		MetadataSystem metadataSystem = null;
+		while (true) {
+			String internalName;
+			try {
+				synchronized (lock) {
+					while (true) {
+						if (pending != batch) {
+							batch = pending;
+							metadataSystem = null;
+						}
+						long idleMillis = System.currentTimeMillis() - foregroundEndTime;
+						if (batch == null || batch.internalNames.isEmpty() || foregroundCount > 0) {
+							lock.wait();
+						} else if (idleMillis < IDLE_DELAY_MILLIS) {
+							lock.wait(IDLE_DELAY_MILLIS - idleMillis);
+						} else {
+							internalName = batch.internalNames.remove(0);
+							break;
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				if (metadataSystem == null) {
+					// per class opened: resolved types are not kept for long
+					metadataSystem = new MetadataSystem(batch.typeLoader);
+				}
+				decompile(batch, metadataSystem, internalName);
+			} catch (Throwable t) {
+				// it will fail again in the viewer, with a message there
+			}
+		}
+	}
+
+	private static void decompile(Batch batch, MetadataSystem metadataSystem, String internalName) {
+		DecompilationCache cache = DecompilationCache.getDefault();
+		if (cache.get(batch.archiveId, internalName, batch.settingsFingerprint, batch.typeLoader,
+				batch.dependenciesId) != null)
+			return;
+		TypeReference type = metadataSystem.lookupType(internalName);
+		TypeDefinition resolvedType = null;
+		if ((type == null) || ((resolvedType = type.resolve()) == null))
+			return;
+		DecompilationCache.Result result;
+		if (Languages.java().getName().equals(batch.settings.getLanguage().getName())) {
+			// with the links, as the viewer makes them
+			DecompilerLinkProvider linkProvider = new DecompilerLinkProvider();
+			linkProvider.setDecompilerReferences(metadataSystem, batch.settings, batch.decompilationOptions);
+			linkProvider.setType(resolvedType);
+			linkProvider.generateContent();
+			result = linkProvider.getResult();
+		} else {
+			StringWriter stringwriter = new StringWriter();
+			PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
+			plainTextOutput.setUnicodeOutputEnabled(batch.settings.isUnicodeOutputEnabled());
+			batch.settings.getLanguage().decompileType(resolvedType, plainTextOutput, batch.decompilationOptions);
+			result = new DecompilationCache.Result(stringwriter.toString());
+		}
+		// in memory only: the disk cache keeps what was viewed
+		cache.put(batch.archiveId, internalName, batch.settingsFingerprint, result);
+	}
+
+	private static class Batch {
+		private final String archiveId;
+		private final ITypeLoader typeLoader;
+		private final String dependenciesId;
+		private final List<String> internalNames;
+		// a private copy, read without synchronization
+		private final DecompilerSettings settings;
+		private final String settingsFingerprint;
+		private final DecompilationOptions decompilationOptions;
+
+		private Batch(String archiveId, ITypeLoader typeLoader, String dependenciesId, List<String> internalNames) {
+			this.archiveId = archiveId;
+			this.typeLoader = typeLoader;
+			this.dependenciesId = dependenciesId;
+			this.internalNames = internalNames;
+			this.settings = JarDecompiler.cloneSettings();
+			this.settingsFingerprint = SettingsFingerprint.of(settings);
+			this.decompilationOptions = new DecompilationOptions();
+			decompilationOptions.setSettings(settings);
+			decompilationOptions.setFullDecompilation(true);
+		}
+	}
+}
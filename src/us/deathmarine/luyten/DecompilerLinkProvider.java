@@ -36,7 +36,7 @@ public class DecompilerLinkProvider implements LinkProvider {
 	public void generateContent() {
 		definitionToSelectionMap = new HashMap<>();
 		referenceToSelectionsMap = new HashMap<>();
-		currentTypeQualifiedName = type.getPackageName() + "." + type.getName();
+		currentTypeQualifiedName = getQualifiedName(type);
 		final StringWriter stringwriter = new StringWriter();
 		PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter) {
 			@Override
@@ -98,6 +98,28 @@ public class DecompilerLinkProvider implements LinkProvider {
 		isSelectionMapsPopulated = true;
 	}
 
+	/**
+	 * Instead of generateContent(), from a result with links
+	 */
+	public void setContent(DecompilationCache.Result result) {
+		definitionToSelectionMap = result.getDefinitionToSelectionMap();
+		referenceToSelectionsMap = result.getReferenceToSelectionsMap();
+		currentTypeQualifiedName = getQualifiedName(type);
+		textContent = result.getText();
+		isSelectionMapsPopulated = true;
+	}
+
+	/**
+	 * For the cache, after generateContent()
+	 */
+	public DecompilationCache.Result getResult() {
+		return new DecompilationCache.Result(textContent, definitionToSelectionMap, referenceToSelectionsMap);
+	}
+
+	private static String getQualifiedName(TypeDefinition type) {
+		return type.getPackageName() + "." + type.getName();
+	}
+
 	private String createUniqueStrForReference(Object reference) {
 		String uniqueStr = null;
 		if (reference instanceof TypeReference) {
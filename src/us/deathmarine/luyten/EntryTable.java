@@ -0,0 +1,317 @@
+package us.deathmarine.luyten;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names of the file entries of the open archive, stored compactly: each
+ * package is a segment under its parent package (segments are interned)
+ * and the simple names are packed as UTF-8 bytes in one array. The tree,
+ * the inner class filter and the expansion state refer to entries and
+ * packages by their int ids, the Strings are only created when asked for.
+ */
+public class EntryTable {
+
+	/**
+	 * The default package, holds the root entries
+	 */
+	public static final int ROOT_PACKAGE = 0;
+
+	// packages
+	private int packageCount;
+	private int[] packageParents = new int[64];
+	private int[] packageSegments = new int[64];
+	private final Map<Long, Integer> packageIds = new HashMap<>();
+
+	// interned segments
+	private String[] segments = new String[64];
+	private int segmentCount;
+	private final Map<String, Integer> segmentIds = new HashMap<>();
+
+	// entries
+	private int entryCount;
+	private int[] entryPackages = new int[256];
+	// start of each simple name in names, the next start is its end
+	private int[] nameStarts = new int[257];
+	private byte[] names = new byte[4096];
+	// open addressing on package and simple name: entry id + 1, built on
+	// the first lookup
+	private int[] entrySlots;
+	private int indexedEntryCount;
+
+	public EntryTable() {
+		packageParents[ROOT_PACKAGE] = -1;
+		packageSegments[ROOT_PACKAGE] = -1;
+		packageCount = 1;
+	}
+
+	/**
+	 * @return the names of the file entries of the archive
+	 */
+	public static EntryTable build(ZipArchive archive) {
+		EntryTable table = new EntryTable();
+		for (ZipArchive.Entry entry : archive.getEntries()) {
+			if (!entry.isDirectory()) {
+				table.add(entry.getName());
+			}
+		}
+		table.trim();
+		return table;
+	}
+
+	/**
+	 * @param entryName
+	 *            name of a file entry (not a directory)
+	 * @return the id of the entry
+	 */
+	public int add(String entryName) {
+		int slash = entryName.lastIndexOf('/');
+		int packageId = ROOT_PACKAGE;
+		if (slash >= 0) {
+			// "a//B.class" has an empty segment, like split("/")
+			int start = 0;
+			while (true) {
+				int end = entryName.indexOf('/', start);
+				if (end < 0 || end > slash)
+					end = slash;
+				packageId = addPackage(packageId, entryName.substring(start, end));
+				if (end == slash)
+					break;
+				start = end + 1;
+			}
+		}
+		byte[] simpleName = entryName.substring(slash + 1).getBytes(ZipArchive.UTF8);
+
+		if (entryCount == entryPackages.length) {
+			entryPackages = Arrays.copyOf(entryPackages, entryCount * 2);
+			nameStarts = Arrays.copyOf(nameStarts, entryCount * 2 + 1);
+		}
+		int start = nameStarts[entryCount];
+		if (start + simpleName.length > names.length) {
+			names = Arrays.copyOf(names, Math.max(names.length * 2, start + simpleName.length));
+		}
+		System.arraycopy(simpleName, 0, names, start, simpleName.length);
+		entryPackages[entryCount] = packageId;
+		nameStarts[entryCount + 1] = start + simpleName.length;
+		return entryCount++;
+	}
+
+	private int addPackage(int parent, String segment) {
+		Integer segmentId = segmentIds.get(segment);
+		if (segmentId == null) {
+			if (segmentCount == segments.length) {
+				segments = Arrays.copyOf(segments, segmentCount * 2);
+			}
+			segmentId = segmentCount;
+			segments[segmentCount++] = segment;
+			segmentIds.put(segment, segmentId);
+		}
+		Long key = ((long) parent << 32) | segmentId;
+		Integer packageId = packageIds.get(key);
+		if (packageId == null) {
+			if (packageCount == packageParents.length) {
+				packageParents = Arrays.copyOf(packageParents, packageCount * 2);
+				packageSegments = Arrays.copyOf(packageSegments, packageCount * 2);
+			}
+			packageId = packageCount;
+			packageParents[packageCount] = parent;
+			packageSegments[packageCount] = segmentId;
+			packageCount++;
+			packageIds.put(key, packageId);
+		}
+		return packageId;
+	}
+
+	/**
+	 * Drops the spare room of the arrays, when all entries are added
+	 */
+	public void trim() {
+		entryPackages = Arrays.copyOf(entryPackages, entryCount);
+		nameStarts = Arrays.copyOf(nameStarts, entryCount + 1);
+		names = Arrays.copyOf(names, nameStarts[entryCount]);
+		packageParents = Arrays.copyOf(packageParents, packageCount);
+		packageSegments = Arrays.copyOf(packageSegments, packageCount);
+		segments = Arrays.copyOf(segments, segmentCount);
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @return the ids of all entries, in archive order
+	 */
+	public int[] getAllEntryIds() {
+		int[] ids = new int[entryCount];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i;
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the full name, like "com/acme/Model.class"
+	 */
+	public String getName(int entryId) {
+		int packageId = entryPackages[entryId];
+		if (packageId == ROOT_PACKAGE)
+			return getSimpleName(entryId);
+		StringBuilder sb = new StringBuilder(64);
+		appendPackagePath(sb, packageId);
+		return sb.append('/').append(getSimpleName(entryId)).toString();
+	}
+
+	public String getSimpleName(int entryId) {
+		int start = nameStarts[entryId];
+		return new String(names, start, nameStarts[entryId + 1] - start, ZipArchive.UTF8);
+	}
+
+	public int getPackage(int entryId) {
+		return entryPackages[entryId];
+	}
+
+	public int getPackageCount() {
+		return packageCount;
+	}
+
+	/**
+	 * @return -1 for the root package
+	 */
+	public int getPackageParent(int packageId) {
+		return packageParents[packageId];
+	}
+
+	/**
+	 * @return the last segment of the package path, "" for the root
+	 *         package
+	 */
+	public String getPackageSegment(int packageId) {
+		return (packageId == ROOT_PACKAGE) ? "" : segments[packageSegments[packageId]];
+	}
+
+	/**
+	 * @return like "com/acme", "" for the root package
+	 */
+	public String getPackagePath(int packageId) {
+		if (packageId == ROOT_PACKAGE)
+			return "";
+		StringBuilder sb = new StringBuilder(48);
+		appendPackagePath(sb, packageId);
+		return sb.toString();
+	}
+
+	private void appendPackagePath(StringBuilder sb, int packageId) {
+		int parent = packageParents[packageId];
+		if (parent != ROOT_PACKAGE) {
+			appendPackagePath(sb, parent);
+			sb.append('/');
+		}
+		sb.append(segments[packageSegments[packageId]]);
+	}
+
+	/**
+	 * @return the id of the first entry of this name in the package, -1 if
+	 *         there is none
+	 */
+	public int findEntry(int packageId, String simpleName) {
+		int[] slots = getEntrySlots();
+		byte[] nameBytes = simpleName.getBytes(ZipArchive.UTF8);
+		int mask = slots.length - 1;
+		for (int slot = hash(packageId, nameBytes, 0, nameBytes.length) & mask; slots[slot] != 0; slot = (slot + 1)
+				& mask) {
+			int entryId = slots[slot] - 1;
+			if (entryPackages[entryId] == packageId && isNameEqual(entryId, nameBytes, 0, nameBytes.length))
+				return entryId;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the id of the first entry with the same package and simple
+	 *         name, entryId itself if there is no earlier one
+	 */
+	public int findFirst(int entryId) {
+		int[] slots = getEntrySlots();
+		int start = nameStarts[entryId];
+		int length = nameStarts[entryId + 1] - start;
+		int mask = slots.length - 1;
+		for (int slot = hash(entryPackages[entryId], names, start, length) & mask; slots[slot] != 0; slot = (slot + 1)
+				& mask) {
+			int other = slots[slot] - 1;
+			if (entryPackages[other] == entryPackages[entryId] && isNameEqual(other, names, start, length))
+				return other;
+		}
+		return entryId;
+	}
+
+	private synchronized int[] getEntrySlots() {
+		if (entrySlots == null || indexedEntryCount != entryCount) {
+			int[] slots = new int[Integer.highestOneBit(Math.max(entryCount, 1) * 2) * 2];
+			int mask = slots.length - 1;
+			for (int entryId = 0; entryId < entryCount; entryId++) {
+				int start = nameStarts[entryId];
+				int length = nameStarts[entryId + 1] - start;
+				int slot = hash(entryPackages[entryId], names, start, length) & mask;
+				boolean isDuplicate = false;
+				for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+					int other = slots[slot] - 1;
+					if (entryPackages[other] == entryPackages[entryId] && isNameEqual(other, names, start, length)) {
+						isDuplicate = true;
+						break;
+					}
+				}
+				if (!isDuplicate) {
+					slots[slot] = entryId + 1;
+				}
+			}
+			entrySlots = slots;
+			indexedEntryCount = entryCount;
+		}
+		return entrySlots;
+	}
+
+	private boolean isNameEqual(int entryId, byte[] bytes, int start, int length) {
+		int nameStart = nameStarts[entryId];
+		if (nameStarts[entryId + 1] - nameStart != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (names[nameStart + i] != bytes[start + i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int hash(int packageId, byte[] bytes, int start, int length) {
+		int hash = packageId;
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		// spread the low bits, they pick the slot
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @param packagePath
+	 *            like "com/acme", "" for the root package
+	 * @return -1 if there is no such package
+	 */
+	public int findPackage(String packagePath) {
+		if (packagePath.isEmpty())
+			return ROOT_PACKAGE;
+		int packageId = ROOT_PACKAGE;
+		int start = 0;
+		while (packageId >= 0) {
+			int end = packagePath.indexOf('/', start);
+			if (end < 0)
+				end = packagePath.length();
+			Integer segmentId = segmentIds.get(packagePath.substring(start, end));
+			Integer child = (segmentId != null) ? packageIds.get(((long) packageId << 32) | segmentId) : null;
+			packageId = (child != null) ? child : -1;
+			if (end == packagePath.length())
+				break;
+			start = end + 1;
+		}
+		return packageId;
+	}
+}
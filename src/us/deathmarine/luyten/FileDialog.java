@@ -50,6 +50,28 @@ public class FileDialog {
 		return selectedFile;
 	}
 
+	/**
+	 * @return the files to add to the workspace, empty if cancelled
+	 */
+	public File[] doAddDialog() {
+		initOpenDialog();
+
+		retrieveOpenDialogDir(fcOpen);
+		fcOpen.setMultiSelectionEnabled(true);
+		int returnVal;
+		try {
+			returnVal = fcOpen.showOpenDialog(parent);
+		} finally {
+			fcOpen.setMultiSelectionEnabled(false);
+		}
+		saveOpenDialogDir(fcOpen);
+
+		if (returnVal == JFileChooser.APPROVE_OPTION) {
+			return fcOpen.getSelectedFiles();
+		}
+		return new File[0];
+	}
+
 	public File doSaveDialog(String recommendedFileName) {
 		File selectedFile = null;
 		initSaveDialog();
@@ -83,6 +105,8 @@ public class FileDialog {
 	public synchronized void initOpenDialog() {
 		if (fcOpen == null) {
 			fcOpen = createFileChooser("*.jar", "*.zip", "*.class");
+			// class directories too, like target/classes
+			fcOpen.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 			retrieveOpenDialogDir(fcOpen);
 		}
 	}
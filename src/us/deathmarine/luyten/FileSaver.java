@@ -4,23 +4,11 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.zip.ZipException;
-import java.util.zip.ZipOutputStream;
 
 import javax.swing.JLabel;
 import javax.swing.JMenuItem;
@@ -29,16 +17,7 @@ import javax.swing.JPopupMenu;
 import javax.swing.JProgressBar;
 import javax.swing.SwingUtilities;
 
-import com.strobel.assembler.metadata.ITypeLoader;
-import com.strobel.assembler.metadata.JarTypeLoader;
-import com.strobel.assembler.metadata.MetadataSystem;
-import com.strobel.assembler.metadata.TypeDefinition;
-import com.strobel.assembler.metadata.TypeReference;
-import com.strobel.core.StringUtilities;
-import com.strobel.decompiler.DecompilationOptions;
 import com.strobel.decompiler.DecompilerSettings;
-import com.strobel.decompiler.PlainTextOutput;
-import com.strobel.decompiler.languages.java.JavaFormattingOptions;
 
 /**
  * Performs Save and Save All
@@ -47,7 +26,7 @@ public class FileSaver {
 
 	private JProgressBar bar;
 	private JLabel label;
-	private boolean cancel;
+	private volatile boolean cancel;
 	private boolean extracting;
 
 	public FileSaver(JProgressBar bar, JLabel label) {
@@ -107,8 +86,9 @@ public class FileSaver {
 					setExtracting(true);
 					label.setText("Extracting: " + outFile.getName());
 					String inFileName = inFile.getName().toLowerCase();
+					boolean isJar = inFileName.endsWith(".jar") || inFileName.endsWith(".zip");
 
-					if (inFileName.endsWith(".jar") || inFileName.endsWith(".zip")) {
+					if (isJar) {
 						doSaveJarDecompiled(inFile, outFile);
 					} else if (inFileName.endsWith(".class")) {
 						doSaveClassDecompiled(inFile, outFile);
@@ -117,7 +97,9 @@ public class FileSaver {
 					}
 					if(cancel){
 						label.setText("Cancelled");
-						outFile.delete();
+						// jar: written into a temp file, the previous Save All stays for the next run
+						if (!isJar)
+							outFile.delete();
 						setCancel(false);
 					}else{
 						label.setText("Completed: "+ getTime(time));
@@ -135,125 +117,35 @@ public class FileSaver {
 	}
 
 	private void doSaveJarDecompiled(File inFile, File outFile) throws Exception {
-		try (JarFile jfile = new JarFile(inFile);
-				FileOutputStream dest = new FileOutputStream(outFile);
-				BufferedOutputStream buffDest = new BufferedOutputStream(dest);
-				ZipOutputStream out = new ZipOutputStream(buffDest);) {
-			bar.setMinimum(0);
-			bar.setMaximum(jfile.size());
-			byte data[] = new byte[1024];
-			DecompilerSettings settings = cloneSettings();
-			LuytenTypeLoader typeLoader = new LuytenTypeLoader();
-			MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
-			ITypeLoader jarLoader = new JarTypeLoader(jfile);
-			typeLoader.getTypeLoaders().add(jarLoader);
-
-			DecompilationOptions decompilationOptions = new DecompilationOptions();
-			decompilationOptions.setSettings(settings);
-			decompilationOptions.setFullDecompilation(true);
-
-			List<String> mass = null;
-			JarEntryFilter jarEntryFilter = new JarEntryFilter(jfile);
-			LuytenPreferences luytenPrefs = ConfigSaver.getLoadedInstance().getLuytenPreferences();
-			if (luytenPrefs.isFilterOutInnerClassEntries()) {
-				mass = jarEntryFilter.getEntriesWithoutInnerClasses();
-			} else {
-				mass = jarEntryFilter.getAllEntriesFromJar();
+		LuytenPreferences luytenPrefs = ConfigSaver.getLoadedInstance().getLuytenPreferences();
+		JarDecompiler jarDecompiler = new JarDecompiler(cloneSettings(), ParallelDecompiler.getPreferredThreadCount());
+		jarDecompiler.setFilterOutInnerClassEntries(luytenPrefs.isFilterOutInnerClassEntries());
+		jarDecompiler.setDecompilationCache(DecompilationCache.getDefault());
+		jarDecompiler.decompileToZip(inFile, outFile, new JarDecompiler.Listener() {
+			@Override
+			public void onStarted(int entryCount) {
+				bar.setMinimum(0);
+				bar.setMaximum(entryCount);
 			}
 
-			Enumeration<JarEntry> ent = jfile.entries();
-			Set<JarEntry> history = new HashSet<JarEntry>();
-			int tick = 0;
-			while (ent.hasMoreElements() && !cancel) {
-				bar.setValue(++tick);
-				JarEntry entry = ent.nextElement();
-				if (!mass.contains(entry.getName()))
-					continue;
-				label.setText("Extracting: " + entry.getName());
+			@Override
+			public void onEntry(String entryName, int tick) {
+				bar.setValue(tick);
+				label.setText("Extracting: " + entryName);
 				bar.setVisible(true);
-				if (entry.getName().endsWith(".class")) {
-					JarEntry etn = new JarEntry(entry.getName().replace(".class", ".java"));
-					label.setText("Extracting: " + etn.getName());
-					//Duplicate
-					if(history.add(etn)){
-						out.putNextEntry(etn);
-						try {
-							boolean isUnicodeEnabled = decompilationOptions.getSettings().isUnicodeOutputEnabled();
-							String internalName = StringUtilities.removeRight(entry.getName(), ".class");
-							TypeReference type = metadataSystem.lookupType(internalName);
-							TypeDefinition resolvedType = null;
-							if ((type == null) || ((resolvedType = type.resolve()) == null)) {
-								throw new Exception("Unable to resolve type.");
-							}
-							Writer writer = isUnicodeEnabled ? new OutputStreamWriter(out, "UTF-8") : new OutputStreamWriter(out);
-							PlainTextOutput plainTextOutput = new PlainTextOutput(writer);
-							plainTextOutput.setUnicodeOutputEnabled(isUnicodeEnabled);
-							settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
-							writer.flush();
-						} finally {
-							out.closeEntry();
-						}
-					}
-				} else {
-					try {
-						JarEntry etn = new JarEntry(entry.getName());
-						if(history.add(etn))
-							continue;
-						history.add(etn);
-						out.putNextEntry(etn);
-						try {
-							InputStream in = jfile.getInputStream(entry);
-							if (in != null) {
-								try {
-									int count;
-									while ((count = in.read(data, 0, 1024)) != -1) {
-										out.write(data, 0, count);
-									}
-								} finally {
-									in.close();
-								}
-							}
-						} finally {
-							out.closeEntry();
-						}
-					} catch (ZipException ze) {
-						// some jar-s contain duplicate pom.xml entries: ignore it
-						if (!ze.getMessage().contains("duplicate")) {
-							throw ze;
-						}
-					}
-				}
 			}
-		}
+
+			@Override
+			public boolean isCancelled() {
+				return cancel;
+			}
+		});
 	}
 
 	private void doSaveClassDecompiled(File inFile, File outFile) throws Exception {
-		DecompilerSettings settings = cloneSettings();
-		LuytenTypeLoader typeLoader = new LuytenTypeLoader();
-		MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
-		TypeReference type = metadataSystem.lookupType(inFile.getCanonicalPath());
-
-		DecompilationOptions decompilationOptions = new DecompilationOptions();
-		decompilationOptions.setSettings(settings);
-		decompilationOptions.setFullDecompilation(true);
-
-		boolean isUnicodeEnabled = decompilationOptions.getSettings().isUnicodeOutputEnabled();
-		TypeDefinition resolvedType = null;
-		if (type == null || ((resolvedType = type.resolve()) == null)) {
-			throw new Exception("Unable to resolve type.");
-		}
-		StringWriter stringwriter = new StringWriter();
-		PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
-		plainTextOutput.setUnicodeOutputEnabled(isUnicodeEnabled);
-		settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
-		String decompiledSource = stringwriter.toString();
-
-		try (FileOutputStream fos = new FileOutputStream(outFile);
-				OutputStreamWriter writer = isUnicodeEnabled ? new OutputStreamWriter(fos, "UTF-8") : new OutputStreamWriter(fos);
-				BufferedWriter bw = new BufferedWriter(writer);) {
-			bw.write(decompiledSource);
-			bw.flush();
-		}
+		JarDecompiler jarDecompiler = new JarDecompiler(cloneSettings(), 1);
+		jarDecompiler.setDecompilationCache(DecompilationCache.getDefault());
+		jarDecompiler.decompileClassFile(inFile, outFile);
 	}
 
 	private void doSaveUnknownFile(File inFile, File outFile) throws Exception {
@@ -269,32 +161,7 @@ public class FileSaver {
 	}
 
 	private DecompilerSettings cloneSettings() {
-		DecompilerSettings settings = ConfigSaver.getLoadedInstance().getDecompilerSettings();
-		DecompilerSettings newSettings = new DecompilerSettings();
-		if (newSettings.getFormattingOptions() == null) {
-			newSettings.setFormattingOptions(JavaFormattingOptions.createDefault());
-		}
-		// synchronized: against main menu changes
-		synchronized (settings) {
-			newSettings.setExcludeNestedTypes(settings.getExcludeNestedTypes());
-			newSettings.setFlattenSwitchBlocks(settings.getFlattenSwitchBlocks());
-			newSettings.setForceExplicitImports(settings.getForceExplicitImports());
-			newSettings.setForceExplicitTypeArguments(settings.getForceExplicitTypeArguments());
-			newSettings.setOutputFileHeaderText(settings.getOutputFileHeaderText());
-			newSettings.setLanguage(settings.getLanguage());
-			newSettings.setShowSyntheticMembers(settings.getShowSyntheticMembers());
-			newSettings.setAlwaysGenerateExceptionVariableForCatchBlocks(settings
-					.getAlwaysGenerateExceptionVariableForCatchBlocks());
-			newSettings.setOutputDirectory(settings.getOutputDirectory());
-			newSettings.setRetainRedundantCasts(settings.getRetainRedundantCasts());
-			newSettings.setIncludeErrorDiagnostics(settings.getIncludeErrorDiagnostics());
-			newSettings.setIncludeLineNumbersInBytecode(settings.getIncludeLineNumbersInBytecode());
-			newSettings.setRetainPointlessSwitches(settings.getRetainPointlessSwitches());
-			newSettings.setUnicodeOutputEnabled(settings.isUnicodeOutputEnabled());
-			newSettings.setMergeVariables(settings.getMergeVariables());
-			newSettings.setShowDebugLineNumbers(settings.getShowDebugLineNumbers());
-		}
-		return newSettings;
+		return JarDecompiler.cloneSettings();
 	}
 
 	public boolean isCancel() {
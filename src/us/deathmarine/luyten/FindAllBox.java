@@ -1,15 +1,10 @@
 package us.deathmarine.luyten;
 
-import com.strobel.assembler.metadata.TypeDefinition;
-import com.strobel.assembler.metadata.TypeReference;
 import com.strobel.core.StringUtilities;
-import com.strobel.decompiler.DecompilationOptions;
 import com.strobel.decompiler.DecompilerSettings;
-import com.strobel.decompiler.PlainTextOutput;
 
 import us.deathmarine.luyten.ConfigSaver;
 import us.deathmarine.luyten.MainWindow;
-import us.deathmarine.luyten.Model;
 
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -19,21 +14,26 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.*;
 import javax.swing.GroupLayout.Alignment;
 
 public class FindAllBox extends JDialog {
 	private static final long serialVersionUID = -4125409760166690462L;
-	private boolean cancel;
+	private volatile boolean cancel;
 	private boolean searching;
 	private JButton findButton;
 	private JTextField textField;
+	private JCheckBox bytecodeSearchBox;
 	JProgressBar progressBar;
 	private DefaultListModel<String> classesList = new DefaultListModel<String>();
 	private JLabel statusLabel = new JLabel("");
@@ -42,6 +42,7 @@ public class FindAllBox extends JDialog {
 		progressBar = new JProgressBar(0, 100);
 		JLabel label = new JLabel("Find What:");
 		textField = new JTextField();
+		bytecodeSearchBox = new JCheckBox("Bytecode search: string literals and names in the constant pools, no decompiling");
 		findButton = new JButton("Find");
 		findButton.addActionListener(new FindButton());
 		this.getRootPane().setDefaultButton(findButton);
@@ -81,6 +82,7 @@ public class FindAllBox extends JDialog {
 						layout.createParallelGroup(Alignment.LEADING)
 								.addComponent(statusLabel)
 								.addComponent(textField)
+								.addComponent(bytecodeSearchBox)
 								.addGroup(
 										layout.createSequentialGroup()
 												.addGroup(
@@ -104,6 +106,7 @@ public class FindAllBox extends JDialog {
 						layout.createParallelGroup(Alignment.BASELINE)
 								.addComponent(label).addComponent(textField)
 								.addComponent(findButton))
+				.addComponent(bytecodeSearchBox)
 				.addGroup(
 						layout.createParallelGroup(Alignment.LEADING).addGroup(
 								layout.createSequentialGroup().addGroup(
@@ -132,55 +135,51 @@ public class FindAllBox extends JDialog {
 				public void run() {
 					setSearching(true);
 					classesList.clear();
-					ConfigSaver configSaver = ConfigSaver.getLoadedInstance();
-					DecompilerSettings settings = configSaver
-							.getDecompilerSettings();
+					// private copy: read by the workers without synchronization
+					DecompilerSettings settings = JarDecompiler.cloneSettings();
 					File inFile = MainWindow.model.getOpenedFile();
-					try {
-						JarFile jfile = new JarFile(inFile);
-						Enumeration<JarEntry> entLength = jfile.entries();
-						initProgressBar(Collections.list(entLength).size());
-						Enumeration<JarEntry> ent = jfile.entries();
-						while (ent.hasMoreElements() && !isCancel()) {
-							JarEntry entry = ent.nextElement();
-							setStatus(entry.getName());
-							if (entry.getName().endsWith(".class")) {
-								synchronized (settings) {
-									String internalName = StringUtilities
-											.removeRight(entry.getName(),
-													".class");
-									TypeReference type = Model.metadataSystem
-											.lookupType(internalName);
-									TypeDefinition resolvedType = null;
-									if (type == null
-											|| ((resolvedType = type.resolve()) == null)) {
-										throw new Exception(
-												"Unable to resolve type.");
-									}
-									StringWriter stringwriter = new StringWriter();
-									DecompilationOptions decompilationOptions;
-									decompilationOptions = new DecompilationOptions();
-									decompilationOptions.setSettings(settings);
-									decompilationOptions
-											.setFullDecompilation(true);
-									PlainTextOutput plainTextOutput = 
-											new PlainTextOutput(stringwriter);
-									plainTextOutput.setUnicodeOutputEnabled(
-											decompilationOptions.getSettings()
-											.isUnicodeOutputEnabled());
-									settings.getLanguage().decompileType(
-											resolvedType,
-											plainTextOutput,
-											decompilationOptions);
-									String decompiledSource = stringwriter
-											.toString().toLowerCase();
-									if (decompiledSource.contains(textField
-											.getText().toLowerCase())) {
-										addClassName(entry.getName());
-									}
-								}
+					if (inFile == null || inFile.isDirectory()) {
+						// no archive to search, see MainWindow.onFindAllMenu()
+						setSearching(false);
+						setStatus("No archive open.");
+						return;
+					}
+					if (bytecodeSearchBox.isSelected()) {
+						try {
+							findInConstantPools(inFile);
+							setSearching(false);
+							if (isCancel()) {
+								setCancel(false);
+								setStatus("Cancelled.");
+							} else {
+								setStatus("Done.");
 							}
+						} catch (Exception e1) {
+							setSearching(false);
+							e1.printStackTrace();
 						}
+						return;
+					}
+					String settingsFingerprint = SettingsFingerprint.of(settings);
+					try {
+						if (findInIndex(inFile, settingsFingerprint)
+								|| (awaitIndex(inFile, settings) && findInIndex(inFile, settingsFingerprint))) {
+							setSearching(false);
+							return;
+						}
+					} catch (Exception e1) {
+						// fall back to decompiling
+						e1.printStackTrace();
+					}
+					if (isCancel()) {
+						// the index is still built in the background
+						setCancel(false);
+						setSearching(false);
+						setStatus("Cancelled.");
+						return;
+					}
+					try {
+						findByDecompiling(inFile, settings);
 						setSearching(false);
 						if (isCancel()) {
 							setCancel(false);
@@ -188,10 +187,8 @@ public class FindAllBox extends JDialog {
 						} else {
 							setStatus("Done.");
 						}
-						jfile.close();
-					} catch (IOException e1) {
-						e1.printStackTrace();
 					} catch (Exception e1) {
+						setSearching(false);
 						e1.printStackTrace();
 					}
 				}
@@ -202,6 +199,224 @@ public class FindAllBox extends JDialog {
 
 	}
 
+	/**
+	 * Waits for the background build of the index, showing its progress
+	 *
+	 * @return false if the build failed or the search was cancelled
+	 */
+	private boolean awaitIndex(File inFile, DecompilerSettings settings) throws InterruptedException {
+		final SourceIndexBuilder.Build build = SourceIndexBuilder.getDefault().start(inFile, settings);
+		while (!build.await(ScanProgress.PUBLISH_INTERVAL_MS)) {
+			if (isCancel())
+				return false;
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					int classCount = build.getClassCount();
+					progressBar.setMaximum(Math.max(1, classCount));
+					progressBar.setValue(build.getIndexedCount());
+					progressBar.setString((classCount < 0) ? "Indexing..." : "Indexing " + build.getIndexedCount()
+							+ "/" + classCount + " classes");
+					progressBar.setStringPainted(true);
+				}
+			});
+		}
+		return build.getBuildState() == SourceIndexBuilder.Build.COMMITTED;
+	}
+
+	/**
+	 * Decompiles every class on the worker pool, when the jar cannot be
+	 * indexed. Matches are collected in jar order and shown in batches.
+	 */
+	private void findByDecompiling(File inFile, DecompilerSettings settings) throws Exception {
+		final String query = textField.getText().toLowerCase();
+		int threadCount = ParallelDecompiler.getPreferredThreadCount();
+		try (ZipArchive archive = new ZipArchive(inFile);
+				final ParallelDecompiler decompiler = new ParallelDecompiler(archive, settings, threadCount);) {
+			decompiler.setCache(DecompilationCache.getDefault(), DecompilationCache.getArchiveId(inFile));
+			List<ZipArchive.Entry> entries = archive.getEntries();
+			initProgressBar(entries.size());
+			ScanProgress progress = new ScanProgress();
+
+			int maxPendingCount = threadCount * 4;
+			LinkedList<PendingClass> pending = new LinkedList<>();
+			for (int i = 0; i <= entries.size() && !isCancel(); i++) {
+				if (i < entries.size()) {
+					final String entryName = entries.get(i).getName();
+					if (!entryName.endsWith(".class")) {
+						progress.tick(false, null);
+						continue;
+					}
+					pending.add(new PendingClass(entryName, decompiler.submit(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							// cancel: the remaining queued classes are skipped
+							if (isCancel())
+								return null;
+							String internalName = StringUtilities.removeRight(entryName, ".class");
+							return decompiler.decompileType(internalName);
+						}
+					})));
+				}
+				// the last round drains the window
+				int maxPending = (i < entries.size()) ? maxPendingCount : 0;
+				while (pending.size() > maxPending && !isCancel()) {
+					PendingClass next = pending.removeFirst();
+					String source = null;
+					try {
+						source = next.source.get();
+					} catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+					if (source == null) {
+						progress.tick(true, null);
+						continue;
+					}
+					progress.tick(true, source.toLowerCase().contains(query) ? next.entryName : null);
+				}
+			}
+			progress.publish();
+		}
+	}
+
+	/**
+	 * Bytecode search: matches the text and number constants of the class
+	 * files (string literals, class, member and descriptor names), read in
+	 * parallel straight from the jar
+	 */
+	private void findInConstantPools(File inFile) throws Exception {
+		final String query = textField.getText().toLowerCase();
+		// class names are stored as java/lang/String
+		final String internalQuery = query.replace('.', '/');
+		int threadCount = ParallelDecompiler.getPreferredThreadCount();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try (final ZipArchive archive = new ZipArchive(inFile)) {
+			List<ZipArchive.Entry> entries = archive.getEntries();
+			initProgressBar(entries.size());
+			ScanProgress progress = new ScanProgress();
+
+			int maxPendingCount = threadCount * 16;
+			LinkedList<PendingClass> pending = new LinkedList<>();
+			for (int i = 0; i <= entries.size() && !isCancel(); i++) {
+				if (i < entries.size()) {
+					final ZipArchive.Entry entry = entries.get(i);
+					if (!entry.getName().endsWith(".class")) {
+						progress.tick(false, null);
+						continue;
+					}
+					pending.add(new PendingClass(entry.getName(), executor.submit(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							if (isCancel())
+								return null;
+							byte[] bytes;
+							try (InputStream in = archive.getInputStream(entry)) {
+								bytes = ClassFileReader.readAll(in);
+							}
+							ClassFileReader reader = new ClassFileReader(bytes);
+							for (int index = 1; index < reader.getConstantCount(); index++) {
+								String text = reader.getConstantText(index);
+								if (text != null) {
+									text = text.toLowerCase();
+									if (text.contains(query) || text.contains(internalQuery))
+										return entry.getName();
+								}
+							}
+							return null;
+						}
+					})));
+				}
+				int maxPending = (i < entries.size()) ? maxPendingCount : 0;
+				while (pending.size() > maxPending && !isCancel()) {
+					PendingClass next = pending.removeFirst();
+					String match = null;
+					try {
+						match = next.source.get();
+					} catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+					progress.tick(true, match);
+				}
+			}
+			progress.publish();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return false if the jar is not indexed yet
+	 */
+	private boolean findInIndex(File inFile, String settingsFingerprint) throws IOException {
+		try (SourceIndex index = SourceIndex.open(inFile, settingsFingerprint)) {
+			if (index == null)
+				return false;
+			initProgressBar(1);
+			for (String className : index.find(textField.getText())) {
+				addClassName(className);
+			}
+			setStatus("Done.");
+			return true;
+		}
+	}
+
+	private static class PendingClass {
+		private final String entryName;
+		// decompiled source, or the entry name on a bytecode search match
+		private final Future<String> source;
+
+		private PendingClass(String entryName, Future<String> source) {
+			this.entryName = entryName;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Collects matches and progress on the search thread, hands them to the
+	 * EDT at most every PUBLISH_INTERVAL_MS
+	 */
+	private class ScanProgress {
+		private static final long PUBLISH_INTERVAL_MS = 100;
+
+		private final long startTime = System.currentTimeMillis();
+		private long lastPublishTime = startTime;
+		private List<String> matches = new ArrayList<>();
+		private int entryCount;
+		private int classCount;
+
+		private void tick(boolean isClass, String match) {
+			entryCount++;
+			if (isClass) {
+				classCount++;
+			}
+			if (match != null) {
+				matches.add(match);
+			}
+			if (System.currentTimeMillis() - lastPublishTime >= PUBLISH_INTERVAL_MS) {
+				publish();
+			}
+		}
+
+		private void publish() {
+			lastPublishTime = System.currentTimeMillis();
+			final List<String> batch = matches;
+			matches = new ArrayList<>();
+			final int value = entryCount;
+			long millis = Math.max(1, lastPublishTime - startTime);
+			final String rate = classCount + " classes, " + (classCount * 1000L / millis) + " classes/s";
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					for (String match : batch) {
+						classesList.addElement(match);
+					}
+					progressBar.setValue(value);
+					progressBar.setString(rate);
+				}
+			});
+		}
+	}
+
 	private void setHideOnEscapeButton() {
 		Action escapeAction = new AbstractAction() {
 			private static final long serialVersionUID = 1L;
@@ -243,6 +458,11 @@ public class FindAllBox extends JDialog {
 	}
 
 	public void showFindBox() {
+		// indexed while the query is typed
+		File inFile = MainWindow.model.getOpenedFile();
+		if (inFile != null && inFile.isFile()) {
+			SourceIndexBuilder.getDefault().start(inFile, JarDecompiler.cloneSettings());
+		}
 		this.setVisible(true);
 		this.textField.requestFocus();
 	}
@@ -251,7 +471,17 @@ public class FindAllBox extends JDialog {
 		this.setVisible(false);
 	}
 
-	public void setStatus(String text) {
+	public void setStatus(final String text) {
+		// after the progress updates queued by the search thread
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					setStatus(text);
+				}
+			});
+			return;
+		}
 		if (text.length() > 25) {
 			this.statusLabel.setText("Searching in file: ..."
 					+ text.substring(text.length() - 25));
@@ -269,6 +499,7 @@ public class FindAllBox extends JDialog {
 	public void initProgressBar(Integer length) {
 		progressBar.setMaximum(length);
 		progressBar.setValue(0);
+		progressBar.setString(null);
 		progressBar.setStringPainted(true);
 	}
 
@@ -0,0 +1,196 @@
+package us.deathmarine.luyten;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * Type-ahead search in the SymbolIndex of the open jars: Enter or double
+ * click opens the selected type or member
+ */
+public class GoToSymbolDialog extends JDialog {
+	private static final long serialVersionUID = 3620457834829301712L;
+	private static final int MAX_RESULTS = 200;
+
+	private JTextField textField;
+	private DefaultListModel<SymbolIndex.Symbol> symbolsList = new DefaultListModel<SymbolIndex.Symbol>();
+	private JList<SymbolIndex.Symbol> list;
+	private JLabel statusLabel = new JLabel(" ");
+	// retries while the index is being built
+	private Timer indexWaitTimer;
+	private SymbolIndex shownSymbolIndex;
+
+	public GoToSymbolDialog(JFrame mainWindow) {
+		super(mainWindow, "Go to Type/Member", false);
+		textField = new JTextField();
+		textField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				updateResults();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				updateResults();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				updateResults();
+			}
+		});
+		textField.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				openSelected();
+			}
+		});
+
+		list = new JList<SymbolIndex.Symbol>(symbolsList);
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					openSelected();
+				}
+			}
+		});
+		list.setFocusable(false);
+
+		JPanel panel = new JPanel(new BorderLayout(5, 5));
+		panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+		panel.add(textField, BorderLayout.NORTH);
+		panel.add(new JScrollPane(list), BorderLayout.CENTER);
+		panel.add(statusLabel, BorderLayout.SOUTH);
+		this.setContentPane(panel);
+
+		this.bindKey(KeyEvent.VK_ESCAPE, "ESCAPE", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				GoToSymbolDialog.this.setVisible(false);
+			}
+		});
+		this.bindKey(KeyEvent.VK_DOWN, "DOWN", new MoveSelectionAction(1));
+		this.bindKey(KeyEvent.VK_UP, "UP", new MoveSelectionAction(-1));
+		this.bindKey(KeyEvent.VK_PAGE_DOWN, "PAGE_DOWN", new MoveSelectionAction(10));
+		this.bindKey(KeyEvent.VK_PAGE_UP, "PAGE_UP", new MoveSelectionAction(-10));
+
+		indexWaitTimer = new Timer(500, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				// the selection is kept until another archive is indexed
+				if (MainWindow.model.getSymbolIndex() == shownSymbolIndex && MainWindow.model.isSymbolIndexPending()) {
+					indexWaitTimer.start();
+				} else {
+					updateResults();
+				}
+			}
+		});
+		indexWaitTimer.setRepeats(false);
+
+		this.setSize(new Dimension(600, 400));
+		this.setLocationRelativeTo(mainWindow);
+		this.setDefaultCloseOperation(HIDE_ON_CLOSE);
+	}
+
+	public void showDialog() {
+		textField.selectAll();
+		updateResults();
+		this.setVisible(true);
+		textField.requestFocus();
+	}
+
+	private void updateResults() {
+		indexWaitTimer.stop();
+		symbolsList.clear();
+		SymbolIndex symbolIndex = MainWindow.model.getSymbolIndex();
+		shownSymbolIndex = symbolIndex;
+		if (symbolIndex == null) {
+			if (MainWindow.model.isSymbolIndexPending()) {
+				statusLabel.setText("Indexing...");
+				indexWaitTimer.start();
+			} else {
+				statusLabel.setText("No open jar");
+			}
+			return;
+		}
+		// the added archives may still be indexed
+		String pendingText = "";
+		if (MainWindow.model.isSymbolIndexPending()) {
+			pendingText = ", indexing...";
+			indexWaitTimer.start();
+		}
+		String query = textField.getText();
+		if (query.trim().isEmpty()) {
+			statusLabel.setText(symbolIndex.getSymbolCount() + " types and members" + pendingText);
+			return;
+		}
+		List<SymbolIndex.Symbol> symbols = symbolIndex.find(query, MAX_RESULTS);
+		for (SymbolIndex.Symbol symbol : symbols) {
+			symbolsList.addElement(symbol);
+		}
+		if (!symbols.isEmpty()) {
+			list.setSelectedIndex(0);
+		}
+		statusLabel.setText(((symbols.size() >= MAX_RESULTS) ? "First " + MAX_RESULTS + " matches"
+				: symbols.size() + " matches") + pendingText);
+	}
+
+	private void openSelected() {
+		SymbolIndex.Symbol symbol = list.getSelectedValue();
+		if (symbol == null)
+			return;
+		this.setVisible(false);
+		MainWindow.model.navigateTo(symbol.getUniqueStr());
+	}
+
+	private void bindKey(int keyCode, String name, AbstractAction action) {
+		KeyStroke keyStroke = KeyStroke.getKeyStroke(keyCode, 0, false);
+		this.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(keyStroke, name);
+		this.getRootPane().getActionMap().put(name, action);
+	}
+
+	private class MoveSelectionAction extends AbstractAction {
+		private static final long serialVersionUID = 1L;
+		private final int delta;
+
+		private MoveSelectionAction(int delta) {
+			this.delta = delta;
+		}
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			int size = symbolsList.getSize();
+			if (size == 0)
+				return;
+			int index = Math.max(0, Math.min(size - 1, list.getSelectedIndex() + delta));
+			list.setSelectedIndex(index);
+			list.ensureIndexIsVisible(index);
+		}
+	}
+}
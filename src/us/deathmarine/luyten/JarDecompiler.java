@@ -0,0 +1,507 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.assembler.metadata.TypeReference;
+import com.strobel.core.StringUtilities;
+import com.strobel.decompiler.DecompilationOptions;
+import com.strobel.decompiler.DecompilerSettings;
+import com.strobel.decompiler.PlainTextOutput;
+import com.strobel.decompiler.languages.java.JavaFormattingOptions;
+
+/**
+ * Decompiles a whole jar into a zip or a directory, used by Save All and by
+ * the command line. No UI here: progress and cancel go through the Listener.
+ */
+public class JarDecompiler {
+
+	public interface Listener {
+		void onStarted(int entryCount);
+
+		void onEntry(String entryName, int tick);
+
+		boolean isCancelled();
+	}
+
+	private final DecompilerSettings settings;
+	private final int threadCount;
+	private boolean isFilterOutInnerClassEntries;
+	private DecompilationCache decompilationCache;
+	private List<Pattern> includes = new LinkedList<>();
+	private List<Pattern> excludes = new LinkedList<>();
+
+	private int decompiledCount;
+	private int reusedCount;
+	private int copiedCount;
+
+	/**
+	 * @param settings
+	 *            a private copy, see cloneSettings()
+	 */
+	public JarDecompiler(DecompilerSettings settings, int threadCount) {
+		this.settings = settings;
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Copy of the settings from the ConfigSaver, not affected by later menu
+	 * changes
+	 */
+	public static DecompilerSettings cloneSettings() {
+		DecompilerSettings settings = ConfigSaver.getLoadedInstance().getDecompilerSettings();
+		DecompilerSettings newSettings = new DecompilerSettings();
+		if (newSettings.getFormattingOptions() == null) {
+			newSettings.setFormattingOptions(JavaFormattingOptions.createDefault());
+		}
+		// synchronized: against main menu changes
+		synchronized (settings) {
+			newSettings.setExcludeNestedTypes(settings.getExcludeNestedTypes());
+			newSettings.setFlattenSwitchBlocks(settings.getFlattenSwitchBlocks());
+			newSettings.setForceExplicitImports(settings.getForceExplicitImports());
+			newSettings.setForceExplicitTypeArguments(settings.getForceExplicitTypeArguments());
+			newSettings.setOutputFileHeaderText(settings.getOutputFileHeaderText());
+			newSettings.setLanguage(settings.getLanguage());
+			newSettings.setShowSyntheticMembers(settings.getShowSyntheticMembers());
+			newSettings.setAlwaysGenerateExceptionVariableForCatchBlocks(settings
+					.getAlwaysGenerateExceptionVariableForCatchBlocks());
+			newSettings.setOutputDirectory(settings.getOutputDirectory());
+			newSettings.setRetainRedundantCasts(settings.getRetainRedundantCasts());
+			newSettings.setIncludeErrorDiagnostics(settings.getIncludeErrorDiagnostics());
+			newSettings.setIncludeLineNumbersInBytecode(settings.getIncludeLineNumbersInBytecode());
+			newSettings.setRetainPointlessSwitches(settings.getRetainPointlessSwitches());
+			newSettings.setUnicodeOutputEnabled(settings.isUnicodeOutputEnabled());
+			newSettings.setMergeVariables(settings.getMergeVariables());
+			newSettings.setShowDebugLineNumbers(settings.getShowDebugLineNumbers());
+		}
+		return newSettings;
+	}
+
+	/**
+	 * Entry name glob: * matches within a directory, ** across directories
+	 */
+	public void addInclude(String glob) {
+		includes.add(globToPattern(glob));
+	}
+
+	public void addExclude(String glob) {
+		excludes.add(globToPattern(glob));
+	}
+
+	public void setFilterOutInnerClassEntries(boolean isFilterOutInnerClassEntries) {
+		this.isFilterOutInnerClassEntries = isFilterOutInnerClassEntries;
+	}
+
+	/**
+	 * The classes already decompiled by the viewer or Find All are not
+	 * decompiled again, null for none
+	 */
+	public void setDecompilationCache(DecompilationCache decompilationCache) {
+		this.decompilationCache = decompilationCache;
+	}
+
+	public int getDecompiledCount() {
+		return decompiledCount;
+	}
+
+	public int getReusedCount() {
+		return reusedCount;
+	}
+
+	public int getCopiedCount() {
+		return copiedCount;
+	}
+
+	/**
+	 * Writes into a temp file first, the zip is replaced on success only.
+	 * Unchanged classes are copied from the previous zip when its manifest
+	 * was made with the same settings; it is read without mapping it, so
+	 * that it can be replaced afterwards.
+	 */
+	public void decompileToZip(File inFile, File outFile, Listener listener) throws Exception {
+		SaveAllManifest manifest = new SaveAllManifest(SettingsFingerprint.of(settings));
+		// incremental: unchanged classes are copied from the previous Save All into the same file
+		SaveAllManifest previousManifest = SaveAllManifest.load(outFile);
+		if (previousManifest != null
+				&& !manifest.getSettingsFingerprint().equals(previousManifest.getSettingsFingerprint())) {
+			previousManifest = null;
+		}
+		File tempFile = new File(outFile.getPath() + ".tmp");
+		try {
+			try (ZipArchive previousArchive = (previousManifest != null) ? openPreviousArchive(outFile) : null;
+					FileOutputStream dest = new FileOutputStream(tempFile);
+					BufferedOutputStream buffDest = new BufferedOutputStream(dest);
+					ZipArchiveWriter out = new ZipArchiveWriter(buffDest);) {
+				decompile(inFile, new ZipOutput(out), previousArchive, manifest, previousManifest, listener);
+			}
+			if (!listener.isCancelled()) {
+				// a failed replace must not leave the old manifest describing the new zip
+				File manifestFile = SaveAllManifest.getManifestFile(outFile);
+				if (manifestFile.exists() && !manifestFile.delete())
+					throw new Exception("Cannot overwrite file: " + manifestFile.getName());
+				Files.move(tempFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				manifest.save(outFile);
+			}
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the .java files and resources into the directory tree under
+	 * outDir
+	 */
+	public void decompileToDirectory(File inFile, File outDir, Listener listener) throws Exception {
+		if (!outDir.isDirectory() && !outDir.mkdirs())
+			throw new IOException("Cannot create directory: " + outDir);
+		decompile(inFile, new DirectoryOutput(outDir), null, null, null, listener);
+	}
+
+	/**
+	 * Single .class file, resolved by its path
+	 */
+	public void decompileClassFile(File inFile, File outFile) throws Exception {
+		LuytenTypeLoader typeLoader = new LuytenTypeLoader();
+		MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
+		TypeReference type = metadataSystem.lookupType(inFile.getCanonicalPath());
+
+		DecompilationOptions decompilationOptions = new DecompilationOptions();
+		decompilationOptions.setSettings(settings);
+		decompilationOptions.setFullDecompilation(true);
+
+		boolean isUnicodeEnabled = decompilationOptions.getSettings().isUnicodeOutputEnabled();
+		TypeDefinition resolvedType = null;
+		if (type == null || ((resolvedType = type.resolve()) == null)) {
+			throw new Exception("Unable to resolve type.");
+		}
+		String archiveId = DecompilationCache.getArchiveId(inFile);
+		String settingsFingerprint = SettingsFingerprint.of(settings);
+		DecompilationCache.Result cached = (decompilationCache != null)
+				? decompilationCache.get(archiveId, resolvedType.getInternalName(), settingsFingerprint) : null;
+		String decompiledSource;
+		if (cached != null) {
+			decompiledSource = cached.getText();
+		} else {
+			StringWriter stringwriter = new StringWriter();
+			PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
+			plainTextOutput.setUnicodeOutputEnabled(isUnicodeEnabled);
+			settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
+			decompiledSource = stringwriter.toString();
+			if (decompilationCache != null) {
+				decompilationCache.put(archiveId, resolvedType.getInternalName(), settingsFingerprint,
+						new DecompilationCache.Result(decompiledSource));
+			}
+		}
+
+		try (FileOutputStream fos = new FileOutputStream(outFile);
+				OutputStreamWriter writer = isUnicodeEnabled ? new OutputStreamWriter(fos, "UTF-8") : new OutputStreamWriter(fos);
+				BufferedWriter bw = new BufferedWriter(writer);) {
+			bw.write(decompiledSource);
+			bw.flush();
+		}
+		decompiledCount++;
+	}
+
+	/**
+	 * @param previousArchive
+	 *            the previous Save All the unchanged classes are copied from,
+	 *            null for none
+	 */
+	private void decompile(File inFile, Output output, ZipArchive previousArchive, SaveAllManifest manifest,
+			SaveAllManifest previousManifest, Listener listener) throws Exception {
+		try (ZipArchive archive = new ZipArchive(inFile);
+				ParallelDecompiler decompiler = new ParallelDecompiler(archive, settings, threadCount);) {
+			if (decompilationCache != null) {
+				decompiler.setCache(decompilationCache, DecompilationCache.getArchiveId(inFile));
+			}
+			List<ZipArchive.Entry> entries = archive.getEntries();
+			listener.onStarted(entries.size());
+
+			List<String> mass = null;
+			JarEntryFilter jarEntryFilter = new JarEntryFilter(archive);
+			if (isFilterOutInnerClassEntries) {
+				mass = jarEntryFilter.getEntriesWithoutInnerClasses();
+			} else {
+				mass = jarEntryFilter.getAllEntriesFromJar();
+			}
+			Set<String> massSet = new HashSet<String>(mass);
+			TreeMap<String, ZipArchive.Entry> classEntries = new TreeMap<>();
+			for (ZipArchive.Entry entry : entries) {
+				if (entry.getName().endsWith(".class") && !classEntries.containsKey(entry.getName())) {
+					classEntries.put(entry.getName(), entry);
+				}
+			}
+
+			// workers decompile ahead, entries are written in jar order: the output is deterministic
+			int maxPendingCount = threadCount * 4;
+			LinkedList<PendingEntry> pending = new LinkedList<PendingEntry>();
+			int tick = 0;
+			for (ZipArchive.Entry entry : entries) {
+				if (listener.isCancelled())
+					break;
+				if (!massSet.contains(entry.getName()) || !isIncluded(entry.getName())) {
+					listener.onEntry(entry.getName(), ++tick);
+					continue;
+				}
+				PendingEntry pendingEntry = new PendingEntry(entry);
+				if (entry.getName().endsWith(".class")) {
+					String javaName = entry.getName().replace(".class", ".java");
+					if (manifest != null) {
+						String classHash = SaveAllManifest.getClassHash(entry, classEntries);
+						manifest.putClassHash(javaName, classHash);
+						if (previousArchive != null && previousManifest != null
+								&& classHash.equals(previousManifest.getClassHash(javaName))) {
+							pendingEntry.previousEntry = previousArchive.getEntry(javaName);
+						}
+					}
+					if (pendingEntry.previousEntry == null) {
+						pendingEntry.source = submitDecompile(decompiler, entry.getName(), output.isDeflating());
+					}
+				}
+				pending.add(pendingEntry);
+				while (pending.size() > maxPendingCount && !listener.isCancelled()) {
+					PendingEntry next = pending.removeFirst();
+					listener.onEntry(next.entry.getName(), ++tick);
+					writeEntry(next, archive, previousArchive, output);
+				}
+			}
+			while (!pending.isEmpty() && !listener.isCancelled()) {
+				PendingEntry next = pending.removeFirst();
+				listener.onEntry(next.entry.getName(), ++tick);
+				writeEntry(next, archive, previousArchive, output);
+			}
+		}
+	}
+
+	private Future<DecompiledSource> submitDecompile(final ParallelDecompiler decompiler, final String entryName,
+			final boolean isDeflating) {
+		final boolean isUnicodeEnabled = settings.isUnicodeOutputEnabled();
+		return decompiler.submit(new Callable<DecompiledSource>() {
+			@Override
+			public DecompiledSource call() throws Exception {
+				String internalName = StringUtilities.removeRight(entryName, ".class");
+				String decompiledSource = decompiler.decompileType(internalName);
+				byte[] content = isUnicodeEnabled ? decompiledSource.getBytes("UTF-8") : decompiledSource.getBytes();
+				return isDeflating ? new DecompiledSource(null, ZipArchiveWriter.deflate(content))
+						: new DecompiledSource(content, null);
+			}
+		});
+	}
+
+	private void writeEntry(PendingEntry pendingEntry, ZipArchive archive, ZipArchive previousArchive, Output output)
+			throws Exception {
+		ZipArchive.Entry entry = pendingEntry.entry;
+		if (pendingEntry.previousEntry != null) {
+			// class unchanged since the previous Save All
+			if (!output.hasEntry(pendingEntry.previousEntry.getName())) {
+				output.copyEntry(previousArchive, pendingEntry.previousEntry);
+				reusedCount++;
+			}
+		} else if (pendingEntry.source != null) {
+			String javaName = entry.getName().replace(".class", ".java");
+			DecompiledSource decompiledSource;
+			try {
+				decompiledSource = pendingEntry.source.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) {
+					throw (Exception) e.getCause();
+				}
+				throw e;
+			}
+			//Duplicate
+			if (!output.hasEntry(javaName)) {
+				output.writeDecompiled(javaName, decompiledSource);
+				decompiledCount++;
+			}
+		} else {
+			// some jar-s contain duplicate pom.xml entries: ignore it
+			if (output.hasEntry(entry.getName()))
+				return;
+			output.copyEntry(archive, entry);
+			copiedCount++;
+		}
+	}
+
+	private boolean isIncluded(String entryName) {
+		if (!includes.isEmpty()) {
+			boolean isIncluded = false;
+			for (Pattern include : includes) {
+				if (include.matcher(entryName).matches()) {
+					isIncluded = true;
+					break;
+				}
+			}
+			if (!isIncluded)
+				return false;
+		}
+		for (Pattern exclude : excludes) {
+			if (exclude.matcher(entryName).matches())
+				return false;
+		}
+		return true;
+	}
+
+	private static Pattern globToPattern(String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*') {
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+			} else if (c == '?') {
+				regex.append("[^/]");
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	private ZipArchive openPreviousArchive(File outFile) {
+		try {
+			return ZipArchive.openUnmapped(outFile);
+		} catch (Exception e) {
+			// not a valid previous output: decompile everything
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static class PendingEntry {
+		private final ZipArchive.Entry entry;
+		// .class entries: decompiled source or the .java entry of the previous Save All
+		private Future<DecompiledSource> source;
+		private ZipArchive.Entry previousEntry;
+
+		private PendingEntry(ZipArchive.Entry entry) {
+			this.entry = entry;
+		}
+	}
+
+	private static class DecompiledSource {
+		private final byte[] content;
+		private final ZipArchiveWriter.DeflatedData deflated;
+
+		private DecompiledSource(byte[] content, ZipArchiveWriter.DeflatedData deflated) {
+			this.content = content;
+			this.deflated = deflated;
+		}
+	}
+
+	private interface Output {
+		boolean isDeflating();
+
+		boolean hasEntry(String name);
+
+		void writeDecompiled(String name, DecompiledSource source) throws IOException;
+
+		void copyEntry(ZipArchive archive, ZipArchive.Entry entry) throws IOException;
+	}
+
+	private static class ZipOutput implements Output {
+		private final ZipArchiveWriter out;
+
+		private ZipOutput(ZipArchiveWriter out) {
+			this.out = out;
+		}
+
+		@Override
+		public boolean isDeflating() {
+			return true;
+		}
+
+		@Override
+		public boolean hasEntry(String name) {
+			return out.hasEntry(name);
+		}
+
+		@Override
+		public void writeDecompiled(String name, DecompiledSource source) throws IOException {
+			out.writeEntry(name, source.deflated);
+		}
+
+		@Override
+		public void copyEntry(ZipArchive archive, ZipArchive.Entry entry) throws IOException {
+			// resources are unchanged: copy them compressed
+			try (InputStream in = archive.getRawInputStream(entry)) {
+				out.copyRawEntry(entry, in);
+			}
+		}
+	}
+
+	private static class DirectoryOutput implements Output {
+		private final File outDir;
+		private final String outDirPath;
+		private final Set<String> names = new HashSet<>();
+
+		private DirectoryOutput(File outDir) throws IOException {
+			this.outDir = outDir;
+			this.outDirPath = outDir.getCanonicalPath() + File.separator;
+		}
+
+		@Override
+		public boolean isDeflating() {
+			return false;
+		}
+
+		@Override
+		public boolean hasEntry(String name) {
+			return names.contains(name);
+		}
+
+		@Override
+		public void writeDecompiled(String name, DecompiledSource source) throws IOException {
+			try (OutputStream out = openFile(name)) {
+				out.write(source.content);
+			}
+		}
+
+		@Override
+		public void copyEntry(ZipArchive archive, ZipArchive.Entry entry) throws IOException {
+			try (InputStream in = archive.getInputStream(entry); OutputStream out = openFile(entry.getName())) {
+				byte[] data = new byte[8192];
+				int count;
+				while ((count = in.read(data)) != -1) {
+					out.write(data, 0, count);
+				}
+			}
+		}
+
+		private OutputStream openFile(String name) throws IOException {
+			File file = new File(outDir, name);
+			// entry names like ../../x must not leave the output directory
+			if (!file.getCanonicalPath().startsWith(outDirPath))
+				throw new IOException("Entry is outside of the output directory: " + name);
+			File parent = file.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs())
+				throw new IOException("Cannot create directory: " + parent);
+			names.add(name);
+			return new BufferedOutputStream(new FileOutputStream(file));
+		}
+	}
+}
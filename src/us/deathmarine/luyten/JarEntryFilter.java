@@ -1,16 +1,34 @@
 package us.deathmarine.luyten;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 public class JarEntryFilter {
 
+	private static final int CHUNK_SIZE = 16384;
+
+	// kinds of entries in filterOutInnerClasses(EntryTable)
+	private static final byte KEPT = 0;
+	private static final byte EMPTY = 1;
+	private static final byte POSSIBLE_INNER_CLASS = 2;
+	private static final byte INNER_CLASS = 3;
+	private static final byte KEPT_INNER_CLASS = 4;
+
 	private JarFile jfile;
+	private ZipArchive archive;
 
 	public JarEntryFilter() {}
 
@@ -18,8 +36,20 @@ public class JarEntryFilter {
 		this.jfile = jfile;
 	}
 
+	public JarEntryFilter(ZipArchive archive) {
+		this.archive = archive;
+	}
+
 	public List<String> getAllEntriesFromJar() {
 		List<String> mass = new ArrayList<>();
+		if (archive != null) {
+			for (ZipArchive.Entry entry : archive.getEntries()) {
+				if (!entry.isDirectory()) {
+					mass.add(entry.getName());
+				}
+			}
+			return mass;
+		}
 		Enumeration<JarEntry> entries = jfile.entries();
 		while (entries.hasMoreElements()) {
 			JarEntry e = entries.nextElement();
@@ -31,46 +61,264 @@ public class JarEntryFilter {
 	}
 
 	public List<String> getEntriesWithoutInnerClasses() {
+		return filterOutInnerClasses(getAllEntriesFromJar());
+	}
+
+	/**
+	 * @param entryNames
+	 *            names of the file entries (not directories)
+	 */
+	public static List<String> filterOutInnerClasses(List<String> entryNames) {
 		List<String> mass = new ArrayList<>();
-		Enumeration<JarEntry> entries = jfile.entries();
 		Set<String> possibleInnerClasses = new HashSet<String>();
 		Set<String> baseClasses = new HashSet<String>();
 
-		while (entries.hasMoreElements()) {
-			JarEntry e = entries.nextElement();
-			if (!e.isDirectory()) {
-				String entryName = e.getName();
-
-				if (entryName != null && entryName.trim().length() > 0) {
-					entryName = entryName.trim();
+		for (String entryName : entryNames) {
+			if (entryName != null && entryName.trim().length() > 0) {
+				entryName = entryName.trim();
 
-					if (!entryName.endsWith(".class")) {
-						mass.add(entryName);
+				if (!entryName.endsWith(".class")) {
+					mass.add(entryName);
 
-						// com/acme/Model$16.class
-					} else if (entryName.matches(".*[^(/|\\\\)]+\\$[^(/|\\\\)]+$")) {
-						possibleInnerClasses.add(entryName);
+					// com/acme/Model$16.class
+				} else if (isPossibleInnerClass(entryName)) {
+					possibleInnerClasses.add(entryName);
 
-					} else {
-						baseClasses.add(entryName);
-						mass.add(entryName);
-					}
+				} else {
+					baseClasses.add(entryName);
+					mass.add(entryName);
 				}
 			}
 		}
 
 		// keep Badly$Named but not inner classes
 		for (String inner : possibleInnerClasses) {
-
-			// com/acme/Connection$Conn$1.class -> com/acme/Connection
-			String innerWithoutTail = inner.replaceAll("\\$[^(/|\\\\)]+\\.class$", "");
-			if (!baseClasses.contains(innerWithoutTail + ".class")) {
+			if (!baseClasses.contains(getOuterClassName(inner) + ".class")) {
 				mass.add(inner);
 			}
 		}
 		return mass;
 	}
 
+	/**
+	 * Same filter over the entries of an EntryTable, chunks of entries are
+	 * classified in parallel
+	 * 
+	 * @return the ids of the kept entries, in archive order
+	 */
+	public static int[] filterOutInnerClasses(EntryTable table, int threadCount) throws Exception {
+		byte[] kinds = null;
+		if (arePackagesPlain(table)) {
+			kinds = classify(table, threadCount, true);
+		}
+		if (kinds == null) {
+			kinds = classify(table, threadCount, false);
+		}
+		int[] ids = new int[kinds.length];
+		int count = 0;
+		for (int id = 0; id < kinds.length; id++) {
+			if (kinds[id] == KEPT) {
+				ids[count++] = id;
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	/**
+	 * @param isByPackage
+	 *            classify the simple names and find the outer classes by
+	 *            package id and name: no full names are built
+	 * @return null if a name would be changed by trim() (by package only)
+	 */
+	private static byte[] classify(final EntryTable table, int threadCount, final boolean isByPackage)
+			throws Exception {
+		final int entryCount = table.getEntryCount();
+		final byte[] kinds = new byte[entryCount];
+		// by full name only
+		final Set<String> baseClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final AtomicBoolean isTrimNeeded = new AtomicBoolean();
+		int chunkCount = Math.max(1, Math.min(threadCount, (entryCount + CHUNK_SIZE - 1) / CHUNK_SIZE));
+		final int chunkSize = (entryCount + chunkCount - 1) / chunkCount;
+
+		List<Callable<Void>> classifyTasks = new ArrayList<>();
+		List<Callable<Void>> innerClassTasks = new ArrayList<>();
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			final int start = chunk * chunkSize;
+			final int end = Math.min(entryCount, start + chunkSize);
+			classifyTasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int id = start; id < end && !isTrimNeeded.get(); id++) {
+						String entryName = getName(table, id, isByPackage);
+						if (entryName == null) {
+							isTrimNeeded.set(true);
+						} else if (entryName.length() == 0
+								&& (!isByPackage || table.getPackage(id) == EntryTable.ROOT_PACKAGE)) {
+							kinds[id] = EMPTY;
+						} else if (!entryName.endsWith(".class")) {
+							kinds[id] = KEPT;
+						} else if (isPossibleInnerClass(entryName)) {
+							kinds[id] = POSSIBLE_INNER_CLASS;
+						} else {
+							if (!isByPackage) {
+								baseClasses.add(entryName);
+							}
+							kinds[id] = KEPT;
+						}
+					}
+					return null;
+				}
+			});
+			innerClassTasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int id = start; id < end; id++) {
+						if (kinds[id] == POSSIBLE_INNER_CLASS) {
+							String entryName = getName(table, id, isByPackage);
+							String outerClassName = getOuterClassName(entryName) + ".class";
+							boolean isInnerClass;
+							if (isByPackage) {
+								// a base class: it is not an inner class by name
+								isInnerClass = !isPossibleInnerClass(outerClassName)
+										&& table.findEntry(table.getPackage(id), outerClassName) >= 0;
+							} else {
+								isInnerClass = baseClasses.contains(outerClassName);
+							}
+							// keep Badly$Named but not inner classes, once
+							if (isInnerClass) {
+								kinds[id] = INNER_CLASS;
+							} else if (isByPackage) {
+								boolean isFirst = table.findEntry(table.getPackage(id), entryName) == id;
+								kinds[id] = isFirst ? KEPT : INNER_CLASS;
+							} else {
+								kinds[id] = KEPT_INNER_CLASS;
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		if (chunkCount == 1) {
+			classifyTasks.get(0).call();
+			if (!isTrimNeeded.get()) {
+				innerClassTasks.get(0).call();
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(chunkCount);
+			try {
+				// the base classes of all chunks are needed for the second pass
+				for (Future<Void> future : executor.invokeAll(classifyTasks)) {
+					future.get();
+				}
+				if (!isTrimNeeded.get()) {
+					for (Future<Void> future : executor.invokeAll(innerClassTasks)) {
+						future.get();
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		if (isTrimNeeded.get())
+			return null;
+		if (!isByPackage) {
+			Set<String> keptInnerClasses = new HashSet<>();
+			for (int id = 0; id < entryCount; id++) {
+				if (kinds[id] == KEPT_INNER_CLASS) {
+					kinds[id] = keptInnerClasses.add(getName(table, id, false)) ? KEPT : INNER_CLASS;
+				}
+			}
+		}
+		return kinds;
+	}
+
+	/**
+	 * @return the simple name by package, null if trim() would change the
+	 *         full name
+	 */
+	private static String getName(EntryTable table, int entryId, boolean isByPackage) {
+		if (!isByPackage)
+			return table.getName(entryId).trim();
+		String simpleName = table.getSimpleName(entryId);
+		if (simpleName.length() > 0 && (simpleName.charAt(simpleName.length() - 1) <= ' '
+				|| (table.getPackage(entryId) == EntryTable.ROOT_PACKAGE && simpleName.charAt(0) <= ' ')))
+			return null;
+		return simpleName;
+	}
+
+	/**
+	 * The packages don't matter for the simple names if they have no line
+	 * terminators (see isPossibleInnerClass) and the full names don't start
+	 * with white space
+	 */
+	private static boolean arePackagesPlain(EntryTable table) {
+		for (int packageId = 1; packageId < table.getPackageCount(); packageId++) {
+			String segment = table.getPackageSegment(packageId);
+			if (table.getPackageParent(packageId) == EntryTable.ROOT_PACKAGE && segment.length() > 0
+					&& segment.charAt(0) <= ' ')
+				return false;
+			for (int i = 0; i < segment.length(); i++) {
+				if (isLineTerminator(segment.charAt(i)))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same as matching ".*[^(/|\\\\)]+\\$[^(/|\\\\)]+$" by scanning: a '$'
+	 * after the last separator, not right after it and not last
+	 */
+	static boolean isPossibleInnerClass(String entryName) {
+		int separator = getLastSeparator(entryName);
+		// '.' in ".*" does not match line terminators
+		for (int i = 0; i <= separator; i++) {
+			if (isLineTerminator(entryName.charAt(i)))
+				return false;
+		}
+		for (int i = separator + 2; i < entryName.length() - 1; i++) {
+			if (entryName.charAt(i) == '$')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Same as replaceAll("\\$[^(/|\\\\)]+\\.class$", ""):
+	 * com/acme/Connection$Conn$1.class -> com/acme/Connection
+	 */
+	static String getOuterClassName(String innerClassName) {
+		// at least one character between the '$' and ".class"
+		int maxDollar = innerClassName.length() - ".class".length() - 2;
+		for (int i = getLastSeparator(innerClassName) + 1; i <= maxDollar; i++) {
+			if (innerClassName.charAt(i) == '$')
+				return innerClassName.substring(0, i);
+		}
+		return innerClassName;
+	}
+
+	/**
+	 * @return index of the last ( / | \ or ) character, -1 if none
+	 */
+	private static int getLastSeparator(String entryName) {
+		for (int i = entryName.length() - 1; i >= 0; i--) {
+			switch (entryName.charAt(i)) {
+			case '(':
+			case '/':
+			case '|':
+			case '\\':
+			case ')':
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
 	public JarFile getJfile() {
 		return jfile;
 	}
@@ -0,0 +1,182 @@
+package us.deathmarine.luyten;
+
+import java.util.Enumeration;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
+
+/**
+ * Tree node over the frozen trie of TreeBuilder: the child nodes (and their
+ * names) are only created when the tree asks for them (expanding,
+ * rendering), the child count comes from the trie. Finding a child by
+ * index, by node or by name does not scan the siblings. A file that is an
+ * archive itself expands to the tree of that archive (NestedTreeFactory).
+ */
+public class LazyTreeNode extends DefaultMutableTreeNode {
+	private static final long serialVersionUID = -4193837465301526749L;
+
+	// null for a file, until a nested archive is loaded
+	private transient TreeBuilder.TrieNode trieNode;
+	private transient NestedTreeFactory nestedTreeFactory;
+	private boolean isNestedArchive;
+	// in the tree of a nested archive, its package ids are its own
+	private boolean isNested;
+	// position under the parent, checked before it is used
+	private int index;
+	private boolean isLoaded;
+	// children inserted or removed after loading
+	private boolean isChanged;
+
+	LazyTreeNode(TreeBuilder.TrieNode trieNode) {
+		this(trieNode.getUserObject(), trieNode);
+	}
+
+	private LazyTreeNode(TreeNodeUserObject userObject, TreeBuilder.TrieNode trieNode) {
+		super(userObject);
+		this.trieNode = trieNode;
+	}
+
+	/**
+	 * The files of this tree that are archives get expandable
+	 */
+	public void setNestedTreeFactory(NestedTreeFactory nestedTreeFactory) {
+		this.nestedTreeFactory = nestedTreeFactory;
+	}
+
+	private void loadChildren() {
+		if (isLoaded)
+			return;
+		isLoaded = true;
+		if (isNestedArchive) {
+			LazyTreeNode top = nestedTreeFactory.createTree(getEntryPath());
+			if (top != null) {
+				trieNode = top.trieNode;
+			}
+		}
+		if (trieNode == null)
+			return;
+		for (int i = 0; i < trieNode.getChildCount(); i++) {
+			TreeNodeUserObject userObject = trieNode.getChildUserObject(i);
+			LazyTreeNode child = new LazyTreeNode(userObject, trieNode.getFolderAt(i));
+			child.index = i;
+			child.nestedTreeFactory = nestedTreeFactory;
+			child.isNested = isNested || isNestedArchive;
+			child.isNestedArchive = child.trieNode == null && nestedTreeFactory != null
+					&& nestedTreeFactory.isNestedArchive(userObject.getOriginalName());
+			super.insert(child, i);
+		}
+	}
+
+	/**
+	 * @return like "BOOT-INF/lib/a.jar", without the top node (and the
+	 *         workspace root above it)
+	 */
+	private String getEntryPath() {
+		StringBuilder path = new StringBuilder();
+		for (TreeNode node = this; node.getParent() instanceof LazyTreeNode; node = node.getParent()) {
+			if (path.length() > 0) {
+				path.insert(0, '/');
+			}
+			path.insert(0, ((TreeNodeUserObject) ((DefaultMutableTreeNode) node).getUserObject()).getOriginalName());
+		}
+		return path.toString();
+	}
+
+	/**
+	 * @return the EntryTable id of the package of this folder, -1 for a
+	 *         file and in nested archives
+	 */
+	public int getPackageId() {
+		return (trieNode != null && !isNested && !isNestedArchive) ? trieNode.getPackageId() : -1;
+	}
+
+	@Override
+	public boolean isLeaf() {
+		// a nested archive is opened when it is expanded, not when it is shown
+		if (isNestedArchive && !isLoaded)
+			return false;
+		return getChildCount() == 0;
+	}
+
+	/**
+	 * @return null if there is no child with this original name
+	 */
+	public DefaultMutableTreeNode getChild(String originalName) {
+		loadChildren();
+		if (trieNode != null && !isChanged) {
+			int childIndex = trieNode.indexOfChild(originalName);
+			return (childIndex >= 0) ? (LazyTreeNode) super.getChildAt(childIndex) : null;
+		}
+		// changed after loading
+		for (int i = 0; i < super.getChildCount(); i++) {
+			DefaultMutableTreeNode child = (DefaultMutableTreeNode) super.getChildAt(i);
+			Object userObject = child.getUserObject();
+			if (userObject instanceof TreeNodeUserObject
+					&& ((TreeNodeUserObject) userObject).getOriginalName().equals(originalName))
+				return child;
+		}
+		return null;
+	}
+
+	@Override
+	public int getChildCount() {
+		if (isNestedArchive) {
+			loadChildren();
+		}
+		if (isLoaded)
+			return super.getChildCount();
+		return (trieNode != null) ? trieNode.getChildCount() : 0;
+	}
+
+	@Override
+	public TreeNode getChildAt(int childIndex) {
+		loadChildren();
+		return super.getChildAt(childIndex);
+	}
+
+	@Override
+	public int getIndex(TreeNode child) {
+		loadChildren();
+		if (child instanceof LazyTreeNode && child.getParent() == this) {
+			int childIndex = ((LazyTreeNode) child).index;
+			if (childIndex < super.getChildCount() && super.getChildAt(childIndex) == child)
+				return childIndex;
+		}
+		return super.getIndex(child);
+	}
+
+	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Enumeration children() {
+		loadChildren();
+		return super.children();
+	}
+
+	@Override
+	public void insert(MutableTreeNode newChild, int childIndex) {
+		loadChildren();
+		isChanged = true;
+		super.insert(newChild, childIndex);
+	}
+
+	@Override
+	public void remove(int childIndex) {
+		loadChildren();
+		isChanged = true;
+		super.remove(childIndex);
+	}
+
+	/**
+	 * Trees of the archives stored in the archive
+	 */
+	public interface NestedTreeFactory {
+		boolean isNestedArchive(String name);
+
+		/**
+		 * @param path
+		 *            of the nested archive, like "BOOT-INF/lib/a.jar"
+		 * @return the top of its tree, null if it cannot be read
+		 */
+		LazyTreeNode createTree(String path);
+	}
+}
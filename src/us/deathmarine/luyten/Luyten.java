@@ -10,6 +10,12 @@ import javax.swing.UIManager;
 public class Luyten {
 
 	public static void main(String[] args) {
+		// batch mode, no GUI: luyten -o out.zip in.jar
+		if (CommandLineDecompiler.isCommandLineMode(args)) {
+			System.setProperty("java.awt.headless", "true");
+			System.exit(new CommandLineDecompiler(System.out, System.err).run(args));
+		}
+
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 		} catch (Exception e) {
@@ -22,6 +22,14 @@ public class LuytenPreferences {
 	private boolean isFilterOutInnerClassEntries = true;
 	private boolean isSingleClickOpenEnabled = true;
 	private boolean isExitByEscEnabled = false;
+	private boolean isStreamingTreeEnabled = false;
+	// manifest Class-Path and the local Maven repository
+	private boolean isClasspathResolverEnabled = false;
+	// ~/.luyten/decompiled
+	private boolean isDecompilationDiskCacheEnabled = false;
+
+	// 0: one decompiler thread per core
+	private int decompilerThreadCount = 0;
 
 	public String getThemeXml() {
 		return themeXml;
@@ -78,4 +86,36 @@ public class LuytenPreferences {
 	public void setExitByEscEnabled(boolean isExitByEscEnabled) {
 		this.isExitByEscEnabled = isExitByEscEnabled;
 	}
+
+	public boolean isStreamingTreeEnabled() {
+		return isStreamingTreeEnabled;
+	}
+
+	public void setStreamingTreeEnabled(boolean isStreamingTreeEnabled) {
+		this.isStreamingTreeEnabled = isStreamingTreeEnabled;
+	}
+
+	public boolean isClasspathResolverEnabled() {
+		return isClasspathResolverEnabled;
+	}
+
+	public void setClasspathResolverEnabled(boolean isClasspathResolverEnabled) {
+		this.isClasspathResolverEnabled = isClasspathResolverEnabled;
+	}
+
+	public boolean isDecompilationDiskCacheEnabled() {
+		return isDecompilationDiskCacheEnabled;
+	}
+
+	public void setDecompilationDiskCacheEnabled(boolean isDecompilationDiskCacheEnabled) {
+		this.isDecompilationDiskCacheEnabled = isDecompilationDiskCacheEnabled;
+	}
+
+	public int getDecompilerThreadCount() {
+		return decompilerThreadCount;
+	}
+
+	public void setDecompilerThreadCount(int decompilerThreadCount) {
+		this.decompilerThreadCount = decompilerThreadCount;
+	}
 }
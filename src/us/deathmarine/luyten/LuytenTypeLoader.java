@@ -4,23 +4,109 @@ import com.strobel.assembler.InputTypeLoader;
 import com.strobel.assembler.metadata.Buffer;
 import com.strobel.assembler.metadata.ITypeLoader;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class LuytenTypeLoader implements ITypeLoader {
     private final List<ITypeLoader> _typeLoaders;
+    // internal name -> loader of the first archive registered with it: a
+    // lookup costs the same with one archive open or with thirty
+    private final Map<String, ITypeLoader> _index = new ConcurrentHashMap<String, ITypeLoader>();
+    private final Map<ITypeLoader, Collection<String>> _indexedNames = new LinkedHashMap<ITypeLoader, Collection<String>>();
+    // actual internal name of a class stored under another name -> the
+    // indexed loader that read it: a miss does not probe every archive
+    private final Map<String, ITypeLoader> _misplacedTypes = new ConcurrentHashMap<String, ITypeLoader>();
 
     public LuytenTypeLoader() {
-        _typeLoaders = new ArrayList<ITypeLoader>();
+        // nested archives register their loaders during lookups
+        _typeLoaders = new CopyOnWriteArrayList<ITypeLoader>();
         _typeLoaders.add(new InputTypeLoader());
     }
 
+    /**
+     * The loaders that are asked in turn, after the indexed ones
+     */
     public final List<ITypeLoader> getTypeLoaders() {
         return _typeLoaders;
     }
 
+    /**
+     * @param internalNames
+     *            the classes the loader has, like "com/acme/Model"
+     */
+    public synchronized void addIndexedTypeLoader(final ITypeLoader typeLoader, final Collection<String> internalNames) {
+        _indexedNames.put(typeLoader, internalNames);
+        for (final String internalName : internalNames) {
+            if (!_index.containsKey(internalName)) {
+                _index.put(internalName, typeLoader);
+            }
+        }
+    }
+
+    /**
+     * @return whether one of the indexed loaders has it, like a class of an
+     *         open archive
+     */
+    public boolean hasIndexedType(final String internalName) {
+        return _index.containsKey(internalName);
+    }
+
+    public synchronized void removeIndexedTypeLoader(final ITypeLoader typeLoader) {
+        removeIndexedTypeLoaders(Collections.singletonList(typeLoader));
+    }
+
+    /**
+     * The index is refilled once for all of them
+     */
+    public synchronized void removeIndexedTypeLoaders(final Collection<? extends ITypeLoader> typeLoaders) {
+        boolean isRemoved = false;
+        for (final ITypeLoader typeLoader : typeLoaders) {
+            final Collection<String> internalNames = _indexedNames.remove(typeLoader);
+            if (internalNames == null) {
+                continue;
+            }
+            isRemoved = true;
+            for (final String internalName : internalNames) {
+                if (_index.get(internalName) == typeLoader) {
+                    _index.remove(internalName);
+                }
+            }
+        }
+        if (!isRemoved) {
+            return;
+        }
+        for (final Iterator<ITypeLoader> it = _misplacedTypes.values().iterator(); it.hasNext();) {
+            if (!_indexedNames.containsKey(it.next())) {
+                it.remove();
+            }
+        }
+        // the classes it shadowed come from the next archive that has them
+        for (final Map.Entry<ITypeLoader, Collection<String>> entry : _indexedNames.entrySet()) {
+            for (final String internalName : entry.getValue()) {
+                if (!_index.containsKey(internalName)) {
+                    _index.put(internalName, entry.getKey());
+                }
+            }
+        }
+    }
+
     @Override
     public boolean tryLoadType(final String internalName, final Buffer buffer) {
+        final ITypeLoader indexedTypeLoader = _index.get(internalName);
+        if (indexedTypeLoader != null) {
+            if (indexedTypeLoader.tryLoadType(internalName, buffer)) {
+                return true;
+            }
+
+            buffer.reset();
+        }
+
         for (final ITypeLoader typeLoader : _typeLoaders) {
             if (typeLoader.tryLoadType(internalName, buffer)) {
                 return true;
@@ -29,6 +115,27 @@ public final class LuytenTypeLoader implements ITypeLoader {
             buffer.reset();
         }
 
+        // classes stored under another name than their own, found again
+        // by the loader that read them
+        final ITypeLoader misplacedTypeLoader = _misplacedTypes.get(internalName);
+        if (misplacedTypeLoader != null && misplacedTypeLoader != indexedTypeLoader) {
+            if (misplacedTypeLoader.tryLoadType(internalName, buffer)) {
+                return true;
+            }
+
+            buffer.reset();
+        }
+
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Told by an indexed loader that read a class under another name than
+     * its own, like ZipArchiveTypeLoader: it is asked again for that class
+     */
+    public synchronized void addMisplacedType(final String actualName, final ITypeLoader typeLoader) {
+        if (!_index.containsKey(actualName) && _indexedNames.containsKey(typeLoader)) {
+            _misplacedTypes.put(actualName, typeLoader);
+        }
+    }
+}
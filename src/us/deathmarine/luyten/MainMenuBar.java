@@ -47,6 +47,9 @@ public class MainMenuBar extends JMenuBar {
 	private JCheckBox packageExplorerStyle;
 	private JCheckBox filterOutInnerClassEntries;
 	private JCheckBox singleClickOpenEnabled;
+	private JCheckBox streamingTreeEnabled;
+	private JCheckBox classpathResolverEnabled;
+	private JCheckBox decompilationDiskCacheEnabled;
 	private JCheckBox exitByEscEnabled;
 	private DecompilerSettings settings;
 	private LuytenPreferences luytenPrefs;
@@ -129,6 +132,16 @@ public class MainMenuBar extends JMenuBar {
 			}
 		});
 		fileMenu.add(menuItem);
+
+		menuItem = new JMenuItem("Add to Workspace...");
+		menuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, ActionEvent.CTRL_MASK | ActionEvent.SHIFT_MASK));
+		menuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				mainWindow.onAddFileMenu();
+			}
+		});
+		fileMenu.add(menuItem);
 		fileMenu.addSeparator();
 
 		menuItem = new JMenuItem("Close");
@@ -229,6 +242,16 @@ public class MainMenuBar extends JMenuBar {
             }
         });
         editMenu.add(menuItem);
+
+		menuItem = new JMenuItem("Go to Type/Member...");
+		menuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_T, ActionEvent.CTRL_MASK));
+		menuItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				mainWindow.onGoToSymbolMenu();
+			}
+		});
+		editMenu.add(menuItem);
 	}
 
 	private void buildThemesMenu(JMenu themesMenu) {
@@ -280,6 +303,44 @@ public class MainMenuBar extends JMenuBar {
 		});
 		operationMenu.add(filterOutInnerClassEntries);
 
+		streamingTreeEnabled = new JCheckBox("    Show Entries While Loading");
+		streamingTreeEnabled.setSelected(luytenPrefs.isStreamingTreeEnabled());
+		streamingTreeEnabled.setContentAreaFilled(false);
+		streamingTreeEnabled.setFocusable(false);
+		streamingTreeEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setStreamingTreeEnabled(streamingTreeEnabled.isSelected());
+			}
+		});
+		operationMenu.add(streamingTreeEnabled);
+
+		classpathResolverEnabled = new JCheckBox("    Resolve Dependencies From Local Repository");
+		classpathResolverEnabled.setSelected(luytenPrefs.isClasspathResolverEnabled());
+		classpathResolverEnabled.setContentAreaFilled(false);
+		classpathResolverEnabled.setFocusable(false);
+		classpathResolverEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setClasspathResolverEnabled(classpathResolverEnabled.isSelected());
+				mainWindow.onClasspathSettingsChanged();
+			}
+		});
+		operationMenu.add(classpathResolverEnabled);
+
+		decompilationDiskCacheEnabled = new JCheckBox("    Keep Decompiled Classes Between Sessions");
+		decompilationDiskCacheEnabled.setSelected(luytenPrefs.isDecompilationDiskCacheEnabled());
+		decompilationDiskCacheEnabled.setContentAreaFilled(false);
+		decompilationDiskCacheEnabled.setFocusable(false);
+		decompilationDiskCacheEnabled.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				luytenPrefs.setDecompilationDiskCacheEnabled(decompilationDiskCacheEnabled.isSelected());
+				mainWindow.onDiskCacheSettingsChanged();
+			}
+		});
+		operationMenu.add(decompilationDiskCacheEnabled);
+
 		singleClickOpenEnabled = new JCheckBox("    Single Click Open");
 		singleClickOpenEnabled.setSelected(luytenPrefs.isSingleClickOpenEnabled());
 		singleClickOpenEnabled.setContentAreaFilled(false);
@@ -303,6 +364,25 @@ public class MainMenuBar extends JMenuBar {
 			}
 		});
 		operationMenu.add(exitByEscEnabled);
+		operationMenu.addSeparator();
+
+		JMenu decompilerThreadsMenu = new JMenu("Decompiler Threads");
+		ButtonGroup decompilerThreadsGroup = new ButtonGroup();
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (final int threadCount : new int[] { 0, 1, 2, 4, 8, 16 }) {
+			String text = (threadCount == 0) ? "Auto (" + cores + ")" : String.valueOf(threadCount);
+			JRadioButtonMenuItem threadCountItem = new JRadioButtonMenuItem(text);
+			threadCountItem.setSelected(luytenPrefs.getDecompilerThreadCount() == threadCount);
+			threadCountItem.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					luytenPrefs.setDecompilerThreadCount(threadCount);
+				}
+			});
+			decompilerThreadsGroup.add(threadCountItem);
+			decompilerThreadsMenu.add(threadCountItem);
+		}
+		operationMenu.add(decompilerThreadsMenu);
 	}
 
 	private void buildSettingsMenu(JMenu settingsMenu, ConfigSaver configSaver) {
@@ -15,6 +15,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -22,10 +24,12 @@ import javax.swing.ImageIcon;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JSplitPane;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.border.BevelBorder;
 
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
@@ -42,6 +46,8 @@ public class MainWindow extends JFrame {
 	private JLabel label;
 	private FindBox findBox;
 	private FindAllBox findAllBox;
+	private GoToSymbolDialog goToSymbolDialog;
+	private UsagesDialog usagesDialog;
 	private ConfigSaver configSaver;
 	private WindowPosition windowPosition;
 	private LuytenPreferences luytenPrefs;
@@ -143,6 +149,13 @@ public class MainWindow extends JFrame {
 		}
 	}
 
+	public void onAddFileMenu() {
+		File[] selectedFiles = fileDialog.doAddDialog();
+		if (selectedFiles.length > 0) {
+			this.getModel().addFiles(Arrays.asList(selectedFiles));
+		}
+	}
+
 	public void onCloseFileMenu() {
 		this.getModel().closeFile();
 	}
@@ -166,6 +179,10 @@ public class MainWindow extends JFrame {
 		File openedFile = this.getModel().getOpenedFile();
 		if (openedFile == null)
 			return;
+		if (openedFile.isDirectory()) {
+			showDirectoryNotSupportedMessage("Save All");
+			return;
+		}
 
 		String fileName = openedFile.getName();
 		if (fileName.endsWith(".class")) {
@@ -215,6 +232,11 @@ public class MainWindow extends JFrame {
 
 	public void onFindAllMenu() {
 		try {
+			File openedFile = this.getModel().getOpenedFile();
+			if (openedFile != null && openedFile.isDirectory()) {
+				showDirectoryNotSupportedMessage("Find All");
+				return;
+			}
 			if (findAllBox == null)
 				findAllBox = new FindAllBox();
 			findAllBox.showFindBox();
@@ -224,6 +246,24 @@ public class MainWindow extends JFrame {
 		}
 	}
 
+	/**
+	 * Save All and Find All read a jar: a class directory is not one
+	 */
+	private void showDirectoryNotSupportedMessage(String action) {
+		JOptionPane.showMessageDialog(this, action + " works on archives only, not on a directory of classes.",
+				action, JOptionPane.INFORMATION_MESSAGE);
+	}
+
+	public void onGoToSymbolMenu() {
+		try {
+			if (goToSymbolDialog == null)
+				goToSymbolDialog = new GoToSymbolDialog(this);
+			goToSymbolDialog.showDialog();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	public void onLegalMenu() {
 		new Thread() {
 			public void run() {
@@ -273,12 +313,28 @@ public class MainWindow extends JFrame {
 		this.getModel().updateTree();
 	}
 
+	public void onClasspathSettingsChanged() {
+		this.getModel().updateClasspath();
+	}
+
+	public void onDiskCacheSettingsChanged() {
+		DecompilationCache.getDefault().updateDiskCache();
+	}
+
 	public void onFileDropped(File file) {
 		if (file != null) {
 			this.getModel().loadFile(file);
 		}
 	}
 
+	/**
+	 * Several files are opened as a workspace
+	 */
+	public void onFilesDropped(List<File> files) {
+		this.getModel().closeFile();
+		this.getModel().addFiles(files);
+	}
+
 	public void onFileLoadEnded(File file, boolean isSuccess) {
 		try {
 			if (file != null && isSuccess) {
@@ -295,6 +351,33 @@ public class MainWindow extends JFrame {
 		this.getModel().navigateTo(uniqueStr);
 	}
 
+	public void onFindUsagesRequest(final String uniqueStr, final String description) {
+		if (usagesDialog == null)
+			usagesDialog = new UsagesDialog(this);
+		usagesDialog.showSearching(description);
+		new Thread() {
+			public void run() {
+				try {
+					final List<SymbolIndex.Symbol> usages = getModel().findUsages(uniqueStr);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							usagesDialog.showUsages(description, usages);
+						}
+					});
+				} catch (final Exception e) {
+					e.printStackTrace();
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							usagesDialog.showError("Cannot read the class files: " + e.getMessage());
+						}
+					});
+				}
+			}
+		}.start();
+	}
+
 	private void adjustWindowPositionBySavedState() {
 		Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
 		if (!windowPosition.isSavedWindowPositionValid()) {
@@ -9,22 +9,20 @@ import java.awt.event.MouseEvent;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
@@ -49,7 +47,6 @@ import org.fife.ui.rsyntaxtextarea.Theme;
 import org.fife.ui.rtextarea.RTextScrollPane;
 import com.strobel.assembler.InputTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
-import com.strobel.assembler.metadata.JarTypeLoader;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.assembler.metadata.TypeReference;
@@ -65,8 +62,9 @@ import com.strobel.decompiler.PlainTextOutput;
 public class Model extends JSplitPane {
 	private static final long serialVersionUID = 6896857630400910200L;
 
-	private static final long MAX_JAR_FILE_SIZE_BYTES = 1_000_000_000;
 	private static final long MAX_UNPACKED_FILE_SIZE_BYTES = 1_000_000;
+	private static final int MAX_PREFETCHED_NEIGHBOURS = 8;
+	private static final int MAX_PREFETCHED_REFERENCES = 8;
 
     private static LuytenTypeLoader typeLoader = new LuytenTypeLoader();
     public static MetadataSystem metadataSystem = new MetadataSystem(typeLoader);
@@ -81,9 +79,17 @@ public class Model extends JSplitPane {
 	private JProgressBar bar;
 	private JLabel label;
 	private HashSet<OpenFile> hmap = new HashSet<OpenFile>();
-	private Set<String> treeExpansionState;
+	private EntryTable entryTable;
+	private BitSet treeExpansionState;
 	private boolean open = false;
 	private State state;
+	// archives added beside the open one, in the order they were added
+	private final List<State> addedStates = new CopyOnWriteArrayList<>();
+	// of getSymbolIndex(), with the indexes it was merged from
+	private SymbolIndex mergedSymbolIndex;
+	private List<SymbolIndex> mergedSymbolIndexParts;
+	// the hidden root above the archives, null with one archive
+	private DefaultMutableTreeNode workspaceRoot;
 	private ConfigSaver configSaver;
 	private LuytenPreferences luytenPrefs;
 
@@ -114,6 +120,12 @@ public class Model extends JSplitPane {
 		tree.setModel(new DefaultTreeModel(null));
 		tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
 		tree.setCellRenderer(new CellRenderer());
+		// rows of one height: the tree lays out many expanded folders at once
+		// (TreeUtil) without shifting every row once per folder
+		if (tree.getRowHeight() <= 0) {
+			tree.setRowHeight(getTreeRowHeight());
+		}
+		tree.setLargeModel(true);
 		TreeListener tl = new TreeListener();
 		tree.addMouseListener(tl);
 
@@ -230,8 +242,19 @@ public class Model extends JSplitPane {
 		String path = "";
 		try {
 			bar.setVisible(true);
-			if (trp.getPathCount() > 1) {
-				for (int i = 1; i < trp.getPathCount(); i++) {
+			State entryState = state;
+			File entryFile = file;
+			int firstComponent = 1;
+			// in a workspace, the first component is the archive
+			if (workspaceRoot != null && trp.getPathComponent(0) == workspaceRoot) {
+				entryState = getWorkspaceState(trp.getPathComponent(1));
+				if (entryState == null || trp.getPathCount() <= 2)
+					throw new FileEntryNotFoundException();
+				entryFile = entryState.file;
+				firstComponent = 2;
+			}
+			if (trp.getPathCount() > firstComponent) {
+				for (int i = firstComponent; i < trp.getPathCount(); i++) {
 					DefaultMutableTreeNode node = (DefaultMutableTreeNode) trp.getPathComponent(i);
 					TreeNodeUserObject userObject = (TreeNodeUserObject) node.getUserObject();
 					if (i == trp.getPathCount() - 1) {
@@ -242,19 +265,39 @@ public class Model extends JSplitPane {
 				}
 				path = path + name;
 
-				if (file.getName().endsWith(".jar") || file.getName().endsWith(".zip")) {
-					if (state == null) {
-						JarFile jfile = new JarFile(file);
-						ITypeLoader jarLoader = new JarTypeLoader(jfile);
-
-						typeLoader.getTypeLoaders().add(jarLoader);
-						state = new State(file.getCanonicalPath(), file, jfile, jarLoader);
+				if (entryFile.isDirectory()) {
+					File directoryFile = (entryState != null && entryState.classDirectory != null)
+							? entryState.classDirectory.getFile(path) : null;
+					if (directoryFile == null) {
+						throw new FileEntryNotFoundException();
+					}
+					if (directoryFile.length() > MAX_UNPACKED_FILE_SIZE_BYTES) {
+						throw new TooLargeFileException(directoryFile.length());
+					}
+					if (path.endsWith(".class")) {
+						label.setText("Extracting: " + name);
+						String internalName = StringUtilities.removeRight(path, ".class");
+						TypeReference type = metadataSystem.lookupType(internalName);
+						extractClassToTextPane(type, name, path, null);
+					} else {
+						label.setText("Opening: " + name);
+						try (InputStream in = new FileInputStream(directoryFile);) {
+							extractSimpleFileEntryToTextPane(in, name, path);
+						}
+					}
+				} else if (NestedArchives.isArchiveName(entryFile.getName())) {
+					if (entryState == null) {
+						ZipArchive archive = new ZipArchive(file);
+						state = createArchiveState(file, archive, EntryTable.build(archive));
+						entryState = state;
 					}
 
-					JarEntry entry = state.jarFile.getJarEntry(path);
-					if (entry == null) {
+					// in the archive or in an archive stored in it
+					NestedArchives.Location location = entryState.nestedArchives.find(path);
+					if (location == null) {
 						throw new FileEntryNotFoundException();
 					}
+					ZipArchive.Entry entry = location.getEntry();
 					if (entry.getSize() > MAX_UNPACKED_FILE_SIZE_BYTES) {
 						throw new TooLargeFileException(entry.getSize());
 					}
@@ -266,7 +309,7 @@ public class Model extends JSplitPane {
 						extractClassToTextPane(type, name, path, null);
 					} else {
 						label.setText("Opening: " + name);
-						try (InputStream in = state.jarFile.getInputStream(entry);) {
+						try (InputStream in = location.getArchive().getInputStream(entry);) {
 							extractSimpleFileEntryToTextPane(in, name, path);
 						}
 					}
@@ -476,22 +519,171 @@ public class Model extends JSplitPane {
 	private final class State implements AutoCloseable {
 		private final String key;
 		private final File file;
-		final JarFile jarFile;
+		// for DecompilationCache
+		private final String archiveId;
+		// one of them, or neither for a lone class file
+		final ZipArchive archive;
+		final ClassDirectory classDirectory;
 		final ITypeLoader typeLoader;
-
-		private State(String key, File file, JarFile jarFile, ITypeLoader typeLoader) {
+		// the listing, read once: the view settings only change the projection
+		final TreeBuilder treeBuilder;
+		final NestedArchives nestedArchives;
+		// its node in the tree, under the workspace root
+		private volatile LazyTreeNode top;
+		// of an added archive, the open one keeps it in Model
+		private BitSet treeExpansionState;
+		// its dependencies on this machine, with ClasspathResolver on
+		private ClasspathTypeLoader classpathLoader;
+		private volatile String classpathId;
+		private Thread classpathThread;
+		private boolean isClosed;
+		private volatile SymbolIndex symbolIndex;
+		private Thread symbolIndexThread;
+		private CrossReferenceIndex crossReferenceIndex;
+
+		private State(String key, File file, ZipArchive archive, ClassDirectory classDirectory,
+				ITypeLoader typeLoader, TreeBuilder treeBuilder) {
 			this.key = VerifyArgument.notNull(key, "key");
 			this.file = VerifyArgument.notNull(file, "file");
-			this.jarFile = jarFile;
+			// a directory changes below its modification time: one id per listing
+			this.archiveId = (archive == null && classDirectory != null)
+					? DecompilationCache.getArchiveId(file) + "@" + System.nanoTime()
+					: DecompilationCache.getArchiveId(file);
+			this.archive = archive;
+			this.classDirectory = classDirectory;
 			this.typeLoader = typeLoader;
+			this.treeBuilder = treeBuilder;
+			this.nestedArchives = (archive != null)
+					? new NestedArchives(archive, treeBuilder.getEntryTable(), Model.typeLoader) : null;
+		}
+
+		/**
+		 * Its classes decompile differently once its dependencies resolve
+		 */
+		private String getDecompilationContextId() {
+			String currentClasspathId = classpathId;
+			return (currentClasspathId != null) ? archiveId + "+" + currentClasspathId : archiveId;
+		}
+
+		/**
+		 * In the background, once the tree is shown: the classes of the
+		 * archives stored in it resolve when they are listed
+		 */
+		private void registerNestedArchives() {
+			if (nestedArchives != null) {
+				nestedArchives.registerTypeLoaders();
+			}
+		}
+
+		/**
+		 * In the background: the other view is ready before it is switched to
+		 */
+		private void prepareTreeViews() {
+			Thread thread = new Thread("tree-views") {
+				@Override
+				public void run() {
+					treeBuilder.prepare();
+				}
+			};
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+
+		/**
+		 * In the background: the jars of its manifest Class-Path and of the
+		 * local Maven repository it depends on are registered, their
+		 * classes resolve once it is done
+		 */
+		private synchronized void resolveClasspath() {
+			if (archive == null || isClosed || classpathLoader != null
+					|| (classpathThread != null && classpathThread.isAlive()))
+				return;
+			classpathThread = new Thread("classpath") {
+				@Override
+				public void run() {
+					try {
+						ClasspathTypeLoader loader = ClasspathResolver.getDefault().createTypeLoader(file, archive);
+						if (loader == null)
+							return;
+						synchronized (Model.State.this) {
+							if (isClosed || classpathLoader != null || !luytenPrefs.isClasspathResolverEnabled()) {
+								loader.close();
+								return;
+							}
+							classpathLoader = loader;
+							classpathId = SettingsFingerprint.md5Hex(loader.getJarFiles().toString());
+							Model.typeLoader.getTypeLoaders().add(loader);
+						}
+						// the open classes may refer to them
+						updateOpenClasses();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			classpathThread.setDaemon(true);
+			classpathThread.setPriority(Thread.MIN_PRIORITY);
+			classpathThread.start();
+		}
+
+		private synchronized void removeClasspath() {
+			if (classpathLoader != null) {
+				Model.typeLoader.getTypeLoaders().remove(classpathLoader);
+				classpathLoader.close();
+				classpathLoader = null;
+				classpathId = null;
+			}
+		}
+
+		/**
+		 * In the background, from the class files: Go to Type/Member works
+		 * before anything is decompiled
+		 */
+		private void buildSymbolIndex() {
+			symbolIndexThread = new Thread("symbol-index") {
+				@Override
+				public void run() {
+					try {
+						symbolIndex = SymbolIndex.build(file, ParallelDecompiler.getPreferredThreadCount());
+					} catch (InterruptedException e) {
+						// file closed
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			symbolIndexThread.setDaemon(true);
+			symbolIndexThread.start();
+		}
+
+		/**
+		 * Built on the first Find Usages, on the caller's thread
+		 */
+		private synchronized CrossReferenceIndex getCrossReferenceIndex() throws Exception {
+			if (crossReferenceIndex == null) {
+				crossReferenceIndex = CrossReferenceIndex.build(file, ParallelDecompiler.getPreferredThreadCount());
+			}
+			return crossReferenceIndex;
 		}
 
 		@Override
 		public void close() {
+			synchronized (this) {
+				isClosed = true;
+				removeClasspath();
+			}
+			if (symbolIndexThread != null) {
+				symbolIndexThread.interrupt();
+			}
 			if (typeLoader != null) {
+				Model.typeLoader.removeIndexedTypeLoader(typeLoader);
 				Model.typeLoader.getTypeLoaders().remove(typeLoader);
 			}
-			Closer.tryClose(jarFile);
+			if (nestedArchives != null) {
+				nestedArchives.close();
+			}
+			Closer.tryClose(archive);
 		}
 
 		@SuppressWarnings("unused")
@@ -574,6 +766,9 @@ public class Model extends JSplitPane {
 
 	@SuppressWarnings("unchecked")
 	public DefaultMutableTreeNode getChild(DefaultMutableTreeNode node, TreeNodeUserObject name) {
+		if (node instanceof LazyTreeNode) {
+			return ((LazyTreeNode) node).getChild(name.getOriginalName());
+		}
 		Enumeration<DefaultMutableTreeNode> entry = node.children();
 		while (entry.hasMoreElements()) {
 			DefaultMutableTreeNode nods = entry.nextElement();
@@ -584,6 +779,15 @@ public class Model extends JSplitPane {
 		return null;
 	}
 
+	/**
+	 * @return the height the renderer asks for
+	 */
+	private int getTreeRowHeight() {
+		DefaultMutableTreeNode sample = new DefaultMutableTreeNode(new TreeNodeUserObject("Sample.class"));
+		return tree.getCellRenderer().getTreeCellRendererComponent(tree, sample, false, false, true, 0, false)
+				.getPreferredSize().height;
+	}
+
 	public void loadFile(File file) {
 		if (open)
 			closeFile();
@@ -591,220 +795,522 @@ public class Model extends JSplitPane {
 		loadTree();
 	}
 
-	public void updateTree() {
-		TreeUtil treeUtil = new TreeUtil(tree);
-		treeExpansionState = treeUtil.getExpansionState();
-		loadTree();
+	/**
+	 * Adds archives or class directories to the workspace: each one gets a
+	 * root of its own in the tree and the types of all of them resolve from
+	 * each other. The first one is opened if nothing is.
+	 */
+	public void addFiles(final List<File> files) {
+		if (files.isEmpty())
+			return;
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				List<File> addedFiles = files;
+				State currentState = state;
+				if (currentState == null || currentState.treeBuilder == null) {
+					if (open) {
+						closeFile();
+					}
+					file = files.get(0);
+					loadFileTree();
+					addedFiles = files.subList(1, files.size());
+				}
+				for (File addedFile : addedFiles) {
+					addToWorkspace(addedFile);
+				}
+			}
+		}).start();
 	}
 
-	public void loadTree() {
+	private void addToWorkspace(File addedFile) {
+		State currentState = state;
+		if (currentState == null || currentState.treeBuilder == null)
+			return;
+		try {
+			bar.setVisible(true);
+			label.setText("Loading: " + addedFile.getName());
+			if (getWorkspaceState(addedFile.getCanonicalPath()) != null) {
+				label.setText("Already open: " + addedFile.getName());
+				return;
+			}
+			State addedState;
+			if (addedFile.isDirectory()) {
+				addedState = createDirectoryState(addedFile);
+			} else if (NestedArchives.isArchiveName(addedFile.getName())) {
+				ZipArchive archive = new ZipArchive(addedFile);
+				try {
+					addedState = createArchiveState(addedFile, archive, EntryTable.build(archive));
+				} catch (Exception e) {
+					Closer.tryClose(archive);
+					throw e;
+				}
+			} else {
+				label.setText("Not an archive: " + addedFile.getName());
+				return;
+			}
+			// its first level is shown
+			addedState.treeExpansionState = new BitSet();
+			addedState.treeExpansionState.set(EntryTable.ROOT_PACKAGE);
+			saveTreeExpansionState();
+			addedStates.add(addedState);
+			if (state != currentState) {
+				// closed meanwhile
+				addedStates.remove(addedState);
+				Closer.tryClose(addedState);
+				return;
+			}
+			if (buildTree(currentState)) {
+				restoreTreeExpansionState();
+			}
+			addedState.prepareTreeViews();
+			addedState.registerNestedArchives();
+			// the open classes may refer to it
+			updateOpenClasses();
+			label.setText("Complete");
+		} catch (Exception e) {
+			e.printStackTrace();
+			label.setText("Cannot open: " + addedFile.getName());
+		} finally {
+			bar.setVisible(false);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            the canonical path
+	 * @return null if it is not in the workspace
+	 */
+	private State getWorkspaceState(String key) {
+		State currentState = state;
+		if (currentState != null && currentState.key.equals(key))
+			return currentState;
+		for (State addedState : addedStates) {
+			if (addedState.key.equals(key))
+				return addedState;
+		}
+		return null;
+	}
+
+	/**
+	 * @param top
+	 *            a child of the workspace root
+	 * @return null if it is not the top of an archive
+	 */
+	private State getWorkspaceState(Object top) {
+		State currentState = state;
+		if (currentState != null && currentState.top == top)
+			return currentState;
+		for (State addedState : addedStates) {
+			if (addedState.top == top)
+				return addedState;
+		}
+		return null;
+	}
+
+	/**
+	 * Its classes are resolved through the index of the type loader
+	 */
+	private State createArchiveState(File archiveFile, ZipArchive archive, EntryTable table) throws IOException {
+		ITypeLoader jarLoader = new ZipArchiveTypeLoader(archive, typeLoader);
+		typeLoader.addIndexedTypeLoader(jarLoader, ZipArchiveTypeLoader.getInternalNames(table));
+		State archiveState = new State(archiveFile.getCanonicalPath(), archiveFile, archive, null, jarLoader,
+				new TreeBuilder(table));
+		archiveState.buildSymbolIndex();
+		if (luytenPrefs.isClasspathResolverEnabled()) {
+			archiveState.resolveClasspath();
+		}
+		return archiveState;
+	}
+
+	/**
+	 * @return the open archive or directory first, then the added ones
+	 */
+	private List<State> getWorkspaceStates() {
+		List<State> workspaceStates = new ArrayList<>(addedStates);
+		State currentState = state;
+		if (currentState != null) {
+			workspaceStates.add(0, currentState);
+		}
+		return workspaceStates;
+	}
+
+	private State createDirectoryState(File directory) throws IOException {
+		ClassDirectory classDirectory = ClassDirectory.index(directory, ParallelDecompiler.getPreferredThreadCount());
+		ITypeLoader directoryLoader = new ClassDirectoryTypeLoader(classDirectory, typeLoader);
+		typeLoader.addIndexedTypeLoader(directoryLoader, classDirectory.getInternalNames());
+		return new State(directory.getCanonicalPath(), directory, null, classDirectory, directoryLoader,
+				new TreeBuilder(classDirectory.getEntryTable()));
+	}
+
+	/**
+	 * Queues the classes likely to be opened after this one for
+	 * DecompilationPrefetcher: its neighbours in the tree and the classes of
+	 * the workspace it refers to most, taken in turn
+	 */
+	public void prefetchAround(String internalName, Map<String, Set<Selection>> referenceToSelectionsMap) {
+		String archiveId = getDecompilationContextId();
+		if (archiveId == null)
+			return;
+		int nestedStart = internalName.indexOf('$', internalName.lastIndexOf('/') + 1);
+		String ownPath = (nestedStart >= 0) ? internalName.substring(0, nestedStart) : internalName;
+		List<String> referencedTypes = new ArrayList<>();
+		for (String referencedType : DecompilationPrefetcher.getMostReferencedTypes(ownPath,
+				referenceToSelectionsMap, MAX_PREFETCHED_REFERENCES)) {
+			if (typeLoader.hasIndexedType(referencedType)) {
+				referencedTypes.add(referencedType);
+			}
+		}
+		List<String> neighbours = getPackageNeighbours(ownPath, MAX_PREFETCHED_NEIGHBOURS);
+		List<String> internalNames = new ArrayList<>();
+		for (int i = 0; i < Math.max(neighbours.size(), referencedTypes.size()); i++) {
+			if (i < neighbours.size() && !internalNames.contains(neighbours.get(i))) {
+				internalNames.add(neighbours.get(i));
+			}
+			if (i < referencedTypes.size() && !internalNames.contains(referencedTypes.get(i))) {
+				internalNames.add(referencedTypes.get(i));
+			}
+		}
+		DecompilationPrefetcher.getDefault().schedule(archiveId, typeLoader, getDependenciesId(), internalNames);
+	}
+
+	/**
+	 * @return the top level classes beside it in its package, nearest in
+	 *         name order first
+	 */
+	private List<String> getPackageNeighbours(String internalName, int maxCount) {
+		List<State> workspaceStates = getWorkspaceStates();
+		int slash = internalName.lastIndexOf('/');
+		String packagePath = (slash >= 0) ? internalName.substring(0, slash) : "";
+		String simpleName = internalName.substring(slash + 1);
+		List<String> neighbours = new ArrayList<>();
+		for (State workspaceState : workspaceStates) {
+			if (workspaceState.treeBuilder == null)
+				continue;
+			EntryTable table = workspaceState.treeBuilder.getEntryTable();
+			for (String entryPackagePath : ZipArchiveTypeLoader.getEntryPackagePaths(packagePath)) {
+				int packageId = table.findPackage(entryPackagePath);
+				if (packageId < 0 || table.findEntry(packageId, simpleName + ".class") < 0)
+					continue;
+				List<String> simpleNames = new ArrayList<>();
+				for (int entryId = 0; entryId < table.getEntryCount(); entryId++) {
+					if (table.getPackage(entryId) != packageId)
+						continue;
+					String entrySimpleName = table.getSimpleName(entryId);
+					if (entrySimpleName.endsWith(".class") && entrySimpleName.indexOf('$') < 0) {
+						simpleNames.add(entrySimpleName.substring(0, entrySimpleName.length() - ".class".length()));
+					}
+				}
+				Collections.sort(simpleNames);
+				int position = simpleNames.indexOf(simpleName);
+				for (int distance = 1; neighbours.size() < maxCount && distance < simpleNames.size(); distance++) {
+					if (position + distance < simpleNames.size()) {
+						neighbours.add(simpleNames.get(position + distance));
+					}
+					if (position - distance >= 0 && neighbours.size() < maxCount) {
+						neighbours.add(simpleNames.get(position - distance));
+					}
+				}
+				List<String> internalNames = new ArrayList<>(neighbours.size());
+				for (String neighbour : neighbours) {
+					internalNames.add(packagePath.isEmpty() ? neighbour : packagePath + "/" + neighbour);
+				}
+				return internalNames;
+			}
+		}
+		return neighbours;
+	}
+
+	/**
+	 * Registers or drops the dependencies of the open archives
+	 */
+	public void updateClasspath() {
+		List<State> workspaceStates = getWorkspaceStates();
+		for (State workspaceState : workspaceStates) {
+			if (luytenPrefs.isClasspathResolverEnabled()) {
+				workspaceState.resolveClasspath();
+			} else {
+				workspaceState.removeClasspath();
+			}
+		}
+		if (!luytenPrefs.isClasspathResolverEnabled()) {
+			updateOpenClasses();
+		}
+	}
+
+	public void updateTree() {
+		saveTreeExpansionState();
+		final State currentState = state;
+		if (currentState == null || currentState.treeBuilder == null) {
+			loadTree();
+			return;
+		}
+		// the archive is not read again
 		new Thread(new Runnable() {
 			@Override
 			public void run() {
 				try {
-					if (file == null) {
-						return;
+					if (buildTree(currentState)) {
+						restoreTreeExpansionState();
 					}
-					tree.setModel(new DefaultTreeModel(null));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}).start();
+	}
 
-					if (file.length() > MAX_JAR_FILE_SIZE_BYTES) {
-						throw new TooLargeFileException(file.length());
-					}
-					if (file.getName().endsWith(".zip") || file.getName().endsWith(".jar")) {
-						JarFile jfile;
-						jfile = new JarFile(file);
-						label.setText("Loading: " + jfile.getName());
-						bar.setVisible(true);
-
-						JarEntryFilter jarEntryFilter = new JarEntryFilter(jfile);
-						List<String> mass = null;
-						if (luytenPrefs.isFilterOutInnerClassEntries()) {
-							mass = jarEntryFilter.getEntriesWithoutInnerClasses();
-						} else {
-							mass = jarEntryFilter.getAllEntriesFromJar();
-						}
-						buildTreeFromMass(mass);
+	public void loadTree() {
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loadFileTree();
+			}
+		}).start();
+	}
 
-						if (state == null) {
-							ITypeLoader jarLoader = new JarTypeLoader(jfile);
-							typeLoader.getTypeLoaders().add(jarLoader);
-							state = new State(file.getCanonicalPath(), file, jfile, jarLoader);
-						}
-						open = true;
-						label.setText("Complete");
+	private void loadFileTree() {
+		try {
+			if (file == null) {
+				return;
+			}
+			tree.setModel(new DefaultTreeModel(null));
+
+			if (file.isDirectory()) {
+				label.setText("Loading: " + file.getName());
+				bar.setVisible(true);
+				if (state == null) {
+					state = createDirectoryState(file);
+				}
+				buildTree(state);
+				state.prepareTreeViews();
+				state.registerNestedArchives();
+				open = true;
+				label.setText("Complete");
+			} else if (NestedArchives.isArchiveName(file.getName())) {
+				label.setText("Loading: " + file.getName());
+				bar.setVisible(true);
+
+				EntryTable table;
+				StreamingTreeLoader streamingTreeLoader = null;
+				ZipArchive archive;
+				if (luytenPrefs.isStreamingTreeEnabled()) {
+					streamingTreeLoader = createStreamingTreeLoader();
+					archive = new ZipArchive(file, streamingTreeLoader);
+				} else {
+					archive = new ZipArchive(file);
+				}
+				boolean isArchiveKept = false;
+				try {
+					if (streamingTreeLoader != null) {
+						table = finishStreaming(streamingTreeLoader);
 					} else {
-						TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(getName(file.getName()));
-						final DefaultMutableTreeNode top = new DefaultMutableTreeNode(topNodeUserObject);
-						tree.setModel(new DefaultTreeModel(top));
-						settings.setTypeLoader(new InputTypeLoader());
-						open = true;
-						label.setText("Complete");
-
-						// open it automatically
-						new Thread() {
-							public void run() {
-								TreePath trp = new TreePath(top.getPath());
-								openEntryByTreePath(trp);
-							};
-						}.start();
+						table = EntryTable.build(archive);
 					}
-
-					if (treeExpansionState != null) {
-						try {
-							TreeUtil treeUtil = new TreeUtil(tree);
-							treeUtil.restoreExpanstionState(treeExpansionState);
-						} catch (Exception exc) {
-							exc.printStackTrace();
-						}
+					if (state == null) {
+						state = createArchiveState(file, archive, table);
+						isArchiveKept = true;
 					}
-				} catch (TooLargeFileException e) {
-					label.setText("File is too large: " + file.getName() + " - size: " + e.getReadableFileSize());
-					closeFile();
-				} catch (Exception e1) {
-					e1.printStackTrace();
-					label.setText("Cannot open: " + file.getName());
-					closeFile();
+					buildTree(state);
+					state.prepareTreeViews();
+					state.registerNestedArchives();
 				} finally {
-					mainWindow.onFileLoadEnded(file, open);
-					bar.setVisible(false);
+					if (!isArchiveKept) {
+						Closer.tryClose(archive);
+					}
 				}
+				open = true;
+				label.setText("Complete");
+			} else {
+				TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(getName(file.getName()));
+				final DefaultMutableTreeNode top = new DefaultMutableTreeNode(topNodeUserObject);
+				tree.setModel(new DefaultTreeModel(top));
+				settings.setTypeLoader(new InputTypeLoader());
+				if (state == null && file.getName().endsWith(".class")) {
+					// the classes beside it, from its class root
+					ClassDirectory classRoot = ClassDirectory.forClassFile(file);
+					if (classRoot != null) {
+						ITypeLoader rootLoader = new ClassDirectoryTypeLoader(classRoot);
+						typeLoader.getTypeLoaders().add(rootLoader);
+						state = new State(file.getCanonicalPath(), file, null, classRoot, rootLoader, null);
+					}
+				}
+				open = true;
+				label.setText("Complete");
+
+				// open it automatically
+				new Thread() {
+					public void run() {
+						TreePath trp = new TreePath(top.getPath());
+						openEntryByTreePath(trp);
+					};
+				}.start();
 			}
 
-		}).start();
+			restoreTreeExpansionState();
+		} catch (TooLargeFileException e) {
+			label.setText("File is too large: " + file.getName() + " - size: " + e.getReadableFileSize());
+			closeFile();
+		} catch (Exception e1) {
+			e1.printStackTrace();
+			label.setText("Cannot open: " + file.getName());
+			closeFile();
+		} finally {
+			mainWindow.onFileLoadEnded(file, open);
+			bar.setVisible(false);
+		}
 	}
 
-	private void buildTreeFromMass(List<String> mass) {
-		if (luytenPrefs.isPackageExplorerStyle()) {
-			buildFlatTreeFromMass(mass);
+	/**
+	 * Shows the entries while the central directory is being read
+	 */
+	private StreamingTreeLoader createStreamingTreeLoader() {
+		return new StreamingTreeLoader(tree, bar, new TreeNodeUserObject(getName(file.getName())),
+				luytenPrefs.isPackageExplorerStyle(), luytenPrefs.isFilterOutInnerClassEntries());
+	}
+
+	/**
+	 * @return the entries the final tree is built from
+	 */
+	private EntryTable finishStreaming(StreamingTreeLoader streamingTreeLoader) throws Exception {
+		// nodes expanded while loading stay expanded
+		BitSet expansionState = streamingTreeLoader.finish();
+		if (treeExpansionState == null) {
+			treeExpansionState = expansionState;
 		} else {
-			buildDirectoryTreeFromMass(mass);
+			treeExpansionState.or(expansionState);
 		}
+		return streamingTreeLoader.getEntryTable();
 	}
 
-	private void buildDirectoryTreeFromMass(List<String> mass) {
-		TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(getName(file.getName()));
-		DefaultMutableTreeNode top = new DefaultMutableTreeNode(topNodeUserObject);
-		List<String> sort = new ArrayList<String>();
-		Collections.sort(mass, String.CASE_INSENSITIVE_ORDER);
-		for (String m : mass)
-			if (m.contains("META-INF") && !sort.contains(m))
-				sort.add(m);
-		Set<String> set = new HashSet<String>();
-		for (String m : mass) {
-			if (m.contains("/")) {
-				set.add(m.substring(0, m.lastIndexOf("/") + 1));
+	/**
+	 * Projects the listing of each archive into a tree of the current view
+	 * settings: several archives are shown under a hidden root, one top
+	 * node each
+	 * 
+	 * @return false if the archive was closed meanwhile
+	 */
+	private boolean buildTree(final State currentState) throws Exception {
+		LazyTreeNode top = projectTree(currentState);
+		List<LazyTreeNode> addedTops = new ArrayList<>();
+		for (State addedState : addedStates) {
+			addedTops.add(projectTree(addedState));
+		}
+		if (state != currentState)
+			return false;
+		entryTable = currentState.treeBuilder.getEntryTable();
+		if (addedTops.isEmpty()) {
+			workspaceRoot = null;
+			tree.setRootVisible(true);
+			tree.setModel(new DefaultTreeModel(top));
+		} else {
+			DefaultMutableTreeNode root = new DefaultMutableTreeNode(new TreeNodeUserObject("Workspace"));
+			root.add(top);
+			for (LazyTreeNode addedTop : addedTops) {
+				root.add(addedTop);
 			}
+			workspaceRoot = root;
+			tree.setRootVisible(false);
+			tree.setShowsRootHandles(true);
+			tree.setModel(new DefaultTreeModel(root));
+		}
+		return true;
+	}
+
+	private LazyTreeNode projectTree(final State projectedState) throws Exception {
+		LazyTreeNode top = projectTree(projectedState.treeBuilder, getName(projectedState.file.getName()));
+		if (projectedState.nestedArchives != null) {
+			setNestedTreeFactory(top, projectedState);
 		}
-		List<String> packs = Arrays.asList(set.toArray(new String[] {}));
-		Collections.sort(packs, String.CASE_INSENSITIVE_ORDER);
-		Collections.sort(packs, new Comparator<String>() {
-			public int compare(String o1, String o2) {
-				return o2.split("/").length - o1.split("/").length;
+		projectedState.top = top;
+		return top;
+	}
+
+	/**
+	 * Nested archives get the same view settings
+	 */
+	private void setNestedTreeFactory(LazyTreeNode top, final State currentState) {
+		top.setNestedTreeFactory(new LazyTreeNode.NestedTreeFactory() {
+			@Override
+			public boolean isNestedArchive(String name) {
+				return NestedArchives.isArchiveName(name);
 			}
-		});
-		for (String pack : packs)
-			for (String m : mass)
-				if (!m.contains("META-INF") && m.contains(pack)
-						&& !m.replace(pack, "").contains("/"))
-					sort.add(m);
-		for (String m : mass)
-			if (!m.contains("META-INF") && !m.contains("/") && !sort.contains(m))
-				sort.add(m);
-		for (String pack : sort) {
-			LinkedList<String> list = new LinkedList<String>(Arrays.asList(pack.split("/")));
-			loadNodesByNames(top, list);
-		}
-		tree.setModel(new DefaultTreeModel(top));
-	}
-
-	private void buildFlatTreeFromMass(List<String> mass) {
-		TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(getName(file.getName()));
-		DefaultMutableTreeNode top = new DefaultMutableTreeNode(topNodeUserObject);
-
-		TreeMap<String, TreeSet<String>> packages = new TreeMap<>();
-		HashSet<String> classContainingPackageRoots = new HashSet<>();
-
-		Comparator<String> sortByFileExtensionsComparator = new Comparator<String>() {
-			// (assertion: mass does not contain null elements)
+
 			@Override
-			public int compare(String o1, String o2) {
-				int comp = o1.replaceAll("[^\\.]*\\.", "").compareTo(o2.replaceAll("[^\\.]*\\.", ""));
-				if (comp != 0)
-					return comp;
-				return o1.compareTo(o2);
-			}
-		};
-
-		for (String entry : mass) {
-			String packagePath = "";
-			String packageRoot = "";
-			if (entry.contains("/")) {
-				packagePath = entry.replaceAll("/[^/]*$", "");
-				packageRoot = entry.replaceAll("/.*$", "");
-			}
-			String packageEntry = entry.replace(packagePath + "/", "");
-			if (!packages.containsKey(packagePath)) {
-				packages.put(packagePath, new TreeSet<String>(sortByFileExtensionsComparator));
-			}
-			packages.get(packagePath).add(packageEntry);
-			if (!entry.startsWith("META-INF") && packageRoot.trim().length() > 0 &&
-					entry.matches(".*\\.(class|java|prop|properties)$")) {
-				classContainingPackageRoots.add(packageRoot);
-			}
-		}
-
-		// META-INF comes first -> not flat
-		for (String packagePath : packages.keySet()) {
-			if (packagePath.startsWith("META-INF")) {
-				List<String> packagePathElements = Arrays.asList(packagePath.split("/"));
-				for (String entry : packages.get(packagePath)) {
-					ArrayList<String> list = new ArrayList<>(packagePathElements);
-					list.add(entry);
-					loadNodesByNames(top, list);
+			public LazyTreeNode createTree(String path) {
+				try {
+					return projectTree(currentState.nestedArchives.getTreeBuilder(path), path);
+				} catch (Exception e) {
+					e.printStackTrace();
+					return null;
 				}
 			}
-		}
+		});
+	}
 
-		// real packages: path starts with a classContainingPackageRoot -> flat
-		for (String packagePath : packages.keySet()) {
-			String packageRoot = packagePath.replaceAll("/.*$", "");
-			if (classContainingPackageRoots.contains(packageRoot)) {
-				for (String entry : packages.get(packagePath)) {
-					ArrayList<TreeNodeUserObject> list = new ArrayList<>();
-					list.add(new TreeNodeUserObject(packagePath, packagePath.replaceAll("/", ".")));
-					list.add(new TreeNodeUserObject(entry));
-					loadNodesByUserObj(top, list);
-				}
+	private LazyTreeNode projectTree(TreeBuilder treeBuilder, String topName) throws Exception {
+		int[] entryIds = treeBuilder.getEntryIds(luytenPrefs.isFilterOutInnerClassEntries());
+		TreeNodeUserObject topNodeUserObject = new TreeNodeUserObject(topName);
+		if (luytenPrefs.isPackageExplorerStyle())
+			return treeBuilder.buildFlatTree(topNodeUserObject, entryIds);
+		return treeBuilder.buildDirectoryTree(topNodeUserObject, entryIds);
+	}
+
+	/**
+	 * Keeps the expanded packages of each archive for the next tree
+	 */
+	private void saveTreeExpansionState() {
+		TreeUtil treeUtil = new TreeUtil(tree);
+		DefaultMutableTreeNode root = workspaceRoot;
+		if (root == null) {
+			if (entryTable != null) {
+				treeExpansionState = treeUtil.getExpansionState(entryTable);
 			}
+			return;
 		}
-
-		// the rest, not real packages but directories -> not flat
-		for (String packagePath : packages.keySet()) {
-			String packageRoot = packagePath.replaceAll("/.*$", "");
-			if (!classContainingPackageRoots.contains(packageRoot) &&
-					!packagePath.startsWith("META-INF") && packagePath.length() > 0) {
-				List<String> packagePathElements = Arrays.asList(packagePath.split("/"));
-				for (String entry : packages.get(packagePath)) {
-					ArrayList<String> list = new ArrayList<>(packagePathElements);
-					list.add(entry);
-					loadNodesByNames(top, list);
-				}
+		State currentState = state;
+		if (currentState != null && currentState.top != null) {
+			treeExpansionState = treeUtil.getExpansionState(new TreePath(new Object[] { root, currentState.top }),
+					currentState.treeBuilder.getEntryTable());
+		}
+		for (State addedState : addedStates) {
+			if (addedState.top != null) {
+				addedState.treeExpansionState = treeUtil.getExpansionState(
+						new TreePath(new Object[] { root, addedState.top }), addedState.treeBuilder.getEntryTable());
 			}
 		}
+	}
 
-		// the default package -> not flat
-		String packagePath = "";
-		if (packages.containsKey(packagePath)) {
-			for (String entry : packages.get(packagePath)) {
-				ArrayList<String> list = new ArrayList<>();
-				list.add(entry);
-				loadNodesByNames(top, list);
+	private void restoreTreeExpansionState() {
+		try {
+			TreeUtil treeUtil = new TreeUtil(tree);
+			DefaultMutableTreeNode root = workspaceRoot;
+			if (root == null) {
+				if (treeExpansionState != null) {
+					treeUtil.restoreExpanstionState(treeExpansionState);
+				}
+				return;
 			}
+			Map<TreePath, BitSet> expansionStates = new LinkedHashMap<>();
+			State currentState = state;
+			if (currentState != null && currentState.top != null) {
+				expansionStates.put(new TreePath(new Object[] { root, currentState.top }), treeExpansionState);
+			}
+			for (State addedState : addedStates) {
+				if (addedState.top != null) {
+					expansionStates.put(new TreePath(new Object[] { root, addedState.top }),
+							addedState.treeExpansionState);
+				}
+			}
+			treeUtil.restoreExpansionStates(expansionStates);
+		} catch (Exception exc) {
+			exc.printStackTrace();
 		}
-		tree.setModel(new DefaultTreeModel(top));
 	}
 
 	public void closeFile() {
+		DecompilationPrefetcher.getDefault().cancel();
+		SourceIndexBuilder.getDefault().cancel();
 		for (OpenFile co : hmap) {
 			int pos = house.indexOfTab(co.name);
 			if (pos >= 0)
@@ -817,12 +1323,19 @@ public class Model extends JSplitPane {
 		if (oldState != null) {
 			Closer.tryClose(oldState);
 		}
+		for (State addedState : addedStates) {
+			Closer.tryClose(addedState);
+		}
+		addedStates.clear();
+		workspaceRoot = null;
+		tree.setRootVisible(true);
 
 		hmap.clear();
 		tree.setModel(new DefaultTreeModel(null));
 		metadataSystem = new MetadataSystem(typeLoader);
 		file = null;
 		treeExpansionState = null;
+		entryTable = null;
 		open = false;
 		mainWindow.onFileLoadEnded(file, open);
 	}
@@ -842,6 +1355,102 @@ public class Model extends JSplitPane {
 		}
 	}
 
+	/**
+	 * The symbols of the archives of the workspace, those indexed so far
+	 * 
+	 * @return null while none is indexed or if no jar is open
+	 */
+	public synchronized SymbolIndex getSymbolIndex() {
+		List<SymbolIndex> symbolIndexes = new ArrayList<>();
+		for (State workspaceState : getWorkspaceStates()) {
+			if (workspaceState.symbolIndex != null) {
+				symbolIndexes.add(workspaceState.symbolIndex);
+			}
+		}
+		if (symbolIndexes.isEmpty())
+			return null;
+		// merged again only when the workspace changes
+		if (!symbolIndexes.equals(mergedSymbolIndexParts)) {
+			mergedSymbolIndex = SymbolIndex.merge(symbolIndexes);
+			mergedSymbolIndexParts = symbolIndexes;
+		}
+		return mergedSymbolIndex;
+	}
+
+	/**
+	 * @return true while an archive of the workspace is being indexed
+	 */
+	public boolean isSymbolIndexPending() {
+		for (State workspaceState : getWorkspaceStates()) {
+			if (workspaceState.symbolIndex == null && workspaceState.symbolIndexThread != null
+					&& workspaceState.symbolIndexThread.isAlive())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * In the archives of the workspace. Blocks while their cross reference
+	 * indexes are being built, call it off the EDT
+	 * 
+	 * @return empty if no jar is open
+	 */
+	public List<SymbolIndex.Symbol> findUsages(String uniqueStr) throws Exception {
+		List<CrossReferenceIndex> crossReferenceIndexes = new ArrayList<>();
+		for (State workspaceState : getWorkspaceStates()) {
+			if (workspaceState.archive != null) {
+				crossReferenceIndexes.add(workspaceState.getCrossReferenceIndex());
+			}
+		}
+		return CrossReferenceIndex.findUsages(crossReferenceIndexes, uniqueStr);
+	}
+
+	/**
+	 * Identifies what the open classes are resolved against, for
+	 * DecompilationCache: the archives of the workspace with their
+	 * dependencies. With one archive open it is the archive's id, as for
+	 * Find All and Save All.
+	 * 
+	 * @return null if nothing is open
+	 */
+	public String getDecompilationContextId() {
+		State currentState = state;
+		if (currentState == null) {
+			File openedFile = file;
+			return (openedFile != null && open) ? DecompilationCache.getArchiveId(openedFile) : null;
+		}
+		StringBuilder sb = new StringBuilder(currentState.getDecompilationContextId());
+		for (State addedState : addedStates) {
+			sb.append(';').append(addedState.getDecompilationContextId());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The part of getDecompilationContextId() that the open archive's own
+	 * classes do not change, for DecompilationDiskCache: its dependencies
+	 * and the other archives of the workspace. Empty with a bare archive
+	 * open, as for Find All and Save All.
+	 */
+	public String getDependenciesId() {
+		State currentState = state;
+		if (currentState == null)
+			return "";
+		String classpathId = currentState.classpathId;
+		StringBuilder sb = new StringBuilder((classpathId != null) ? "+" + classpathId : "");
+		for (State addedState : addedStates) {
+			sb.append(';').append(addedState.getDecompilationContextId());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Resolves the classes of the open archives and their dependencies
+	 */
+	public ITypeLoader getTypeLoader() {
+		return typeLoader;
+	}
+
 	public File getOpenedFile() {
 		File openedFile = null;
 		if (file != null && open) {
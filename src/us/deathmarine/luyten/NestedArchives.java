@@ -0,0 +1,264 @@
+package us.deathmarine.luyten;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * The archives stored in the open archive: the libraries of a Spring Boot
+ * jar (BOOT-INF/lib) or of a WAR (WEB-INF/lib), the modules of an EAR. Each
+ * one is opened on first use through a view of its entry (mapped if stored,
+ * inflated into memory if compressed), nothing is unpacked to disk. Their
+ * classes are listed in the background once the tree is shown (a stored one
+ * from its central directory, a compressed one by streaming through it) and
+ * registered in the index of the LuytenTypeLoader: a lookup goes to the
+ * archive that has the class only, an archive is opened on its first hit.
+ */
+public class NestedArchives {
+
+	private static final String[] ARCHIVE_EXTENSIONS = { ".jar", ".war", ".ear", ".zip" };
+
+	private final ZipArchive archive;
+	private final EntryTable table;
+	private final LuytenTypeLoader typeLoader;
+	// by path in the open archive, like "app.war/WEB-INF/lib/a.jar"
+	private final Map<String, Nested> openedArchives = new HashMap<>();
+	private final List<ITypeLoader> typeLoaders = new ArrayList<>();
+	private boolean isRegistered;
+	private boolean isClosed;
+
+	/**
+	 * Nothing is read until registerTypeLoaders()
+	 *
+	 * @param table
+	 *            the entries of the archive
+	 */
+	public NestedArchives(ZipArchive archive, EntryTable table, LuytenTypeLoader typeLoader) {
+		this.archive = archive;
+		this.table = table;
+		this.typeLoader = typeLoader;
+	}
+
+	/**
+	 * Lists the classes of the archives stored in the open one on a low
+	 * priority thread, once: their classes resolve when it is done
+	 */
+	public synchronized void registerTypeLoaders() {
+		if (isRegistered)
+			return;
+		isRegistered = true;
+		registerTypeLoadersLater(archive, "", table);
+	}
+
+	public static boolean isArchiveName(String name) {
+		for (String extension : ARCHIVE_EXTENSIONS) {
+			if (name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param path
+	 *            of a nested archive, like "BOOT-INF/lib/a.jar"
+	 * @return its listing, for its subtree
+	 */
+	public TreeBuilder getTreeBuilder(String path) throws IOException {
+		return open(path).treeBuilder;
+	}
+
+	/**
+	 * @param path
+	 *            of an entry, in the open archive or in a nested one:
+	 *            "BOOT-INF/lib/a.jar/com/acme/Model.class"
+	 * @return null if there is no such entry
+	 */
+	public Location find(String path) throws IOException {
+		return find(archive, "", path);
+	}
+
+	private Location find(ZipArchive current, String prefix, String path) throws IOException {
+		ZipArchive.Entry entry = current.getEntry(path);
+		if (entry != null)
+			return new Location(current, entry);
+		for (int slash = path.indexOf('/'); slash > 0; slash = path.indexOf('/', slash + 1)) {
+			String name = path.substring(0, slash);
+			if (isArchiveName(name) && current.getEntry(name) != null)
+				return find(open(prefix + name).archive, prefix + name + "/", path.substring(slash + 1));
+		}
+		return null;
+	}
+
+	private synchronized Nested open(String path) throws IOException {
+		Nested nested = openedArchives.get(path);
+		if (nested == null) {
+			Location location = find(path);
+			if (location == null)
+				throw new FileNotFoundException(path);
+			ZipArchive nestedArchive = location.archive.openNested(location.entry);
+			EntryTable table = EntryTable.build(nestedArchive);
+			nested = new Nested(nestedArchive, new TreeBuilder(table));
+			openedArchives.put(path, nested);
+			registerTypeLoadersLater(nestedArchive, path + "/", table);
+		}
+		return nested;
+	}
+
+	/**
+	 * @param current
+	 *            the archive the table lists, with prefix its path
+	 */
+	private void registerTypeLoadersLater(final ZipArchive current, final String prefix, final EntryTable table) {
+		boolean hasArchives = false;
+		for (int entryId = 0; entryId < table.getEntryCount() && !hasArchives; entryId++) {
+			hasArchives = isArchiveName(table.getSimpleName(entryId));
+		}
+		if (!hasArchives)
+			return;
+		Thread thread = new Thread("nested-archives") {
+			@Override
+			public void run() {
+				registerTypeLoaders(current, prefix, table);
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	private void registerTypeLoaders(ZipArchive current, String prefix, EntryTable table) {
+		for (int entryId = 0; entryId < table.getEntryCount(); entryId++) {
+			if (!isArchiveName(table.getSimpleName(entryId)))
+				continue;
+			String name = table.getName(entryId);
+			ZipArchive.Entry entry = current.getEntry(name);
+			if (entry == null)
+				continue;
+			Set<String> internalNames;
+			try {
+				internalNames = listInternalNames(current, entry);
+			} catch (Exception e) {
+				// not a zip after all, or closed meanwhile
+				continue;
+			}
+			synchronized (this) {
+				if (isClosed)
+					return;
+				NestedTypeLoader loader = new NestedTypeLoader(prefix + name, internalNames);
+				typeLoaders.add(loader);
+				typeLoader.addIndexedTypeLoader(loader, internalNames);
+			}
+		}
+	}
+
+	private static Set<String> listInternalNames(ZipArchive current, ZipArchive.Entry entry) throws IOException {
+		EntryTable table;
+		if (entry.getMethod() == ZipArchive.METHOD_STORED) {
+			// its central directory only, through a view of its entry: it
+			// is opened on its first expand or lookup
+			table = EntryTable.build(current.openNested(entry));
+		} else {
+			// inflated as a stream, nothing is kept but the names
+			table = new EntryTable();
+			try (ZipInputStream in = new ZipInputStream(current.getInputStream(entry))) {
+				for (ZipEntry zipEntry = in.getNextEntry(); zipEntry != null; zipEntry = in.getNextEntry()) {
+					if (!zipEntry.isDirectory()) {
+						table.add(zipEntry.getName());
+					}
+				}
+			}
+			table.trim();
+		}
+		return new HashSet<>(ZipArchiveTypeLoader.getInternalNames(table));
+	}
+
+	/**
+	 * Unregisters the type loaders
+	 */
+	public synchronized void close() {
+		isClosed = true;
+		typeLoader.removeIndexedTypeLoaders(typeLoaders);
+		typeLoaders.clear();
+		for (Nested nested : openedArchives.values()) {
+			Closer.tryClose(nested.archive);
+		}
+		openedArchives.clear();
+	}
+
+	/**
+	 * An entry and the archive it is in
+	 */
+	public static class Location {
+		private final ZipArchive archive;
+		private final ZipArchive.Entry entry;
+
+		private Location(ZipArchive archive, ZipArchive.Entry entry) {
+			this.archive = archive;
+			this.entry = entry;
+		}
+
+		public ZipArchive getArchive() {
+			return archive;
+		}
+
+		public ZipArchive.Entry getEntry() {
+			return entry;
+		}
+	}
+
+	private static class Nested {
+		private final ZipArchive archive;
+		private final TreeBuilder treeBuilder;
+
+		private Nested(ZipArchive archive, TreeBuilder treeBuilder) {
+			this.archive = archive;
+			this.treeBuilder = treeBuilder;
+		}
+	}
+
+	/**
+	 * Opens the nested archive on the first lookup of one of its classes
+	 */
+	private class NestedTypeLoader implements ITypeLoader {
+		private final String path;
+		private final Set<String> internalNames;
+		private ITypeLoader loader;
+		private boolean isFailed;
+
+		private NestedTypeLoader(String path, Set<String> internalNames) {
+			this.path = path;
+			this.internalNames = internalNames;
+		}
+
+		@Override
+		public boolean tryLoadType(String internalName, Buffer buffer) {
+			// the misses of the other loaders do not open it
+			if (!internalNames.contains(internalName))
+				return false;
+			ITypeLoader currentLoader = getLoader();
+			return currentLoader != null && currentLoader.tryLoadType(internalName, buffer);
+		}
+
+		private synchronized ITypeLoader getLoader() {
+			if (loader == null && !isFailed) {
+				try {
+					loader = new ZipArchiveTypeLoader(open(path).archive);
+				} catch (IOException e) {
+					// not a zip after all
+					isFailed = true;
+				}
+			}
+			return loader;
+		}
+	}
+}
@@ -3,9 +3,12 @@ package us.deathmarine.luyten;
 import java.awt.Cursor;
 import java.awt.Panel;
 import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
 import java.awt.event.InputEvent;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.io.StringWriter;
@@ -16,16 +19,21 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
+import javax.swing.JPopupMenu;
 import javax.swing.JScrollBar;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.event.HyperlinkEvent;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
 import org.fife.ui.rsyntaxtextarea.LinkGenerator;
 import org.fife.ui.rsyntaxtextarea.LinkGeneratorResult;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
 import org.fife.ui.rsyntaxtextarea.Theme;
 import org.fife.ui.rtextarea.RTextScrollPane;
+import com.strobel.assembler.metadata.ITypeLoader;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.decompiler.DecompilationOptions;
@@ -53,6 +61,8 @@ public class OpenFile implements SyntaxConstants {
 	private LinkProvider linkProvider;
 	private String initialNavigationLink;
 	private boolean isFirstTimeRun = true;
+	// text offset of the last mouse press, for the context menu
+	private volatile int popupOffset = -1;
 
 	MainWindow mainWindow;
 	RTextScrollPane scrollPane;
@@ -230,6 +240,59 @@ public class OpenFile implements SyntaxConstants {
 				return null;
 			}
 		});
+
+		addFindUsagesMenuItem();
+	}
+
+	/**
+	 * Find Usages in the context menu, for the link under the mouse or the
+	 * caret: references and definitions
+	 */
+	private void addFindUsagesMenuItem() {
+		JPopupMenu popupMenu = textArea.getPopupMenu();
+		if (popupMenu == null)
+			return;
+		final JMenuItem findUsagesItem = new JMenuItem("Find Usages");
+		findUsagesItem.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String uniqueStr = getUniqueStrForFindUsages();
+				if (uniqueStr != null) {
+					String description = getLinkDescription(uniqueStr);
+					mainWindow.onFindUsagesRequest(uniqueStr, (description != null) ? description : uniqueStr);
+				}
+			}
+		});
+		popupMenu.addSeparator();
+		popupMenu.add(findUsagesItem);
+		popupMenu.addPopupMenuListener(new PopupMenuListener() {
+			@Override
+			public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+				findUsagesItem.setEnabled(getUniqueStrForFindUsages() != null);
+			}
+
+			@Override
+			public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {}
+
+			@Override
+			public void popupMenuCanceled(PopupMenuEvent e) {}
+		});
+		textArea.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				popupOffset = textArea.viewToModel(e.getPoint());
+			}
+		});
+	}
+
+	private String getUniqueStrForFindUsages() {
+		if (!isNavigationLinksValid)
+			return null;
+		Selection selection = getSelectionForOffset((popupOffset >= 0) ? popupOffset : textArea.getCaretPosition());
+		if (selection == null) {
+			selection = getSelectionForOffset(textArea.getCaretPosition());
+		}
+		return (selection != null) ? selectionToUniqueStrTreeMap.get(selection) : null;
 	}
 
 	public void setContent(String content) {
@@ -238,13 +301,19 @@ public class OpenFile implements SyntaxConstants {
 
 	public void decompile() {
 		this.invalidateContent();
-		// synchronized: do not accept changes from menu while running
-		synchronized (settings) {
-			if (Languages.java().getName().equals(settings.getLanguage().getName())) {
-				decompileWithNavigationLinks();
-			} else {
-				decompileWithoutLinks();
+		// the prefetcher pauses meanwhile
+		DecompilationPrefetcher.getDefault().onForegroundStarted();
+		try {
+			// synchronized: do not accept changes from menu while running
+			synchronized (settings) {
+				if (Languages.java().getName().equals(settings.getLanguage().getName())) {
+					decompileWithNavigationLinks();
+				} else {
+					decompileWithoutLinks();
+				}
 			}
+		} finally {
+			DecompilationPrefetcher.getDefault().onForegroundEnded();
 		}
 	}
 
@@ -253,11 +322,26 @@ public class OpenFile implements SyntaxConstants {
 		isNavigationLinksValid = false;
 		textArea.setHyperlinksEnabled(false);
 
-		StringWriter stringwriter = new StringWriter();
-		PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
-		plainTextOutput.setUnicodeOutputEnabled(decompilationOptions.getSettings().isUnicodeOutputEnabled());
-		settings.getLanguage().decompileType(type, plainTextOutput, decompilationOptions);
-		setContentPreserveLastScrollPosition(stringwriter.toString());
+		String archiveId = mainWindow.getModel().getDecompilationContextId();
+		String settingsFingerprint = SettingsFingerprint.of(settings);
+		DecompilationCache cache = DecompilationCache.getDefault();
+		ITypeLoader typeLoader = mainWindow.getModel().getTypeLoader();
+		String dependenciesId = mainWindow.getModel().getDependenciesId();
+		DecompilationCache.Result cached = (archiveId != null)
+				? cache.get(archiveId, type.getInternalName(), settingsFingerprint, typeLoader, dependenciesId)
+				: null;
+		if (cached == null) {
+			StringWriter stringwriter = new StringWriter();
+			PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
+			plainTextOutput.setUnicodeOutputEnabled(decompilationOptions.getSettings().isUnicodeOutputEnabled());
+			settings.getLanguage().decompileType(type, plainTextOutput, decompilationOptions);
+			cached = new DecompilationCache.Result(stringwriter.toString());
+			if (archiveId != null) {
+				cache.put(archiveId, type.getInternalName(), settingsFingerprint, typeLoader, dependenciesId,
+						cached);
+			}
+		}
+		setContentPreserveLastScrollPosition(cached.getText());
 		this.isContentValid = true;
 	}
 
@@ -268,10 +352,29 @@ public class OpenFile implements SyntaxConstants {
 		newLinkProvider.setType(type);
 		linkProvider = newLinkProvider;
 
-		linkProvider.generateContent();
+		// reopened tabs and classes seen by Find All are not decompiled again
+		String archiveId = mainWindow.getModel().getDecompilationContextId();
+		String settingsFingerprint = SettingsFingerprint.of(settings);
+		DecompilationCache cache = DecompilationCache.getDefault();
+		ITypeLoader typeLoader = mainWindow.getModel().getTypeLoader();
+		String dependenciesId = mainWindow.getModel().getDependenciesId();
+		DecompilationCache.Result cached = (archiveId != null)
+				? cache.get(archiveId, type.getInternalName(), settingsFingerprint, typeLoader, dependenciesId)
+				: null;
+		if (cached != null && cached.hasLinks()) {
+			newLinkProvider.setContent(cached);
+		} else {
+			newLinkProvider.generateContent();
+			if (archiveId != null) {
+				cache.put(archiveId, type.getInternalName(), settingsFingerprint, typeLoader, dependenciesId,
+						newLinkProvider.getResult());
+			}
+		}
 		setContentPreserveLastScrollPosition(linkProvider.getTextContent());
 		this.isContentValid = true;
 		enableLinks();
+		// the neighbours and the classes it refers to, likely opened next
+		mainWindow.getModel().prefetchAround(type.getInternalName(), linkProvider.getReferenceToSelectionsMap());
 	}
 
 	private void setContentPreserveLastScrollPosition(final String content) {
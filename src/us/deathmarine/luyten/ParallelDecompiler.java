@@ -0,0 +1,165 @@
+package us.deathmarine.luyten;
+
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+import com.strobel.assembler.metadata.TypeReference;
+import com.strobel.decompiler.DecompilationOptions;
+import com.strobel.decompiler.DecompilerSettings;
+import com.strobel.decompiler.PlainTextOutput;
+
+/**
+ * Worker pool for decompiling the types of one jar on several cores.
+ * MetadataSystem is not thread safe: every worker thread resolves types
+ * through its own LuytenTypeLoader and MetadataSystem.
+ */
+public class ParallelDecompiler implements AutoCloseable {
+
+	private final ZipArchive archive;
+	private final DecompilerSettings settings;
+	private final ExecutorService executor;
+	private DecompilationCache cache;
+	private String archiveId;
+	private String settingsFingerprint;
+	private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+		@Override
+		protected Worker initialValue() {
+			return new Worker();
+		}
+	};
+
+	/**
+	 * @param settings
+	 *            should be a private copy, it is read by all workers without
+	 *            synchronization
+	 */
+	public ParallelDecompiler(ZipArchive archive, DecompilerSettings settings, int threadCount) {
+		this(archive, settings, threadCount, Thread.NORM_PRIORITY);
+	}
+
+	/**
+	 * @param threadPriority
+	 *            of the workers, Thread.MIN_PRIORITY for background work
+	 */
+	public ParallelDecompiler(ZipArchive archive, DecompilerSettings settings, int threadCount, int threadPriority) {
+		this.archive = archive;
+		this.settings = settings;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new WorkerThreadFactory(
+				threadPriority));
+	}
+
+	/**
+	 * Thread count from the preferences, 0 means one worker per core
+	 */
+	public static int getPreferredThreadCount() {
+		int threadCount = ConfigSaver.getLoadedInstance().getLuytenPreferences().getDecompilerThreadCount();
+		if (threadCount <= 0) {
+			threadCount = Runtime.getRuntime().availableProcessors();
+		}
+		return threadCount;
+	}
+
+	/**
+	 * Decompiled texts are looked up in and added to the cache, archiveId
+	 * from DecompilationCache.getArchiveId of the archive's file
+	 */
+	public void setCache(DecompilationCache cache, String archiveId) {
+		this.cache = cache;
+		this.archiveId = archiveId;
+		this.settingsFingerprint = SettingsFingerprint.of(settings);
+	}
+
+	public Future<String> submit(final String internalName) {
+		return executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return decompileType(internalName);
+			}
+		});
+	}
+
+	public <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Call from a task running on this pool only
+	 */
+	public String decompileType(String internalName) throws Exception {
+		return workers.get().decompileType(internalName);
+	}
+
+	public DecompilerSettings getSettings() {
+		return settings;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private class Worker {
+		private final LuytenTypeLoader typeLoader;
+		private final MetadataSystem metadataSystem;
+		private final DecompilationOptions decompilationOptions;
+
+		private Worker() {
+			typeLoader = new LuytenTypeLoader();
+			typeLoader.getTypeLoaders().add(new ZipArchiveTypeLoader(archive));
+			metadataSystem = new MetadataSystem(typeLoader);
+			decompilationOptions = new DecompilationOptions();
+			decompilationOptions.setSettings(settings);
+			decompilationOptions.setFullDecompilation(true);
+		}
+
+		private String decompileType(String internalName) throws Exception {
+			if (cache != null) {
+				// Save All does not fill the disk cache, it reads it; only
+				// the archive is resolved against
+				DecompilationCache.Result cached = cache.get(archiveId, internalName, settingsFingerprint,
+						typeLoader, "");
+				if (cached != null)
+					return cached.getText();
+			}
+			TypeReference type = metadataSystem.lookupType(internalName);
+			TypeDefinition resolvedType = null;
+			if ((type == null) || ((resolvedType = type.resolve()) == null)) {
+				throw new Exception("Unable to resolve type: " + internalName);
+			}
+			StringWriter stringwriter = new StringWriter();
+			PlainTextOutput plainTextOutput = new PlainTextOutput(stringwriter);
+			plainTextOutput.setUnicodeOutputEnabled(settings.isUnicodeOutputEnabled());
+			settings.getLanguage().decompileType(resolvedType, plainTextOutput, decompilationOptions);
+			String decompiledSource = stringwriter.toString();
+			if (cache != null) {
+				cache.put(archiveId, internalName, settingsFingerprint, new DecompilationCache.Result(decompiledSource));
+			}
+			return decompiledSource;
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private static final AtomicInteger poolCount = new AtomicInteger();
+		private final AtomicInteger threadCount = new AtomicInteger();
+		private final int poolNumber = poolCount.incrementAndGet();
+		private final int threadPriority;
+
+		private WorkerThreadFactory(int threadPriority) {
+			this.threadPriority = threadPriority;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "decompiler-" + poolNumber + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(threadPriority);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The packages of the jars found for ClasspathResolver (mostly those of the
+ * local Maven repository), so that a dependency is routed to without being
+ * opened: a jar is only listed once, until its size or modification time
+ * changes. Stored in ~/.luyten/classpath.
+ */
+public class RepositoryIndex {
+
+	private static final int MAGIC = 0x4C59434C;
+	private static final int VERSION = 1;
+	private static final String INDEX_DIRECTORY = "classpath";
+	private static final String INDEX_FILE_NAME = "repository.idx";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File file;
+	// by absolute path
+	private final Map<String, Jar> jars = new HashMap<>();
+	private boolean isLoaded;
+	private boolean isChanged;
+
+	public RepositoryIndex(File file) {
+		this.file = file;
+	}
+
+	public static File getDefaultFile() {
+		return new File(ConfigSaver.getConfigDirectory(INDEX_DIRECTORY), INDEX_FILE_NAME);
+	}
+
+	/**
+	 * @return the packages holding classes, like "org/slf4j", "" for the
+	 *         default package
+	 */
+	public synchronized String[] getPackages(File jarFile) throws IOException {
+		load();
+		String path = jarFile.getAbsolutePath();
+		Jar jar = jars.get(path);
+		if (jar == null || jar.length != jarFile.length() || jar.lastModified != jarFile.lastModified()) {
+			jar = new Jar(jarFile.length(), jarFile.lastModified(), listPackages(jarFile));
+			jars.put(path, jar);
+			isChanged = true;
+		}
+		return jar.packages;
+	}
+
+	private static String[] listPackages(File jarFile) throws IOException {
+		try (ZipArchive archive = new ZipArchive(jarFile)) {
+			EntryTable table = EntryTable.build(archive);
+			BitSet packageIds = new BitSet(table.getPackageCount());
+			for (int entryId = 0; entryId < table.getEntryCount(); entryId++) {
+				if (table.getSimpleName(entryId).endsWith(".class")) {
+					packageIds.set(table.getPackage(entryId));
+				}
+			}
+			String[] packages = new String[packageIds.cardinality()];
+			int i = 0;
+			for (int packageId = packageIds.nextSetBit(0); packageId >= 0; packageId = packageIds
+					.nextSetBit(packageId + 1)) {
+				packages[i++] = table.getPackagePath(packageId);
+			}
+			return packages;
+		}
+	}
+
+	/**
+	 * Writes the jars listed since it was loaded, the deleted ones are left
+	 * out
+	 */
+	public synchronized void save() throws IOException {
+		if (!isChanged)
+			return;
+		for (Iterator<String> paths = jars.keySet().iterator(); paths.hasNext();) {
+			if (!new File(paths.next()).isFile()) {
+				paths.remove();
+			}
+		}
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(jars.size());
+			for (Map.Entry<String, Jar> entry : jars.entrySet()) {
+				Jar jar = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(jar.length);
+				out.writeLong(jar.lastModified);
+				out.writeInt(jar.packages.length);
+				for (String packagePath : jar.packages) {
+					out.writeUTF(packagePath);
+				}
+			}
+		}
+		file.delete();
+		if (!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Cannot write " + file);
+		}
+		isChanged = false;
+	}
+
+	private void load() {
+		if (isLoaded)
+			return;
+		isLoaded = true;
+		if (!file.isFile())
+			return;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unknown index format: " + file);
+			int jarCount = in.readInt();
+			for (int i = 0; i < jarCount; i++) {
+				String path = in.readUTF();
+				long length = in.readLong();
+				long lastModified = in.readLong();
+				String[] packages = new String[in.readInt()];
+				for (int j = 0; j < packages.length; j++) {
+					packages[j] = in.readUTF();
+				}
+				jars.put(path, new Jar(length, lastModified, packages));
+			}
+		} catch (Exception e) {
+			// broken or old format: the jars are listed again
+			e.printStackTrace();
+			jars.clear();
+		}
+	}
+
+	private static class Jar {
+		private final long length;
+		private final long lastModified;
+		private final String[] packages;
+
+		private Jar(long length, long lastModified, String[] packages) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.packages = packages;
+		}
+	}
+}
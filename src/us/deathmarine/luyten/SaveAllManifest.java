@@ -0,0 +1,93 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Written next to a Save All zip: the settings fingerprint and a hash of the
+ * class entries behind every .java entry. The next Save All into the same
+ * file decompiles only the classes whose hash changed.
+ */
+public class SaveAllManifest {
+
+	private static final String SUFFIX = ".manifest";
+	private static final String SETTINGS_KEY = "settings";
+	private static final String CLASS_KEY_PREFIX = "java:";
+
+	private final Properties properties = new Properties();
+
+	public SaveAllManifest(String settingsFingerprint) {
+		properties.setProperty(SETTINGS_KEY, settingsFingerprint);
+	}
+
+	public static File getManifestFile(File outFile) {
+		return new File(outFile.getPath() + SUFFIX);
+	}
+
+	/**
+	 * @return null if there is no readable manifest for the zip
+	 */
+	public static SaveAllManifest load(File outFile) {
+		File manifestFile = getManifestFile(outFile);
+		if (!outFile.isFile() || !manifestFile.isFile())
+			return null;
+		try (InputStream in = new BufferedInputStream(new FileInputStream(manifestFile))) {
+			SaveAllManifest manifest = new SaveAllManifest("");
+			manifest.properties.load(in);
+			return manifest;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public void save(File outFile) throws Exception {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(getManifestFile(outFile)))) {
+			properties.store(out, "Luyten Save All");
+		}
+	}
+
+	public String getSettingsFingerprint() {
+		return properties.getProperty(SETTINGS_KEY);
+	}
+
+	public String getClassHash(String javaEntryName) {
+		return properties.getProperty(CLASS_KEY_PREFIX + javaEntryName);
+	}
+
+	public void putClassHash(String javaEntryName, String hash) {
+		properties.setProperty(CLASS_KEY_PREFIX + javaEntryName, hash);
+	}
+
+	/**
+	 * Hash of a class entry and its nested class entries (they are all
+	 * decompiled into the same .java)
+	 *
+	 * @param classEntries
+	 *            all .class entries of the archive by name
+	 */
+	public static String getClassHash(ZipArchive.Entry classEntry, TreeMap<String, ZipArchive.Entry> classEntries) {
+		StringBuilder sb = new StringBuilder();
+		appendEntry(sb, classEntry);
+		String nestedPrefix = classEntry.getName().substring(0, classEntry.getName().length() - ".class".length()) + "$";
+		SortedMap<String, ZipArchive.Entry> nestedEntries = classEntries.subMap(nestedPrefix, nestedPrefix + Character.MAX_VALUE);
+		for (Map.Entry<String, ZipArchive.Entry> nested : nestedEntries.entrySet()) {
+			appendEntry(sb, nested.getValue());
+		}
+		return SettingsFingerprint.md5Hex(sb.toString());
+	}
+
+	private static void appendEntry(StringBuilder sb, ZipArchive.Entry entry) {
+		sb.append(entry.getName()).append(':').append(Long.toHexString(entry.getCrc())).append(':')
+				.append(entry.getSize()).append(';');
+	}
+}
@@ -0,0 +1,61 @@
+package us.deathmarine.luyten;
+
+import java.security.MessageDigest;
+import com.strobel.decompiler.DecompilerSettings;
+
+/**
+ * Identifies the decompiler output: same fingerprint, same decompiled text
+ * for the same class bytes
+ */
+public class SettingsFingerprint {
+
+	private SettingsFingerprint() {}
+
+	public static String of(DecompilerSettings settings) {
+		StringBuilder sb = new StringBuilder();
+		// synchronized: against main menu changes
+		synchronized (settings) {
+			sb.append("procyon=").append(getProcyonVersion()).append(';');
+			sb.append("language=").append(settings.getLanguage().getName()).append(';');
+			sb.append("excludeNestedTypes=").append(settings.getExcludeNestedTypes()).append(';');
+			sb.append("flattenSwitchBlocks=").append(settings.getFlattenSwitchBlocks()).append(';');
+			sb.append("forceExplicitImports=").append(settings.getForceExplicitImports()).append(';');
+			sb.append("forceExplicitTypeArguments=").append(settings.getForceExplicitTypeArguments()).append(';');
+			sb.append("outputFileHeaderText=").append(settings.getOutputFileHeaderText()).append(';');
+			sb.append("showSyntheticMembers=").append(settings.getShowSyntheticMembers()).append(';');
+			sb.append("alwaysGenerateExceptionVariableForCatchBlocks=")
+					.append(settings.getAlwaysGenerateExceptionVariableForCatchBlocks()).append(';');
+			sb.append("retainRedundantCasts=").append(settings.getRetainRedundantCasts()).append(';');
+			sb.append("includeErrorDiagnostics=").append(settings.getIncludeErrorDiagnostics()).append(';');
+			sb.append("includeLineNumbersInBytecode=").append(settings.getIncludeLineNumbersInBytecode()).append(';');
+			sb.append("retainPointlessSwitches=").append(settings.getRetainPointlessSwitches()).append(';');
+			sb.append("unicodeOutputEnabled=").append(settings.isUnicodeOutputEnabled()).append(';');
+			sb.append("mergeVariables=").append(settings.getMergeVariables()).append(';');
+			sb.append("showDebugLineNumbers=").append(settings.getShowDebugLineNumbers()).append(';');
+		}
+		return md5Hex(sb.toString());
+	}
+
+	public static String getProcyonVersion() {
+		Package procyonPackage = DecompilerSettings.class.getPackage();
+		String version = (procyonPackage != null) ? procyonPackage.getImplementationVersion() : null;
+		return (version != null) ? version : "unknown";
+	}
+
+	public static String md5Hex(String text) {
+		try {
+			return toHex(MessageDigest.getInstance("MD5").digest(text.getBytes("UTF-8")));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,430 @@
+package us.deathmarine.luyten;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Full-text index of the decompiled sources of a jar for Find All. A
+ * trigram -> class list index narrows a query down to the candidate
+ * classes, only their (lowercased, deflated) sources are read back and
+ * checked. Stored under ~/.luyten/index, keyed by the jar's path, size and
+ * modification time and by the decompiler settings.
+ */
+public class SourceIndex implements AutoCloseable {
+
+	private static final int MAGIC = 0x4C594958;
+	private static final int VERSION = 1;
+	private static final String INDEX_DIRECTORY = "index";
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final String SOURCES_SUFFIX = ".src";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final String[] entryNames;
+	private final long[] sourceOffsets;
+	private final int[] sourceLengths;
+	private final int[] sourceSizes;
+	// sorted trigram keys, their class lists are varint coded id gaps
+	private final long[] trigrams;
+	private final long[] postingsOffsets;
+	private final int[] postingsLengths;
+	private final long postingsStart;
+	private final RandomAccessFile indexFile;
+	private final RandomAccessFile sourcesFile;
+
+	private SourceIndex(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unknown index format: " + file);
+			int entryCount = in.readInt();
+			entryNames = new String[entryCount];
+			sourceOffsets = new long[entryCount];
+			sourceLengths = new int[entryCount];
+			sourceSizes = new int[entryCount];
+			long position = 12;
+			for (int i = 0; i < entryCount; i++) {
+				entryNames[i] = in.readUTF();
+				sourceOffsets[i] = in.readLong();
+				sourceLengths[i] = in.readInt();
+				sourceSizes[i] = in.readInt();
+				// readUTF: 2 bytes length + modified UTF-8 bytes
+				position += 2 + getUtfLength(entryNames[i]) + 16;
+			}
+			int trigramCount = in.readInt();
+			trigrams = new long[trigramCount];
+			postingsOffsets = new long[trigramCount];
+			postingsLengths = new int[trigramCount];
+			long postingsOffset = 0;
+			for (int i = 0; i < trigramCount; i++) {
+				trigrams[i] = in.readLong();
+				postingsOffsets[i] = postingsOffset;
+				postingsLengths[i] = in.readInt();
+				postingsOffset += postingsLengths[i];
+			}
+			postingsStart = position + 4 + trigramCount * 12L;
+		}
+		indexFile = new RandomAccessFile(file, "r");
+		try {
+			sourcesFile = new RandomAccessFile(getSourcesFile(file), "r");
+		} catch (IOException e) {
+			Closer.tryClose(indexFile);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return null if the jar is not indexed with these settings yet
+	 */
+	public static SourceIndex open(File jarFile, String settingsFingerprint) {
+		if (!isIndexed(jarFile, settingsFingerprint))
+			return null;
+		File file = getIndexFile(jarFile, settingsFingerprint);
+		try {
+			return new SourceIndex(file);
+		} catch (Exception e) {
+			// broken or old format: will be rebuilt
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static boolean isIndexed(File jarFile, String settingsFingerprint) {
+		File file = getIndexFile(jarFile, settingsFingerprint);
+		return file.isFile() && getSourcesFile(file).isFile();
+	}
+
+	public static File getIndexFile(File jarFile, String settingsFingerprint) {
+		String path;
+		try {
+			path = jarFile.getCanonicalPath();
+		} catch (IOException e) {
+			path = jarFile.getAbsolutePath();
+		}
+		String version = jarFile.length() + ":" + jarFile.lastModified() + ":" + settingsFingerprint;
+		return new File(ConfigSaver.getConfigDirectory(INDEX_DIRECTORY), SettingsFingerprint.md5Hex(path) + "-"
+				+ SettingsFingerprint.md5Hex(version) + INDEX_SUFFIX);
+	}
+
+	private static File getSourcesFile(File indexFile) {
+		String path = indexFile.getPath();
+		return new File(path.substring(0, path.length() - INDEX_SUFFIX.length()) + SOURCES_SUFFIX);
+	}
+
+	public int getEntryCount() {
+		return entryNames.length;
+	}
+
+	/**
+	 * Case insensitive, same as String.contains on the lowercased sources
+	 *
+	 * @return the matching .class entry names in jar order
+	 */
+	public synchronized List<String> find(String text) throws IOException {
+		String query = text.toLowerCase();
+		List<String> result = new ArrayList<>();
+		int[] candidates = getCandidates(query);
+		Inflater inflater = new Inflater();
+		try {
+			for (int id : candidates) {
+				if (readSource(id, inflater).contains(query)) {
+					result.add(entryNames[id]);
+				}
+			}
+		} finally {
+			inflater.end();
+		}
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		Closer.tryClose(indexFile);
+		sourcesFile.close();
+	}
+
+	private int[] getCandidates(String query) throws IOException {
+		int[] candidates = null;
+		if (query.length() >= 3) {
+			// intersect the shortest lists first
+			long[] keys = new long[query.length() - 2];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = trigram(query.charAt(i), query.charAt(i + 1), query.charAt(i + 2));
+			}
+			int[] slots = new int[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				slots[i] = Arrays.binarySearch(trigrams, keys[i]);
+				if (slots[i] < 0)
+					return new int[0];
+			}
+			Integer[] order = new Integer[slots.length];
+			for (int i = 0; i < slots.length; i++) {
+				order[i] = slots[i];
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					int result = Integer.compare(postingsLengths[o1], postingsLengths[o2]);
+					return (result != 0) ? result : Integer.compare(o1, o2);
+				}
+			});
+			int previousSlot = -1;
+			for (int slot : order) {
+				// repeated trigrams
+				if (slot == previousSlot)
+					continue;
+				previousSlot = slot;
+				int[] postings = readPostings(slot);
+				candidates = (candidates == null) ? postings : intersect(candidates, postings);
+				if (candidates.length == 0)
+					break;
+			}
+		}
+		if (candidates == null) {
+			// too short for trigrams: every class
+			candidates = new int[entryNames.length];
+			for (int i = 0; i < candidates.length; i++) {
+				candidates[i] = i;
+			}
+		}
+		return candidates;
+	}
+
+	private int[] readPostings(int slot) throws IOException {
+		byte[] data = new byte[postingsLengths[slot]];
+		indexFile.seek(postingsStart + postingsOffsets[slot]);
+		indexFile.readFully(data);
+		int[] postings = new int[data.length];
+		int count = 0;
+		int id = -1;
+		int pos = 0;
+		while (pos < data.length) {
+			int gap = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[pos++];
+				gap |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			id += gap;
+			postings[count++] = id;
+		}
+		return Arrays.copyOf(postings, count);
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[count++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private String readSource(int id, Inflater inflater) throws IOException {
+		byte[] compressed = new byte[sourceLengths[id]];
+		sourcesFile.seek(sourceOffsets[id]);
+		sourcesFile.readFully(compressed);
+		byte[] content = new byte[sourceSizes[id]];
+		inflater.reset();
+		inflater.setInput(compressed);
+		try {
+			int length = 0;
+			while (length < content.length && !inflater.finished()) {
+				int count = inflater.inflate(content, length, content.length - length);
+				if (count == 0 && inflater.needsInput())
+					break;
+				length += count;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Broken index: " + entryNames[id], e);
+		}
+		return new String(content, ZipArchive.UTF8);
+	}
+
+	private static long trigram(char c1, char c2, char c3) {
+		return ((long) c1 << 32) | ((long) c2 << 16) | c3;
+	}
+
+	private static int getUtfLength(String s) {
+		int length = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length++;
+			} else if (c <= 0x07FF) {
+				length += 2;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Collects the decompiled classes of a jar in jar order. Nothing is
+	 * visible to open() before commit(), closing without commit throws the
+	 * files away.
+	 */
+	public static class Writer implements AutoCloseable {
+		private final File indexFile;
+		private final File tempIndexFile;
+		private final File tempSourcesFile;
+		private final DataOutputStream sources;
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private final List<String> entryNames = new ArrayList<>();
+		private final List<long[]> sourceLocations = new ArrayList<>();
+		private final Map<Long, Postings> postingsByTrigram = new HashMap<>();
+		private byte[] buffer = new byte[8192];
+		private long sourcesLength;
+		private boolean committed;
+
+		public Writer(File jarFile, String settingsFingerprint) throws IOException {
+			indexFile = getIndexFile(jarFile, settingsFingerprint);
+			tempIndexFile = new File(indexFile.getPath() + TEMP_SUFFIX);
+			tempSourcesFile = new File(getSourcesFile(indexFile).getPath() + TEMP_SUFFIX);
+			sources = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempSourcesFile)));
+		}
+
+		public void add(String entryName, String source) throws IOException {
+			String text = source.toLowerCase();
+			int id = entryNames.size();
+			for (int i = 0; i + 2 < text.length(); i++) {
+				Long key = trigram(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2));
+				Postings postings = postingsByTrigram.get(key);
+				if (postings == null) {
+					postings = new Postings();
+					postingsByTrigram.put(key, postings);
+				}
+				postings.add(id);
+			}
+
+			byte[] content = text.getBytes(ZipArchive.UTF8);
+			deflater.reset();
+			deflater.setInput(content);
+			deflater.finish();
+			long offset = sourcesLength;
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				sources.write(buffer, 0, count);
+				sourcesLength += count;
+			}
+			entryNames.add(entryName);
+			sourceLocations.add(new long[] { offset, sourcesLength - offset, content.length });
+		}
+
+		public void commit() throws IOException {
+			sources.close();
+			long[] keys = new long[postingsByTrigram.size()];
+			int i = 0;
+			for (Long key : postingsByTrigram.keySet()) {
+				keys[i++] = key;
+			}
+			Arrays.sort(keys);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+					tempIndexFile)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(entryNames.size());
+				for (int id = 0; id < entryNames.size(); id++) {
+					long[] location = sourceLocations.get(id);
+					out.writeUTF(entryNames.get(id));
+					out.writeLong(location[0]);
+					out.writeInt((int) location[1]);
+					out.writeInt((int) location[2]);
+				}
+				out.writeInt(keys.length);
+				for (long key : keys) {
+					out.writeLong(key);
+					out.writeInt(postingsByTrigram.get(key).length);
+				}
+				for (long key : keys) {
+					Postings postings = postingsByTrigram.get(key);
+					out.write(postings.data, 0, postings.length);
+				}
+			}
+			deleteOutdatedIndexes();
+			File sourcesFile = getSourcesFile(indexFile);
+			sourcesFile.delete();
+			indexFile.delete();
+			if (!tempSourcesFile.renameTo(sourcesFile) || !tempIndexFile.renameTo(indexFile))
+				throw new IOException("Cannot rename index file: " + indexFile);
+			committed = true;
+		}
+
+		@Override
+		public void close() {
+			deflater.end();
+			if (!committed) {
+				Closer.tryClose(sources);
+				tempSourcesFile.delete();
+				tempIndexFile.delete();
+			}
+		}
+
+		/**
+		 * Older versions of the same jar or other settings
+		 */
+		private void deleteOutdatedIndexes() {
+			String name = indexFile.getName();
+			String pathPrefix = name.substring(0, name.indexOf('-') + 1);
+			File[] files = indexFile.getParentFile().listFiles();
+			if (files == null)
+				return;
+			for (File file : files) {
+				if (file.getName().startsWith(pathPrefix) && !file.getName().endsWith(TEMP_SUFFIX)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Growing list of ascending class ids, varint coded gaps
+	 */
+	private static class Postings {
+		private byte[] data = new byte[4];
+		private int length;
+		private int lastId = -1;
+
+		private void add(int id) {
+			if (id == lastId)
+				return;
+			int gap = id - lastId;
+			lastId = id;
+			if (length + 5 > data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			while ((gap & ~0x7f) != 0) {
+				data[length++] = (byte) ((gap & 0x7f) | 0x80);
+				gap >>>= 7;
+			}
+			data[length++] = (byte) gap;
+		}
+	}
+}
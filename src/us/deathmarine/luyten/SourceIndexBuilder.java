@@ -0,0 +1,215 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.strobel.core.StringUtilities;
+import com.strobel.decompiler.DecompilerSettings;
+
+/**
+ * Builds the SourceIndex of the opened jar in the background, on low
+ * priority workers, so that Find All can search it. One build at a time: a
+ * build for another jar or other settings replaces the running one. A search
+ * that is cancelled stops waiting, the build goes on.
+ */
+public class SourceIndexBuilder {
+
+	private static SourceIndexBuilder defaultBuilder;
+
+	private Build current;
+
+	public static synchronized SourceIndexBuilder getDefault() {
+		if (defaultBuilder == null) {
+			defaultBuilder = new SourceIndexBuilder();
+		}
+		return defaultBuilder;
+	}
+
+	/**
+	 * Starts indexing the jar unless it is indexed or being indexed
+	 *
+	 * @param settings
+	 *            should be a private copy, it is read by the workers without
+	 *            synchronization
+	 * @return the running or finished build
+	 */
+	public synchronized Build start(File jarFile, DecompilerSettings settings) {
+		File indexFile = SourceIndex.getIndexFile(jarFile, SettingsFingerprint.of(settings));
+		if (current != null && current.indexFile.equals(indexFile)) {
+			// a failed build is not tried again on every search, only once
+			// the settings or the jar change: both are part of the index file
+			if (current.state != Build.CANCELLED)
+				return current;
+		}
+		cancel();
+		current = new Build(jarFile, settings, indexFile);
+		if (SourceIndex.isIndexed(jarFile, current.settingsFingerprint)) {
+			current.finish(Build.COMMITTED);
+		} else {
+			current.start();
+		}
+		return current;
+	}
+
+	/**
+	 * The file was closed
+	 */
+	public synchronized void cancel() {
+		if (current != null) {
+			current.cancel();
+			current = null;
+		}
+	}
+
+	public static class Build extends Thread {
+		public static final int RUNNING = 0;
+		public static final int COMMITTED = 1;
+		// the jar or the index could not be read or written: nothing is
+		// committed
+		public static final int FAILED = 2;
+		public static final int CANCELLED = 3;
+
+		private final File jarFile;
+		private final DecompilerSettings settings;
+		private final String settingsFingerprint;
+		private final File indexFile;
+		private volatile int state = RUNNING;
+		private volatile int classCount = -1;
+		private volatile int indexedCount;
+
+		private Build(File jarFile, DecompilerSettings settings, File indexFile) {
+			super("source-index");
+			this.jarFile = jarFile;
+			this.settings = settings;
+			this.settingsFingerprint = SettingsFingerprint.of(settings);
+			this.indexFile = indexFile;
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+		public int getBuildState() {
+			return state;
+		}
+
+		/**
+		 * @return -1 until the jar is listed
+		 */
+		public int getClassCount() {
+			return classCount;
+		}
+
+		public int getIndexedCount() {
+			return indexedCount;
+		}
+
+		/**
+		 * @return false if it is still running after the timeout
+		 */
+		public boolean await(long millis) throws InterruptedException {
+			synchronized (this) {
+				if (state == RUNNING) {
+					wait(millis);
+				}
+				return state != RUNNING;
+			}
+		}
+
+		@Override
+		public void run() {
+			int result = FAILED;
+			try {
+				result = build() ? COMMITTED : FAILED;
+			} catch (InterruptedException e) {
+				// cancelled
+			} catch (Exception e) {
+				e.printStackTrace();
+			} finally {
+				finish(isInterrupted() ? CANCELLED : result);
+			}
+		}
+
+		private void cancel() {
+			interrupt();
+			finish(CANCELLED);
+		}
+
+		private synchronized void finish(int newState) {
+			if (state == RUNNING) {
+				state = newState;
+			}
+			notifyAll();
+		}
+
+		/**
+		 * A class that does not decompile is indexed without text, the
+		 * fallback scan would not match it either
+		 *
+		 * @return false if it was cancelled
+		 */
+		private boolean build() throws Exception {
+			int threadCount = ParallelDecompiler.getPreferredThreadCount();
+			// not through DecompilationCache: a whole jar would push the
+			// viewed classes out of it
+			try (ZipArchive archive = new ZipArchive(jarFile);
+					final ParallelDecompiler decompiler = new ParallelDecompiler(archive, settings, threadCount,
+							Thread.MIN_PRIORITY);
+					SourceIndex.Writer indexWriter = new SourceIndex.Writer(jarFile, settingsFingerprint);) {
+				List<ZipArchive.Entry> entries = archive.getEntries();
+				int count = 0;
+				for (ZipArchive.Entry entry : entries) {
+					if (entry.getName().endsWith(".class")) {
+						count++;
+					}
+				}
+				classCount = count;
+
+				int maxPendingCount = threadCount * 4;
+				LinkedList<PendingClass> pending = new LinkedList<>();
+				for (int i = 0; i <= entries.size(); i++) {
+					if (isInterrupted())
+						return false;
+					if (i < entries.size()) {
+						final String entryName = entries.get(i).getName();
+						if (!entryName.endsWith(".class"))
+							continue;
+						pending.add(new PendingClass(entryName, decompiler.submit(new Callable<String>() {
+							@Override
+							public String call() throws Exception {
+								return decompiler.decompileType(StringUtilities.removeRight(entryName, ".class"));
+							}
+						})));
+					}
+					// the last round drains the window
+					int maxPending = (i < entries.size()) ? maxPendingCount : 0;
+					while (pending.size() > maxPending) {
+						PendingClass next = pending.removeFirst();
+						String source = null;
+						try {
+							source = next.source.get();
+						} catch (ExecutionException e) {
+							e.getCause().printStackTrace();
+						}
+						indexWriter.add(next.entryName, (source == null) ? "" : source);
+						indexedCount++;
+					}
+				}
+				indexWriter.commit();
+				return true;
+			}
+		}
+	}
+
+	private static class PendingClass {
+		private final String entryName;
+		private final Future<String> source;
+
+		private PendingClass(String entryName, Future<String> source) {
+			this.entryName = entryName;
+			this.source = source;
+		}
+	}
+}
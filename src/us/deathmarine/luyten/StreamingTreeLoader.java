@@ -0,0 +1,247 @@
+package us.deathmarine.luyten;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.JProgressBar;
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * Shows the entries in the structure tree while the central directory is
+ * being read: the names are collected on the loading thread and inserted in
+ * sorted batches on the EDT, folders first. The final tree (TreeBuilder)
+ * replaces this one when the listing is complete.
+ */
+public class StreamingTreeLoader implements ZipArchive.Listener {
+
+	private static final long BATCH_NANOS = 100_000_000L;
+
+	private final JTree tree;
+	private final JProgressBar bar;
+	private final boolean isPackageExplorerStyle;
+	private final boolean isFilterOutInnerClassEntries;
+
+	private final EntryTable entryTable = new EntryTable();
+	private List<String> batch = new ArrayList<>();
+	private long lastBatchTime = System.nanoTime();
+	private volatile long entryCount;
+	// directories included, like entryCount
+	private long processed;
+
+	// EDT only
+	private StreamedNode root;
+	private DefaultTreeModel treeModel;
+
+	public StreamingTreeLoader(JTree tree, JProgressBar bar, final TreeNodeUserObject topUserObject,
+			boolean isPackageExplorerStyle, boolean isFilterOutInnerClassEntries) {
+		this.tree = tree;
+		this.bar = bar;
+		this.isPackageExplorerStyle = isPackageExplorerStyle;
+		this.isFilterOutInnerClassEntries = isFilterOutInnerClassEntries;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				root = new StreamedNode(topUserObject, true);
+				root.isNew = false;
+				treeModel = new DefaultTreeModel(root);
+				StreamingTreeLoader.this.tree.setModel(treeModel);
+			}
+		});
+	}
+
+	@Override
+	public void onEntryCount(long entryCount) {
+		this.entryCount = entryCount;
+	}
+
+	@Override
+	public void onEntry(ZipArchive.Entry entry) {
+		processed++;
+		if (!entry.isDirectory()) {
+			entryTable.add(entry.getName());
+			batch.add(entry.getName());
+		}
+		long now = System.nanoTime();
+		if (now - lastBatchTime > BATCH_NANOS) {
+			lastBatchTime = now;
+			publishBatch(processed);
+		}
+	}
+
+	/**
+	 * Waits until the tree has every entry
+	 *
+	 * @return the packages expanded while loading, for TreeUtil
+	 */
+	public BitSet finish() throws Exception {
+		publishBatch(processed);
+		entryTable.trim();
+		final AtomicReference<BitSet> expansionState = new AtomicReference<>();
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				expansionState.set(new TreeUtil(tree).getExpansionState(entryTable));
+				bar.setString(null);
+			}
+		});
+		return expansionState.get();
+	}
+
+	/**
+	 * @return the file entries, in archive order
+	 */
+	public EntryTable getEntryTable() {
+		return entryTable;
+	}
+
+	private void publishBatch(final long processed) {
+		final List<String> names = batch;
+		batch = new ArrayList<>();
+		final long total = entryCount;
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				insertBatch(names);
+				bar.setMinimum(0);
+				bar.setMaximum((int) Math.min(total, Integer.MAX_VALUE));
+				bar.setValue((int) Math.min(processed, Integer.MAX_VALUE));
+				bar.setString(processed + " / " + total + " entries");
+			}
+		});
+	}
+
+	private void insertBatch(List<String> names) {
+		boolean wasEmpty = root.getChildCount() == 0;
+		// new children of the nodes that are already in the model
+		Map<StreamedNode, List<StreamedNode>> insertedNodes = new LinkedHashMap<>();
+		List<StreamedNode> newNodes = new ArrayList<>();
+		for (String name : names) {
+			if (isFilterOutInnerClassEntries && isPossibleInnerClass(name))
+				continue;
+			String[] path = getPath(name);
+			StreamedNode node = root;
+			for (int i = 0; i < path.length; i++) {
+				boolean isFolder = i < path.length - 1;
+				StreamedNode child = node.getChild(path[i], isFolder);
+				if (child == null) {
+					String displayName = (isPackageExplorerStyle && isFolder) ? path[i].replace('/', '.') : path[i];
+					child = new StreamedNode(new TreeNodeUserObject(path[i], displayName), isFolder);
+					node.insertSorted(child);
+					newNodes.add(child);
+					if (!node.isNew) {
+						List<StreamedNode> list = insertedNodes.get(node);
+						if (list == null) {
+							list = new ArrayList<>();
+							insertedNodes.put(node, list);
+						}
+						list.add(child);
+					}
+				}
+				node = child;
+			}
+		}
+		for (Map.Entry<StreamedNode, List<StreamedNode>> entry : insertedNodes.entrySet()) {
+			StreamedNode parent = entry.getKey();
+			int[] indices = new int[entry.getValue().size()];
+			for (int i = 0; i < indices.length; i++) {
+				indices[i] = parent.indexOfSorted(entry.getValue().get(i));
+			}
+			Arrays.sort(indices);
+			treeModel.nodesWereInserted(parent, indices);
+		}
+		for (StreamedNode node : newNodes) {
+			node.isNew = false;
+		}
+		if (wasEmpty && root.getChildCount() > 0) {
+			tree.expandPath(new TreePath(root));
+		}
+	}
+
+	/**
+	 * Package explorer: the package as one node, the directory view: one
+	 * node per directory
+	 */
+	private String[] getPath(String name) {
+		int slash = name.lastIndexOf('/');
+		if (!isPackageExplorerStyle || slash < 0)
+			return name.split("/");
+		return new String[] { name.substring(0, slash), name.substring(slash + 1) };
+	}
+
+	/**
+	 * Held back while loading, JarEntryFilter decides when all names are
+	 * known
+	 */
+	private static boolean isPossibleInnerClass(String name) {
+		return name.endsWith(".class") && JarEntryFilter.isPossibleInnerClass(name);
+	}
+
+	private static class StreamedNode extends DefaultMutableTreeNode {
+		private static final long serialVersionUID = 4416839513016924811L;
+
+		private final boolean isFolder;
+		private final String name;
+		// a file and a folder may have the same name: "a" and "a/b.class"
+		private final Map<String, StreamedNode> foldersByName = new HashMap<>();
+		private final Map<String, StreamedNode> filesByName = new HashMap<>();
+		// added in the current batch, not in the model yet
+		private boolean isNew = true;
+
+		private StreamedNode(TreeNodeUserObject userObject, boolean isFolder) {
+			super(userObject);
+			this.isFolder = isFolder;
+			this.name = userObject.getOriginalName();
+		}
+
+		private StreamedNode getChild(String name, boolean isFolder) {
+			return (isFolder ? foldersByName : filesByName).get(name);
+		}
+
+		private void insertSorted(StreamedNode child) {
+			int index = indexOfSorted(child);
+			insert(child, (index >= 0) ? index : -index - 1);
+			(child.isFolder ? foldersByName : filesByName).put(child.name, child);
+		}
+
+		/**
+		 * Binary search among the children: folders first, then by name
+		 * case insensitively
+		 *
+		 * @return like Arrays.binarySearch()
+		 */
+		private int indexOfSorted(StreamedNode child) {
+			int low = 0;
+			int high = getChildCount() - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int comp = compare((StreamedNode) getChildAt(mid), child);
+				if (comp < 0) {
+					low = mid + 1;
+				} else if (comp > 0) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		private static int compare(StreamedNode o1, StreamedNode o2) {
+			if (o1.isFolder != o2.isFolder)
+				return o1.isFolder ? -1 : 1;
+			int comp = o1.name.compareToIgnoreCase(o2.name);
+			if (comp != 0)
+				return comp;
+			return o1.name.compareTo(o2.name);
+		}
+	}
+}
@@ -0,0 +1,593 @@
+package us.deathmarine.luyten;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Types, methods and fields of a jar read from the class files (no
+ * decompiling), for the Go to Type/Member dialog. Queries match name
+ * prefixes and camel case humps (HM, HaMa, hashM for HashMap), a Type.member
+ * query restricts the members to the matching types.
+ */
+public class SymbolIndex {
+
+	public static final int KIND_TYPE = 0;
+	public static final int KIND_METHOD = 1;
+	public static final int KIND_FIELD = 2;
+
+	// other first characters share the last bucket
+	private static final int BUCKET_COUNT = 129;
+
+	private final String[] typeNames;
+	private final String[] typeSimpleNames;
+	private final String[] outerTypeNames;
+	// symbols: simple name, kind, declaring type (index into typeNames) and descriptor
+	private final String[] names;
+	private final byte[] kinds;
+	private final int[] owners;
+	private final String[] descriptors;
+	// by the lowercased first character of the name
+	private final Bucket[] buckets = new Bucket[BUCKET_COUNT];
+
+	private SymbolIndex(List<ClassSymbols> classes) {
+		Map<String, Integer> typeIds = new HashMap<>();
+		typeNames = new String[classes.size()];
+		int symbolCount = 0;
+		for (int i = 0; i < classes.size(); i++) {
+			ClassSymbols classSymbols = classes.get(i);
+			typeNames[i] = classSymbols.internalName;
+			typeIds.put(classSymbols.internalName, i);
+			symbolCount += 1 + classSymbols.memberNames.size();
+		}
+		typeSimpleNames = new String[typeNames.length];
+		outerTypeNames = new String[typeNames.length];
+		for (int i = 0; i < typeNames.length; i++) {
+			typeSimpleNames[i] = getSimpleName(typeNames[i]);
+			outerTypeNames[i] = findOuterTypeName(typeNames[i], typeIds.keySet());
+		}
+
+		names = new String[symbolCount];
+		kinds = new byte[symbolCount];
+		owners = new int[symbolCount];
+		descriptors = new String[symbolCount];
+		// many members share names and descriptors (toString, ()V)
+		Map<String, String> strings = new HashMap<>();
+		int id = 0;
+		for (int i = 0; i < classes.size(); i++) {
+			ClassSymbols classSymbols = classes.get(i);
+			names[id] = typeSimpleNames[i];
+			kinds[id] = KIND_TYPE;
+			owners[id] = i;
+			id++;
+			for (int m = 0; m < classSymbols.memberNames.size(); m++) {
+				names[id] = intern(strings, classSymbols.memberNames.get(m));
+				kinds[id] = classSymbols.memberKinds.get(m);
+				owners[id] = i;
+				descriptors[id] = intern(strings, classSymbols.memberDescriptors.get(m));
+				id++;
+			}
+		}
+		buildBuckets();
+	}
+
+	private SymbolIndex(List<SymbolIndex> indexes, int typeCount, int symbolCount) {
+		typeNames = new String[typeCount];
+		typeSimpleNames = new String[typeCount];
+		outerTypeNames = new String[typeCount];
+		names = new String[symbolCount];
+		kinds = new byte[symbolCount];
+		owners = new int[symbolCount];
+		descriptors = new String[symbolCount];
+		int typeOffset = 0;
+		int symbolOffset = 0;
+		for (SymbolIndex index : indexes) {
+			int typeLength = index.typeNames.length;
+			System.arraycopy(index.typeNames, 0, typeNames, typeOffset, typeLength);
+			System.arraycopy(index.typeSimpleNames, 0, typeSimpleNames, typeOffset, typeLength);
+			System.arraycopy(index.outerTypeNames, 0, outerTypeNames, typeOffset, typeLength);
+			int symbolLength = index.names.length;
+			System.arraycopy(index.names, 0, names, symbolOffset, symbolLength);
+			System.arraycopy(index.kinds, 0, kinds, symbolOffset, symbolLength);
+			System.arraycopy(index.descriptors, 0, descriptors, symbolOffset, symbolLength);
+			for (int id = 0; id < symbolLength; id++) {
+				owners[symbolOffset + id] = typeOffset + index.owners[id];
+			}
+			typeOffset += typeLength;
+			symbolOffset += symbolLength;
+		}
+		buildBuckets();
+	}
+
+	/**
+	 * The symbols of several jars, as one index: each jar is indexed on its
+	 * own, the workspace changes without indexing them again
+	 */
+	public static SymbolIndex merge(List<SymbolIndex> indexes) {
+		if (indexes.size() == 1)
+			return indexes.get(0);
+		int typeCount = 0;
+		int symbolCount = 0;
+		for (SymbolIndex index : indexes) {
+			typeCount += index.typeNames.length;
+			symbolCount += index.names.length;
+		}
+		return new SymbolIndex(indexes, typeCount, symbolCount);
+	}
+
+	/**
+	 * Reads every class entry, in parallel
+	 */
+	public static SymbolIndex build(File file, int threadCount) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		try (final JarFile jfile = new JarFile(file)) {
+			List<Future<ClassSymbols>> futures = new LinkedList<>();
+			Set<String> names = new HashSet<>();
+			for (final JarEntry entry : Collections.list(jfile.entries())) {
+				if (!entry.getName().endsWith(".class") || !names.add(entry.getName()))
+					continue;
+				futures.add(executor.submit(new Callable<ClassSymbols>() {
+					@Override
+					public ClassSymbols call() throws Exception {
+						try (InputStream in = jfile.getInputStream(entry)) {
+							return ClassSymbols.read(ClassFileReader.readAll(in));
+						}
+					}
+				}));
+			}
+			List<ClassSymbols> classes = new ArrayList<>(futures.size());
+			for (Future<ClassSymbols> future : futures) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
+				try {
+					ClassSymbols classSymbols = future.get();
+					if (classSymbols != null) {
+						classes.add(classSymbols);
+					}
+				} catch (ExecutionException e) {
+					// broken class file: not indexed
+					e.getCause().printStackTrace();
+				}
+			}
+			return new SymbolIndex(classes);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public int getSymbolCount() {
+		return names.length;
+	}
+
+	/**
+	 * @return best matches first: name prefix matches, then camel case
+	 *         matches, shorter names first
+	 */
+	public List<Symbol> find(String query, int maxResults) {
+		List<Symbol> result = new ArrayList<>();
+		query = query.trim();
+		int dot = query.lastIndexOf('.');
+		String typeQuery = null;
+		if (dot >= 0) {
+			typeQuery = query.substring(0, dot);
+			query = query.substring(dot + 1);
+			// package qualified: match the simple name
+			typeQuery = typeQuery.substring(typeQuery.lastIndexOf('.') + 1);
+			if (typeQuery.isEmpty())
+				typeQuery = null;
+		}
+		if (query.isEmpty())
+			return result;
+
+		boolean[] matchingTypes = (typeQuery != null) ? findTypes(typeQuery) : null;
+		long queryKey = getPrefixKey(query);
+		long queryKeyMask = (query.length() >= 4) ? -1L : ~(-1L >>> (16 * query.length()));
+		// camel case: every query letter is in the name, upper case ones start a hump
+		int queryLetterMask = 0;
+		int queryHumpMask = 0;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			queryLetterMask |= getLetterBit(c);
+			if (Character.isUpperCase(c)) {
+				queryHumpMask |= getLetterBit(c);
+			}
+		}
+
+		Bucket bucket = buckets[getBucket(query.charAt(0))];
+		List<Integer> camelMatches = new ArrayList<>();
+		for (int i = 0; i < bucket.ids.length; i++) {
+			int id = bucket.ids[i];
+			if (matchingTypes != null && (kinds[id] == KIND_TYPE || !matchingTypes[owners[id]]))
+				continue;
+			if ((bucket.prefixKeys[i] & queryKeyMask) == queryKey
+					&& (query.length() <= 4 || names[id].regionMatches(true, 0, query, 0, query.length()))) {
+				result.add(getSymbol(id));
+				// no camel case match can come before
+				if (result.size() >= maxResults)
+					return result;
+			} else if (camelMatches.size() < maxResults && (bucket.letterMasks[i] & queryLetterMask) == queryLetterMask
+					&& (bucket.humpMasks[i] & queryHumpMask) == queryHumpMask
+					&& isCamelCaseMatch(names[id], 0, query, 0)) {
+				camelMatches.add(id);
+			}
+		}
+		for (int i = 0; i < camelMatches.size() && result.size() < maxResults; i++) {
+			result.add(getSymbol(camelMatches.get(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * @return by type index
+	 */
+	private boolean[] findTypes(String typeQuery) {
+		boolean[] matchingTypes = new boolean[typeNames.length];
+		Bucket bucket = buckets[getBucket(typeQuery.charAt(0))];
+		for (int i = 0; i < bucket.ids.length; i++) {
+			int id = bucket.ids[i];
+			if (kinds[id] == KIND_TYPE && matches(names[id], typeQuery)) {
+				matchingTypes[owners[id]] = true;
+			}
+		}
+		return matchingTypes;
+	}
+
+	private boolean matches(String typeSimpleName, String typeQuery) {
+		return typeSimpleName.regionMatches(true, 0, typeQuery, 0, typeQuery.length())
+				|| isCamelCaseMatch(typeSimpleName, 0, typeQuery, 0);
+	}
+
+	private Symbol getSymbol(int id) {
+		int owner = owners[id];
+		return new Symbol(kinds[id], names[id], typeNames[owner], outerTypeNames[owner], descriptors[id]);
+	}
+
+	private void buildBuckets() {
+		int[] counts = new int[BUCKET_COUNT];
+		for (String name : names) {
+			counts[getBucket(name.charAt(0))]++;
+		}
+		Integer[][] sorted = new Integer[BUCKET_COUNT][];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			sorted[i] = new Integer[counts[i]];
+			counts[i] = 0;
+		}
+		for (int id = 0; id < names.length; id++) {
+			int bucket = getBucket(names[id].charAt(0));
+			sorted[bucket][counts[bucket]++] = id;
+		}
+		// shortest names first
+		Comparator<Integer> comparator = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				int result = Integer.compare(names[o1].length(), names[o2].length());
+				if (result == 0)
+					result = Integer.compare(kinds[o1], kinds[o2]);
+				if (result == 0)
+					result = names[o1].compareTo(names[o2]);
+				return result;
+			}
+		};
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			Arrays.sort(sorted[i], comparator);
+			buckets[i] = new Bucket(sorted[i]);
+		}
+	}
+
+	/**
+	 * The first 4 lowercased characters, 16 bits each
+	 */
+	private static long getPrefixKey(String name) {
+		long key = 0;
+		for (int i = 0; i < 4; i++) {
+			key <<= 16;
+			if (i < name.length()) {
+				key |= Character.toLowerCase(name.charAt(i));
+			}
+		}
+		return key;
+	}
+
+	private static int getBucket(char c) {
+		c = Character.toLowerCase(c);
+		return (c < BUCKET_COUNT - 1) ? c : BUCKET_COUNT - 1;
+	}
+
+	/**
+	 * The query is split over the starts of the name's humps: every hump
+	 * matched must start with the next query character, the first one at
+	 * the name start. find() also requires the upper case query letters to
+	 * start humps.
+	 */
+	static boolean isCamelCaseMatch(String name, int nameIndex, String query, int queryIndex) {
+		int length = 0;
+		while (nameIndex + length < name.length() && queryIndex + length < query.length()
+				&& equalsIgnoreCase(name.charAt(nameIndex + length), query.charAt(queryIndex + length))) {
+			length++;
+		}
+		if (queryIndex + length == query.length())
+			return length > 0;
+		// continue with the rest of the query at a later hump, the longest match first
+		for (int matched = length; matched > 0; matched--) {
+			for (int hump = getNextHump(name, nameIndex + matched); hump >= 0; hump = getNextHump(name, hump + 1)) {
+				if (equalsIgnoreCase(name.charAt(hump), query.charAt(queryIndex + matched))
+						&& isCamelCaseMatch(name, hump, query, queryIndex + matched)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int getNextHump(String name, int from) {
+		for (int i = from; i < name.length(); i++) {
+			char c = name.charAt(i);
+			char previous = name.charAt(i - 1);
+			if ((Character.isUpperCase(c) && !Character.isUpperCase(previous))
+					|| (Character.isDigit(c) && !Character.isDigit(previous)) || previous == '_' || previous == '$') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int getLetterBit(char c) {
+		c = Character.toLowerCase(c);
+		return (c >= 'a' && c <= 'z') ? 1 << (c - 'a') : 0;
+	}
+
+	private static boolean equalsIgnoreCase(char c1, char c2) {
+		return c1 == c2 || Character.toLowerCase(c1) == Character.toLowerCase(c2);
+	}
+
+	private static String intern(Map<String, String> strings, String s) {
+		String interned = strings.get(s);
+		if (interned == null) {
+			strings.put(s, s);
+			interned = s;
+		}
+		return interned;
+	}
+
+	static String getSimpleName(String internalName) {
+		String name = internalName.substring(internalName.lastIndexOf('/') + 1);
+		String simpleName = name.substring(name.lastIndexOf('$') + 1);
+		// Foo$ is a legal class name
+		return simpleName.isEmpty() ? name : simpleName;
+	}
+
+	/**
+	 * a/b/Outer for a/b/Outer$Inner$Deep, the top level class is the one
+	 * opened in the tabs. The prefixes are checked against the jar's classes:
+	 * $ is also legal in top level class names.
+	 */
+	static String findOuterTypeName(String internalName, Set<String> typeNames) {
+		int packageEnd = internalName.lastIndexOf('/') + 1;
+		for (int i = internalName.indexOf('$', packageEnd + 1); i > 0; i = internalName.indexOf('$', i + 1)) {
+			String outerName = internalName.substring(0, i);
+			if (typeNames.contains(outerName))
+				return outerName;
+		}
+		return internalName;
+	}
+
+	/**
+	 * Anonymous and local classes (Outer$1, Outer$1Local) are not indexed
+	 */
+	private static boolean isAnonymousOrLocal(String internalName) {
+		int dollar = internalName.lastIndexOf('$');
+		return dollar >= 0 && dollar + 1 < internalName.length()
+				&& Character.isDigit(internalName.charAt(dollar + 1));
+	}
+
+	/**
+	 * Symbol ids with the data for the first pass of find() in sequential
+	 * arrays, the names are only compared for the candidates
+	 */
+	private class Bucket {
+		private final int[] ids;
+		private final long[] prefixKeys;
+		// a-z bits: letters of the name, first letters of its humps
+		private final int[] letterMasks;
+		private final int[] humpMasks;
+
+		private Bucket(Integer[] sortedIds) {
+			ids = new int[sortedIds.length];
+			prefixKeys = new long[ids.length];
+			letterMasks = new int[ids.length];
+			humpMasks = new int[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = sortedIds[i];
+				String name = names[ids[i]];
+				prefixKeys[i] = getPrefixKey(name);
+				for (int c = 0; c < name.length(); c++) {
+					letterMasks[i] |= getLetterBit(name.charAt(c));
+				}
+				humpMasks[i] = getLetterBit(name.charAt(0));
+				for (int hump = getNextHump(name, 1); hump >= 0; hump = getNextHump(name, hump + 1)) {
+					humpMasks[i] |= getLetterBit(name.charAt(hump));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The symbols of one class file, read on the worker threads
+	 */
+	private static class ClassSymbols {
+		private String internalName;
+		private List<String> memberNames = new ArrayList<>();
+		private List<Byte> memberKinds = new ArrayList<>();
+		private List<String> memberDescriptors = new ArrayList<>();
+
+		private static ClassSymbols read(byte[] bytes) throws Exception {
+			ClassFileReader reader = new ClassFileReader(bytes);
+			ClassSymbols classSymbols = new ClassSymbols();
+			classSymbols.internalName = reader.getThisClassName();
+			if ((reader.getAccessFlags() & ClassFileReader.ACC_SYNTHETIC) != 0
+					|| isAnonymousOrLocal(classSymbols.internalName)
+					|| classSymbols.internalName.endsWith("package-info")
+					|| classSymbols.internalName.endsWith("module-info"))
+				return null;
+			for (ClassFileReader.Member field : reader.getFields()) {
+				if ((field.getAccess() & ClassFileReader.ACC_SYNTHETIC) == 0) {
+					classSymbols.add(KIND_FIELD, field);
+				}
+			}
+			for (ClassFileReader.Member method : reader.getMethods()) {
+				// constructors: go to the type
+				if ((method.getAccess() & (ClassFileReader.ACC_SYNTHETIC | ClassFileReader.ACC_BRIDGE)) == 0
+						&& !method.getName().startsWith("<")) {
+					classSymbols.add(KIND_METHOD, method);
+				}
+			}
+			return classSymbols;
+		}
+
+		private void add(int kind, ClassFileReader.Member member) {
+			memberNames.add(member.getName());
+			memberKinds.add((byte) kind);
+			memberDescriptors.add(member.getDescriptor());
+		}
+	}
+
+	public static class Symbol {
+		private final int kind;
+		private final String name;
+		private final String typeName;
+		private final String outerTypeName;
+		private final String descriptor;
+
+		Symbol(int kind, String name, String typeName, String outerTypeName, String descriptor) {
+			this.kind = kind;
+			this.name = name;
+			this.typeName = typeName;
+			this.outerTypeName = outerTypeName;
+			this.descriptor = descriptor;
+		}
+
+		public int getKind() {
+			return kind;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Internal name of the type or the declaring type
+		 */
+		public String getTypeName() {
+			return typeName;
+		}
+
+		/**
+		 * Internal name of the top level type: the class file that is opened
+		 */
+		public String getOuterTypeName() {
+			return outerTypeName;
+		}
+
+		/**
+		 * Link in the format of DecompilerLinkProvider, for
+		 * Model.navigateTo()
+		 */
+		public String getUniqueStr() {
+			int packageEnd = typeName.lastIndexOf('/');
+			String packageStr = (packageEnd >= 0) ? typeName.substring(0, packageEnd).replace('/', '.') : "";
+			String typeStr = packageStr + "." + typeName.substring(packageEnd + 1);
+			String pathAndTypeStr = outerTypeName + "|" + typeStr;
+			switch (kind) {
+			case KIND_METHOD:
+				return "method|" + pathAndTypeStr + "|" + name + "|" + descriptor;
+			case KIND_FIELD:
+				return "field|" + pathAndTypeStr + "|" + name;
+			default:
+				return "type|" + pathAndTypeStr;
+			}
+		}
+
+		/**
+		 * put(Object, Object) - java.util.HashMap
+		 */
+		@Override
+		public String toString() {
+			String qualifiedName = typeName.replace('/', '.').replace('$', '.');
+			if (kind == KIND_TYPE) {
+				int packageEnd = typeName.lastIndexOf('/');
+				String outerNames = typeName.substring(packageEnd + 1).replace('$', '.');
+				return (packageEnd >= 0) ? outerNames + " - " + typeName.substring(0, packageEnd).replace('/', '.')
+						: outerNames;
+			} else if (kind == KIND_METHOD) {
+				return name + "(" + getReadableParameters(descriptor) + ") - " + qualifiedName;
+			}
+			return name + " - " + qualifiedName;
+		}
+
+		private static String getReadableParameters(String descriptor) {
+			StringBuilder sb = new StringBuilder();
+			int i = 1;
+			while (i < descriptor.length() && descriptor.charAt(i) != ')') {
+				if (sb.length() > 0)
+					sb.append(", ");
+				int dimensions = 0;
+				while (descriptor.charAt(i) == '[') {
+					dimensions++;
+					i++;
+				}
+				char c = descriptor.charAt(i);
+				if (c == 'L') {
+					int end = descriptor.indexOf(';', i);
+					sb.append(getSimpleName(descriptor.substring(i + 1, end)));
+					i = end + 1;
+				} else {
+					sb.append(getPrimitiveName(c));
+					i++;
+				}
+				for (int d = 0; d < dimensions; d++) {
+					sb.append("[]");
+				}
+			}
+			return sb.toString();
+		}
+
+		private static String getPrimitiveName(char c) {
+			switch (c) {
+			case 'B':
+				return "byte";
+			case 'C':
+				return "char";
+			case 'D':
+				return "double";
+			case 'F':
+				return "float";
+			case 'I':
+				return "int";
+			case 'J':
+				return "long";
+			case 'S':
+				return "short";
+			case 'Z':
+				return "boolean";
+			default:
+				return String.valueOf(c);
+			}
+		}
+	}
+}
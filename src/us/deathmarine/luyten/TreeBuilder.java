@@ -0,0 +1,755 @@
+package us.deathmarine.luyten;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the structure tree from the EntryTable of the open archive. The
+ * order of each view (sorting the names is most of the work) is computed
+ * once per table and kept: a tree is then one pass over the entries in that
+ * order, so switching the view or the inner class filter neither rereads
+ * the archive nor sorts again. The tree is frozen into arrays of entry and
+ * package ids and shown through LazyTreeNode.
+ */
+public class TreeBuilder {
+
+	private static final String META_INF = "META-INF";
+
+	private final EntryTable table;
+	private int[] entriesWithoutInnerClasses;
+	// of all entries, computed on first use
+	private View directoryView;
+	private View flatView;
+	// entries with an earlier one of the same name in the same package
+	private BitSet duplicateEntries;
+	private Map<Integer, Integer> firstDuplicates;
+	// entries named like a package beside them (a/b and a/b/C.class)
+	private BitSet collidingEntries;
+	private Map<Integer, Integer> collidingPackages;
+	private BitSet classLikeEntries;
+	private int[] topPackages;
+
+	public TreeBuilder(EntryTable table) {
+		this.table = table;
+	}
+
+	public EntryTable getEntryTable() {
+		return table;
+	}
+
+	/**
+	 * @return the entries shown in the tree, the inner classes are filtered
+	 *         once
+	 */
+	public synchronized int[] getEntryIds(boolean isFilterOutInnerClassEntries) throws Exception {
+		if (!isFilterOutInnerClassEntries)
+			return table.getAllEntryIds();
+		if (entriesWithoutInnerClasses == null) {
+			entriesWithoutInnerClasses = JarEntryFilter.filterOutInnerClasses(table,
+					ParallelDecompiler.getPreferredThreadCount());
+		}
+		return entriesWithoutInnerClasses;
+	}
+
+	/**
+	 * Computes the order of both views, so that the first switch between
+	 * them is fast too
+	 */
+	public void prepare() {
+		getDirectoryView();
+		getFlatView();
+	}
+
+	/**
+	 * Directory view, same tree as adding the entries one by one in this
+	 * order: META-INF entries, then the packages by depth (descending) and
+	 * case insensitively, the root files last.
+	 * 
+	 * @param entryIds
+	 *            all entries or a part of them (JarEntryFilter), in archive
+	 *            order
+	 */
+	public LazyTreeNode buildDirectoryTree(TreeNodeUserObject topUserObject, int[] entryIds) {
+		BitSet members = getMembers(entryIds);
+		View view = getDirectoryView();
+		if (members != null && !view.fits(members, getPackagesWithEntries(entryIds))) {
+			view = createDirectoryView(entryIds);
+		}
+		return new Projection(view, members, entryIds, false).build(topUserObject);
+	}
+
+	/**
+	 * Package explorer view: META-INF as directories, then the packages of
+	 * the roots that hold classes (or java, prop, properties files) as flat
+	 * dotted nodes, then the other directories, then the root files. Each
+	 * group is ordered by package path, entries by extension and name.
+	 * 
+	 * @param entryIds
+	 *            all entries or a part of them (JarEntryFilter), in archive
+	 *            order
+	 */
+	public LazyTreeNode buildFlatTree(TreeNodeUserObject topUserObject, int[] entryIds) {
+		BitSet members = getMembers(entryIds);
+		View view = getFlatView();
+		if (members != null && !view.fits(members, getClassContainingPackageRoots(entryIds))) {
+			view = createFlatView(entryIds);
+		}
+		return new Projection(view, members, entryIds, true).build(topUserObject);
+	}
+
+	/**
+	 * @return null for all entries
+	 */
+	private BitSet getMembers(int[] entryIds) {
+		if (entryIds.length == table.getEntryCount())
+			return null;
+		BitSet members = new BitSet(table.getEntryCount());
+		for (int entryId : entryIds) {
+			members.set(entryId);
+		}
+		return members;
+	}
+
+	private synchronized View getDirectoryView() {
+		if (directoryView == null) {
+			directoryView = createDirectoryView(table.getAllEntryIds());
+		}
+		return directoryView;
+	}
+
+	private synchronized View getFlatView() {
+		if (flatView == null) {
+			flatView = createFlatView(table.getAllEntryIds());
+		}
+		return flatView;
+	}
+
+	private View createDirectoryView(int[] entryIds) {
+		final String[] names = new String[entryIds.length];
+		Integer[] nameOrder = new Integer[entryIds.length];
+		for (int i = 0; i < entryIds.length; i++) {
+			names[i] = table.getName(entryIds[i]);
+			nameOrder[i] = i;
+		}
+		// stable: same-named entries keep the jar order
+		Arrays.sort(nameOrder, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return String.CASE_INSENSITIVE_ORDER.compare(names[o1], names[o2]);
+			}
+		});
+		String[] entries = new String[names.length];
+		int[] ids = new int[names.length];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = names[nameOrder[i]];
+			ids[i] = entryIds[nameOrder[i]];
+		}
+
+		// packages: the directory of each entry, with the trailing '/'
+		Set<String> packSet = new HashSet<>();
+		for (String entry : entries) {
+			int slash = entry.lastIndexOf('/');
+			if (slash >= 0) {
+				packSet.add(entry.substring(0, slash + 1));
+			}
+		}
+		final String[] packs = packSet.toArray(new String[packSet.size()]);
+		final int[] depths = new int[packs.length];
+		Integer[] order = new Integer[packs.length];
+		Map<String, Integer> packIndex = new HashMap<>(packs.length * 2);
+		for (int i = 0; i < packs.length; i++) {
+			depths[i] = packs[i].split("/").length;
+			order[i] = i;
+			packIndex.put(packs[i], i);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				int comp = depths[o2] - depths[o1];
+				if (comp != 0)
+					return comp;
+				return String.CASE_INSENSITIVE_ORDER.compare(packs[o1], packs[o2]);
+			}
+		});
+		int[] packRanks = new int[packs.length];
+		Set<Integer> packHashes = new HashSet<>();
+		for (int rank = 0; rank < order.length; rank++) {
+			packRanks[order[rank]] = rank;
+			packHashes.add(packs[order[rank]].hashCode());
+		}
+
+		// META-INF and root files are added once, packages for every entry
+		Map<String, Integer> addedOnce = new HashMap<>();
+		long[] keys = new long[entries.length];
+		int keyCount = 0;
+		View view = new View();
+		for (int i = 0; i < entries.length; i++) {
+			String entry = entries[i];
+			long group;
+			if (entry.contains(META_INF) || entry.indexOf('/') < 0) {
+				Integer first = addedOnce.get(entry);
+				if (first != null) {
+					view.addOmitted(ids[i], first);
+					continue;
+				}
+				addedOnce.put(entry, ids[i]);
+				group = entry.contains(META_INF) ? 0 : Integer.MAX_VALUE;
+			} else {
+				group = 1 + getPackRank(entry, packIndex, packRanks, packHashes);
+			}
+			keys[keyCount++] = (group << 32) | i;
+		}
+		Arrays.sort(keys, 0, keyCount);
+		view.order = new int[keyCount];
+		for (int i = 0; i < keyCount; i++) {
+			view.order[i] = ids[(int) keys[keyCount - 1 - i]];
+		}
+		view.shape = getPackagesWithEntries(entryIds);
+		return view;
+	}
+
+	/**
+	 * Packages are taken in rank order and each one collects the entries
+	 * that contain it with no '/' left after removing it: the entry's own
+	 * package, and rarely a suffix of it (b/ for ab/C.class). The last one
+	 * counts.
+	 */
+	private static int getPackRank(String entry, Map<String, Integer> packIndex, int[] packRanks,
+			Set<Integer> packHashes) {
+		int slash = entry.lastIndexOf('/');
+		int rank = packRanks[packIndex.get(entry.substring(0, slash + 1))];
+		// String.hashCode() of each suffix, from the end
+		int hash = 0;
+		int power = 1;
+		for (int start = slash; start > 0; start--) {
+			hash += entry.charAt(start) * power;
+			power *= 31;
+			if (packHashes.contains(hash)) {
+				Integer suffixIndex = packIndex.get(entry.substring(start, slash + 1));
+				if (suffixIndex != null && packRanks[suffixIndex] > rank) {
+					String pack = entry.substring(start, slash + 1);
+					if (!entry.replace(pack, "").contains("/")) {
+						rank = packRanks[suffixIndex];
+					}
+				}
+			}
+		}
+		return rank;
+	}
+
+	private View createFlatView(int[] entryIds) {
+		BitSet packageRoots = getClassContainingPackageRoots(entryIds);
+		Set<String> classContainingPackageRoots = new HashSet<>();
+		for (int packageId = packageRoots.nextSetBit(0); packageId >= 0; packageId = packageRoots
+				.nextSetBit(packageId + 1)) {
+			classContainingPackageRoots.add(table.getPackageSegment(packageId));
+		}
+
+		FlatEntry[] entries = new FlatEntry[entryIds.length];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new FlatEntry(entryIds[i], table.getName(entryIds[i]), classContainingPackageRoots);
+		}
+		Arrays.sort(entries);
+
+		View view = new View();
+		int[] order = new int[entries.length];
+		int orderCount = 0;
+		FlatEntry previous = null;
+		for (FlatEntry entry : entries) {
+			// same name in the same package: one node
+			if (previous != null && previous.group == entry.group && previous.packagePath.equals(entry.packagePath)
+					&& previous.name.equals(entry.name)) {
+				view.addOmitted(entry.entryId, previous.entryId);
+				continue;
+			}
+			previous = entry;
+			order[orderCount++] = entry.entryId;
+		}
+		view.order = new int[orderCount];
+		for (int i = 0; i < orderCount; i++) {
+			view.order[i] = order[orderCount - 1 - i];
+		}
+		view.shape = packageRoots;
+		return view;
+	}
+
+	/**
+	 * @return the ids of the packages that hold some of the entries
+	 */
+	private BitSet getPackagesWithEntries(int[] entryIds) {
+		BitSet packages = new BitSet(table.getPackageCount());
+		for (int entryId : entryIds) {
+			packages.set(table.getPackage(entryId));
+		}
+		return packages;
+	}
+
+	/**
+	 * @return the ids of the top level packages with a class (or java, prop,
+	 *         properties file) somewhere in them, META-INF aside
+	 */
+	private BitSet getClassContainingPackageRoots(int[] entryIds) {
+		BitSet classLike = getClassLikeEntries();
+		int[] tops = getTopPackages();
+		BitSet packageRoots = new BitSet();
+		for (int entryId : entryIds) {
+			int packageId = table.getPackage(entryId);
+			if (packageId == EntryTable.ROOT_PACKAGE || !classLike.get(entryId) || packageRoots.get(tops[packageId]))
+				continue;
+			String packageRoot = table.getPackageSegment(tops[packageId]);
+			if (!packageRoot.startsWith(META_INF) && packageRoot.trim().length() > 0) {
+				packageRoots.set(tops[packageId]);
+			}
+		}
+		return packageRoots;
+	}
+
+	private synchronized BitSet getClassLikeEntries() {
+		if (classLikeEntries == null) {
+			BitSet classLike = new BitSet(table.getEntryCount());
+			for (int entryId = 0; entryId < table.getEntryCount(); entryId++) {
+				if (isClassLikeFile(table.getSimpleName(entryId))) {
+					classLike.set(entryId);
+				}
+			}
+			classLikeEntries = classLike;
+		}
+		return classLikeEntries;
+	}
+
+	private static boolean isClassLikeFile(String entry) {
+		return entry.endsWith(".class") || entry.endsWith(".java") || entry.endsWith(".prop")
+				|| entry.endsWith(".properties");
+	}
+
+	/**
+	 * @return the top level package of each package, the root package for
+	 *         itself
+	 */
+	private synchronized int[] getTopPackages() {
+		if (topPackages == null) {
+			int[] tops = new int[table.getPackageCount()];
+			// parents have smaller ids
+			for (int packageId = 1; packageId < tops.length; packageId++) {
+				int parent = table.getPackageParent(packageId);
+				tops[packageId] = (parent == EntryTable.ROOT_PACKAGE) ? packageId : tops[parent];
+			}
+			topPackages = tops;
+		}
+		return topPackages;
+	}
+
+	/**
+	 * Finds the duplicate entries, and the entries named like a package in
+	 * the same package (they share a node)
+	 */
+	private synchronized void indexNames() {
+		if (duplicateEntries != null)
+			return;
+		BitSet duplicates = new BitSet();
+		Map<Integer, Integer> firsts = new HashMap<>();
+		for (int entryId = 0; entryId < table.getEntryCount(); entryId++) {
+			int first = table.findFirst(entryId);
+			if (first != entryId) {
+				duplicates.set(entryId);
+				firsts.put(entryId, first);
+			}
+		}
+		BitSet colliding = new BitSet();
+		Map<Integer, Integer> packages = new HashMap<>();
+		for (int packageId = 1; packageId < table.getPackageCount(); packageId++) {
+			int entryId = table.findEntry(table.getPackageParent(packageId), table.getPackageSegment(packageId));
+			if (entryId >= 0) {
+				colliding.set(entryId);
+				packages.put(entryId, packageId);
+			}
+		}
+		firstDuplicates = firsts;
+		collidingEntries = colliding;
+		collidingPackages = packages;
+		duplicateEntries = duplicates;
+	}
+
+	/**
+	 * Order of a view: the entries that get a node and their keys. A node is
+	 * ordered among its siblings by the largest key in its subtree, as
+	 * DefaultMutableTreeNode.add() in Model.loadNodesByUserObj() did (adding
+	 * a node again moved it to the end).
+	 */
+	private static class View {
+		// by descending key: the first entry to reach a node is the last one
+		// in its subtree, so the nodes are created in reverse tree order
+		private int[] order;
+		// left out as duplicates, with the entry added in their place
+		private int[] omittedIds = new int[0];
+		private int[] omittedFirsts = new int[0];
+		private int omittedCount;
+		// what the order depends on besides the names: the packages with
+		// entries (directory view), the roots holding classes (flat view)
+		private BitSet shape;
+
+		private void addOmitted(int entryId, int firstId) {
+			if (omittedCount == omittedIds.length) {
+				omittedIds = Arrays.copyOf(omittedIds, Math.max(16, omittedCount * 2));
+				omittedFirsts = Arrays.copyOf(omittedFirsts, omittedIds.length);
+			}
+			omittedIds[omittedCount] = entryId;
+			omittedFirsts[omittedCount] = firstId;
+			omittedCount++;
+		}
+
+		/**
+		 * The inner class filter keeps the outer classes, so its result has
+		 * the same packages and roots as all entries: the order of all
+		 * entries holds for it, without sorting again.
+		 * 
+		 * @return whether the order holds for these members of it
+		 */
+		private boolean fits(BitSet members, BitSet membersShape) {
+			if (!shape.equals(membersShape))
+				return false;
+			for (int i = 0; i < omittedCount; i++) {
+				if (members.get(omittedIds[i]) && !members.get(omittedFirsts[i]))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * One tree: the entries of the view order that are members, each one
+	 * under the folder of its package (package explorer: flat package)
+	 */
+	private class Projection {
+		private final View view;
+		// null for all entries
+		private final BitSet members;
+		private final boolean isFlat;
+		private final BitSet packagesWithEntries;
+		// packagesWithEntries and their parents
+		private final BitSet packagesInUse;
+		private final TrieNode[] folders;
+		private final TrieNode[] flatPackages;
+		private TrieNode root;
+		// by the first entry of the same name in the same package
+		private final BitSet addedFiles = new BitSet();
+		// files moved to the folder of another package, "a//B.txt" under a
+		private final Set<String> addedMovedFiles = new HashSet<>();
+
+		private Projection(View view, BitSet members, int[] entryIds, boolean isFlat) {
+			this.view = view;
+			this.members = members;
+			this.isFlat = isFlat;
+			indexNames();
+			packagesWithEntries = getPackagesWithEntries(entryIds);
+			packagesInUse = (BitSet) packagesWithEntries.clone();
+			for (int packageId = packagesWithEntries.nextSetBit(0); packageId >= 0; packageId = packagesWithEntries
+					.nextSetBit(packageId + 1)) {
+				for (int parent = table.getPackageParent(packageId); parent >= 0 && !packagesInUse.get(parent); parent = table
+						.getPackageParent(parent)) {
+					packagesInUse.set(parent);
+				}
+			}
+			folders = new TrieNode[table.getPackageCount()];
+			flatPackages = isFlat ? new TrieNode[table.getPackageCount()] : null;
+		}
+
+		private LazyTreeNode build(TreeNodeUserObject topUserObject) {
+			root = new TrieNode(table, topUserObject);
+			int[] tops = isFlat ? getTopPackages() : null;
+			for (int entryId : view.order) {
+				if (members != null && !members.get(entryId))
+					continue;
+				int packageId = table.getPackage(entryId);
+				if (isFlat && packageId != EntryTable.ROOT_PACKAGE) {
+					if (view.shape.get(tops[packageId])) {
+						addFile(getFlatPackage(packageId), packageId, entryId, false);
+						continue;
+					}
+					// like split("/"): "a//B.txt" is under a
+					while (packageId != EntryTable.ROOT_PACKAGE && table.getPackageSegment(packageId).isEmpty()) {
+						packageId = table.getPackageParent(packageId);
+					}
+				}
+				addFile(getFolder(packageId), packageId, entryId, true);
+			}
+			root.freeze();
+			return new LazyTreeNode(root);
+		}
+
+		private void addFile(TrieNode parent, int parentId, int entryId, boolean isInFolder) {
+			boolean isMoved = parentId != table.getPackage(entryId);
+			int first = entryId;
+			String name = null;
+			if (isMoved) {
+				name = table.getSimpleName(entryId);
+				first = table.findEntry(parentId, name);
+				if (first < 0 && !addedMovedFiles.add(parentId + "/" + name))
+					return;
+			} else if (duplicateEntries.get(entryId)) {
+				first = firstDuplicates.get(entryId);
+			}
+			if (first >= 0) {
+				if (addedFiles.get(first))
+					return;
+				addedFiles.set(first);
+			}
+
+			if (isInFolder) {
+				int packageId = -1;
+				if (isMoved) {
+					String parentPath = table.getPackagePath(parentId);
+					packageId = table.findPackage(parentPath.isEmpty() ? name : parentPath + "/" + name);
+				} else if (collidingEntries.get(first)) {
+					packageId = collidingPackages.get(first);
+				}
+				// same node as the folder of the package
+				if (packageId >= 0 && getPackageNode(parentId, packageId) != null)
+					return;
+			}
+			parent.addChild(entryId);
+		}
+
+		/**
+		 * @return the node of a package in the folder of its parent, null if
+		 *         it has none in this tree
+		 */
+		private TrieNode getPackageNode(int parentId, int packageId) {
+			if (isFlat && parentId == EntryTable.ROOT_PACKAGE && view.shape.get(packageId))
+				return packagesWithEntries.get(packageId) ? getFlatPackage(packageId) : null;
+			return packagesInUse.get(packageId) ? getFolder(packageId) : null;
+		}
+
+		private TrieNode getFolder(int packageId) {
+			if (packageId == EntryTable.ROOT_PACKAGE)
+				return root;
+			TrieNode folder = folders[packageId];
+			if (folder == null) {
+				TrieNode parent = getFolder(table.getPackageParent(packageId));
+				folder = new TrieNode(table, packageId, false);
+				parent.addFolder(folder);
+				folders[packageId] = folder;
+			}
+			return folder;
+		}
+
+		private TrieNode getFlatPackage(int packageId) {
+			TrieNode flatPackage = flatPackages[packageId];
+			if (flatPackage == null) {
+				flatPackage = new TrieNode(table, packageId, true);
+				root.addFolder(flatPackage);
+				flatPackages[packageId] = flatPackage;
+			}
+			return flatPackage;
+		}
+	}
+
+	/**
+	 * Entry of the package explorer view with its sort keys
+	 */
+	private static class FlatEntry implements Comparable<FlatEntry> {
+		private static final int META_INF_DIRECTORY = 0;
+		private static final int FLAT_PACKAGE = 1;
+		private static final int DIRECTORY = 2;
+		private static final int DEFAULT_PACKAGE = 3;
+
+		private final int entryId;
+		private final int group;
+		private final String packagePath;
+		private final String name;
+		private final String extension;
+
+		private FlatEntry(int entryId, String entry, Set<String> classContainingPackageRoots) {
+			this.entryId = entryId;
+			int slash = entry.lastIndexOf('/');
+			packagePath = (slash >= 0) ? entry.substring(0, slash) : "";
+			name = entry.substring(slash + 1);
+			// after the last dot, or the whole name
+			extension = name.substring(name.lastIndexOf('.') + 1);
+			int rootEnd = packagePath.indexOf('/');
+			String packageRoot = (rootEnd >= 0) ? packagePath.substring(0, rootEnd) : packagePath;
+			if (packagePath.startsWith(META_INF)) {
+				group = META_INF_DIRECTORY;
+			} else if (classContainingPackageRoots.contains(packageRoot)) {
+				group = FLAT_PACKAGE;
+			} else if (packagePath.length() > 0) {
+				group = DIRECTORY;
+			} else {
+				group = DEFAULT_PACKAGE;
+			}
+		}
+
+		@Override
+		public int compareTo(FlatEntry o) {
+			if (group != o.group)
+				return group - o.group;
+			int comp = packagePath.compareTo(o.packagePath);
+			if (comp != 0)
+				return comp;
+			comp = extension.compareTo(o.extension);
+			if (comp != 0)
+				return comp;
+			return name.compareTo(o.name);
+		}
+	}
+
+	/**
+	 * Folder of the tree. While building, the children are added in reverse
+	 * tree order (Projection); frozen, a folder keeps its children as entry
+	 * ids and folder nodes, the names come from the EntryTable.
+	 */
+	static class TrieNode {
+		private static final int[] NO_CHILDREN = new int[0];
+		private static final TrieNode[] NO_FOLDERS = new TrieNode[0];
+
+		private final EntryTable table;
+		// the root only
+		private final TreeNodeUserObject userObject;
+		private final int packageId;
+		private final boolean isFlatPackage;
+		// in tree order: entry id of a file child, or -1 - index in folders
+		private int[] children = NO_CHILDREN;
+		private int childCount;
+		private TrieNode[] folders = NO_FOLDERS;
+		private int folderCount;
+		// indexes of children sorted by name, on the first search
+		private int[] nameOrder;
+
+		private TrieNode(EntryTable table, TreeNodeUserObject userObject) {
+			this.table = table;
+			this.userObject = userObject;
+			this.packageId = EntryTable.ROOT_PACKAGE;
+			this.isFlatPackage = false;
+		}
+
+		private TrieNode(EntryTable table, int packageId, boolean isFlatPackage) {
+			this.table = table;
+			this.userObject = null;
+			this.packageId = packageId;
+			this.isFlatPackage = isFlatPackage;
+		}
+
+		private void addChild(int child) {
+			if (childCount == children.length) {
+				children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+			}
+			children[childCount++] = child;
+		}
+
+		private void addFolder(TrieNode folder) {
+			if (folderCount == folders.length) {
+				folders = Arrays.copyOf(folders, Math.max(4, folderCount * 2));
+			}
+			folders[folderCount] = folder;
+			addChild(-1 - folderCount);
+			folderCount++;
+		}
+
+		private void freeze() {
+			int[] ordered = new int[childCount];
+			for (int i = 0; i < childCount; i++) {
+				ordered[i] = children[childCount - 1 - i];
+			}
+			children = ordered;
+			folders = Arrays.copyOf(folders, folderCount);
+			for (TrieNode folder : folders) {
+				folder.freeze();
+			}
+		}
+
+		/**
+		 * Created on each call
+		 */
+		TreeNodeUserObject getUserObject() {
+			if (userObject != null)
+				return userObject;
+			if (isFlatPackage) {
+				String path = table.getPackagePath(packageId);
+				return new TreeNodeUserObject(path, path.replace('/', '.'));
+			}
+			return new TreeNodeUserObject(table.getPackageSegment(packageId));
+		}
+
+		int getPackageId() {
+			return packageId;
+		}
+
+		int getChildCount() {
+			return children.length;
+		}
+
+		/**
+		 * @return null for a file
+		 */
+		TrieNode getFolderAt(int index) {
+			return (children[index] < 0) ? folders[-1 - children[index]] : null;
+		}
+
+		TreeNodeUserObject getChildUserObject(int index) {
+			if (children[index] < 0)
+				return folders[-1 - children[index]].getUserObject();
+			return new TreeNodeUserObject(table.getSimpleName(children[index]));
+		}
+
+		private String getChildName(int index) {
+			if (children[index] < 0) {
+				TrieNode folder = folders[-1 - children[index]];
+				return folder.isFlatPackage ? table.getPackagePath(folder.packageId)
+						: table.getPackageSegment(folder.packageId);
+			}
+			return table.getSimpleName(children[index]);
+		}
+
+		private int[] getNameOrder() {
+			int[] order = nameOrder;
+			if (order == null) {
+				final String[] childNames = new String[children.length];
+				Integer[] indexes = new Integer[children.length];
+				for (int i = 0; i < indexes.length; i++) {
+					childNames[i] = getChildName(i);
+					indexes[i] = i;
+				}
+				Arrays.sort(indexes, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer o1, Integer o2) {
+						return childNames[o1].compareTo(childNames[o2]);
+					}
+				});
+				order = new int[indexes.length];
+				for (int i = 0; i < indexes.length; i++) {
+					order[i] = indexes[i];
+				}
+				nameOrder = order;
+			}
+			return order;
+		}
+
+		/**
+		 * Binary search by original name
+		 * 
+		 * @return -1 if there is no such child
+		 */
+		int indexOfChild(String originalName) {
+			int[] order = getNameOrder();
+			int low = 0;
+			int high = children.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int comp = getChildName(order[mid]).compareTo(originalName);
+				if (comp < 0) {
+					low = mid + 1;
+				} else if (comp > 0) {
+					high = mid - 1;
+				} else {
+					return order[mid];
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -1,11 +1,20 @@
 package us.deathmarine.luyten;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 import javax.swing.JTree;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
 
+/**
+ * Expansion state of the structure tree as the EntryTable ids of the
+ * expanded packages: it survives switching Package Explorer on/off, both
+ * views have a node per package.
+ */
 public class TreeUtil {
 
 	private JTree tree;
@@ -16,58 +25,132 @@ public class TreeUtil {
 		this.tree = tree;
 	}
 
-	public Set<String> getExpansionState() {
-		Set<String> openedSet = new HashSet<>();
+	/**
+	 * @param table
+	 *            the entries the tree was built from, for the nodes that are
+	 *            not built by TreeBuilder (the tree while streaming)
+	 */
+	public BitSet getExpansionState(EntryTable table) {
+		Object root = (tree != null) ? tree.getModel().getRoot() : null;
+		return (root != null) ? getExpansionState(new TreePath(root), table) : new BitSet();
+	}
+
+	/**
+	 * @param topPath
+	 *            the top node of one archive of the workspace
+	 */
+	public BitSet getExpansionState(TreePath topPath, EntryTable table) {
+		BitSet expandedPackages = new BitSet();
 		if (tree != null) {
-			int rowCount = tree.getRowCount();
-			for (int i = 0; i < rowCount; i++) {
-				TreePath path = tree.getPathForRow(i);
-				if (tree.isExpanded(path)) {
-					String rowPathStr = getRowPathStr(path);
-					// for switching Package Explorer on/off
-					openedSet.addAll(getAllParentPathsStr(rowPathStr));
+			// only the expanded paths, not every row
+			Enumeration<TreePath> expandedPaths = tree.getExpandedDescendants(topPath);
+			while (expandedPaths != null && expandedPaths.hasMoreElements()) {
+				int packageId = getPackageId(expandedPaths.nextElement(), topPath.getPathCount(), table);
+				// for switching Package Explorer on/off
+				for (; packageId >= 0; packageId = table.getPackageParent(packageId)) {
+					expandedPackages.set(packageId);
 				}
 			}
 		}
-		return openedSet;
+		return expandedPackages;
+	}
+
+	/**
+	 * Expands the folders of these packages that are under expanded ones,
+	 * in bulk: the tree UI is told once, with one expansion event of the
+	 * root, and lays the rows out in one pass instead of once per folder.
+	 */
+	public void restoreExpanstionState(BitSet expansionState) {
+		if (tree == null || expansionState == null || tree.getModel().getRoot() == null)
+			return;
+		TreePath rootPath = new TreePath(tree.getModel().getRoot());
+		List<TreePath> paths = new ArrayList<>();
+		collectExpandedPaths(rootPath, expansionState, paths);
+		expandPaths(rootPath, paths);
 	}
 
-	private Set<String> getAllParentPathsStr(String rowPathStr) {
-		Set<String> parents = new HashSet<>();
-		parents.add(rowPathStr);
-		if (rowPathStr.contains("/")) {
-			String[] pathElements = rowPathStr.split("/");
-			String path = "";
-			for (String pathElement : pathElements) {
-				path = path + pathElement + "/";
-				parents.add(path);
+	/**
+	 * Same for the archives of a workspace, under a hidden root: the top
+	 * node of an archive is expanded if its root package is
+	 *
+	 * @param expansionStates
+	 *            by the path of the top node of each archive
+	 */
+	public void restoreExpansionStates(Map<TreePath, BitSet> expansionStates) {
+		if (tree == null || tree.getModel().getRoot() == null)
+			return;
+		TreePath rootPath = new TreePath(tree.getModel().getRoot());
+		List<TreePath> paths = new ArrayList<>();
+		for (Map.Entry<TreePath, BitSet> entry : expansionStates.entrySet()) {
+			BitSet expansionState = entry.getValue();
+			if (expansionState != null && expansionState.get(EntryTable.ROOT_PACKAGE)) {
+				paths.add(entry.getKey());
+				collectExpandedPaths(entry.getKey(), expansionState, paths);
 			}
 		}
-		return parents;
+		expandPaths(rootPath, paths);
 	}
 
-	public void restoreExpanstionState(Set<String> expansionState) {
-		if (tree != null && expansionState != null) {
-			// tree.getRowCount() changes at tree.expandRow()
-			for (int i = 0; i < tree.getRowCount(); i++) {
-				TreePath path = tree.getPathForRow(i);
-				if (expansionState.contains(getRowPathStr(path))) {
-					tree.expandRow(i);
+	private void expandPaths(TreePath rootPath, List<TreePath> paths) {
+		if (paths.isEmpty())
+			return;
+
+		TreeExpansionListener[] listeners = tree.getTreeExpansionListeners();
+		for (TreeExpansionListener listener : listeners) {
+			tree.removeTreeExpansionListener(listener);
+		}
+		try {
+			for (TreePath path : paths) {
+				tree.expandPath(path);
+			}
+		} finally {
+			for (TreeExpansionListener listener : listeners) {
+				tree.addTreeExpansionListener(listener);
+			}
+		}
+		tree.fireTreeExpanded(rootPath);
+	}
+
+	/**
+	 * Parents first, the children of a folder are only looked at if it is
+	 * expanded
+	 */
+	private void collectExpandedPaths(TreePath parentPath, BitSet expansionState, List<TreePath> paths) {
+		Object parent = parentPath.getLastPathComponent();
+		for (int i = 0; i < tree.getModel().getChildCount(parent); i++) {
+			Object child = tree.getModel().getChild(parent, i);
+			if (child instanceof LazyTreeNode) {
+				int packageId = ((LazyTreeNode) child).getPackageId();
+				if (packageId >= 0 && expansionState.get(packageId)) {
+					TreePath path = parentPath.pathByAddingChild(child);
+					paths.add(path);
+					collectExpandedPaths(path, expansionState, paths);
 				}
 			}
 		}
 	}
 
-	private String getRowPathStr(TreePath trp) {
-		String pathStr = "";
-		if (trp.getPathCount() > 1) {
-			for (int i = 1; i < trp.getPathCount(); i++) {
-				DefaultMutableTreeNode node = (DefaultMutableTreeNode) trp.getPathComponent(i);
-				TreeNodeUserObject userObject = (TreeNodeUserObject) node.getUserObject();
-				pathStr = pathStr + userObject.getOriginalName() + "/";
+	/**
+	 * @return -1 if the node is not a package
+	 */
+	private int getPackageId(TreePath trp, int firstComponent, EntryTable table) {
+		Object node = trp.getLastPathComponent();
+		if (node instanceof LazyTreeNode)
+			return ((LazyTreeNode) node).getPackageId();
+		return table.findPackage(getRowPathStr(trp, firstComponent));
+	}
+
+	private String getRowPathStr(TreePath trp, int firstComponent) {
+		StringBuilder pathStr = new StringBuilder();
+		for (int i = firstComponent; i < trp.getPathCount(); i++) {
+			DefaultMutableTreeNode node = (DefaultMutableTreeNode) trp.getPathComponent(i);
+			TreeNodeUserObject userObject = (TreeNodeUserObject) node.getUserObject();
+			if (i > firstComponent) {
+				pathStr.append('/');
 			}
+			pathStr.append(userObject.getOriginalName());
 		}
-		return pathStr;
+		return pathStr.toString();
 	}
 
 	public JTree getTree() {
@@ -0,0 +1,167 @@
+package us.deathmarine.luyten;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTree;
+import javax.swing.KeyStroke;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
+import javax.swing.tree.TreeSelectionModel;
+
+/**
+ * Results of Find Usages, grouped by the using class: double click or
+ * Enter opens the using type or member
+ */
+public class UsagesDialog extends JDialog {
+	private static final long serialVersionUID = -2316794460958713290L;
+
+	private DefaultMutableTreeNode root = new DefaultMutableTreeNode();
+	private DefaultTreeModel treeModel = new DefaultTreeModel(root);
+	private JTree tree;
+	private JLabel statusLabel = new JLabel(" ");
+
+	public UsagesDialog(JFrame mainWindow) {
+		super(mainWindow, "Find Usages", false);
+		tree = new JTree(treeModel);
+		tree.setRootVisible(false);
+		tree.setShowsRootHandles(true);
+		tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
+		tree.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					TreePath path = tree.getPathForLocation(e.getX(), e.getY());
+					if (path != null) {
+						openSymbol(path);
+					}
+				}
+			}
+		});
+		tree.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0, false), "ENTER");
+		tree.getActionMap().put("ENTER", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				TreePath path = tree.getSelectionPath();
+				if (path != null) {
+					openSymbol(path);
+				}
+			}
+		});
+
+		JPanel panel = new JPanel(new BorderLayout(5, 5));
+		panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+		panel.add(new JScrollPane(tree), BorderLayout.CENTER);
+		panel.add(statusLabel, BorderLayout.SOUTH);
+		this.setContentPane(panel);
+
+		KeyStroke escapeKeyStroke = KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0, false);
+		this.getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(escapeKeyStroke, "ESCAPE");
+		this.getRootPane().getActionMap().put("ESCAPE", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				UsagesDialog.this.setVisible(false);
+			}
+		});
+
+		this.setSize(new Dimension(600, 400));
+		this.setLocationRelativeTo(mainWindow);
+		this.setDefaultCloseOperation(HIDE_ON_CLOSE);
+	}
+
+	/**
+	 * Shown while the cross-reference index is being read
+	 */
+	public void showSearching(String description) {
+		this.setTitle("Usages of " + description);
+		root.removeAllChildren();
+		treeModel.reload();
+		statusLabel.setText("Searching...");
+		this.setVisible(true);
+	}
+
+	public void showUsages(String description, List<SymbolIndex.Symbol> usages) {
+		this.setTitle("Usages of " + description);
+		root.removeAllChildren();
+		DefaultMutableTreeNode classNode = null;
+		String className = null;
+		int classCount = 0;
+		for (SymbolIndex.Symbol symbol : usages) {
+			if (!symbol.getTypeName().equals(className)) {
+				className = symbol.getTypeName();
+				classNode = new DefaultMutableTreeNode(new SymbolIndex.Symbol(SymbolIndex.KIND_TYPE,
+						SymbolIndex.getSimpleName(className), className, symbol.getOuterTypeName(), null));
+				root.add(classNode);
+				classCount++;
+			}
+			// the class node already stands for its super types
+			if (symbol.getKind() != SymbolIndex.KIND_TYPE) {
+				classNode.add(new DefaultMutableTreeNode(new UsageNode(symbol)));
+			}
+		}
+		treeModel.reload();
+		for (int i = 0; i < tree.getRowCount(); i++) {
+			tree.expandRow(i);
+		}
+		statusLabel.setText(usages.isEmpty() ? "No usages found"
+				: usages.size() + " usages in " + classCount + " classes");
+		this.setVisible(true);
+		tree.requestFocus();
+	}
+
+	public void showError(String message) {
+		root.removeAllChildren();
+		treeModel.reload();
+		statusLabel.setText(message);
+		this.setVisible(true);
+	}
+
+	private void openSymbol(TreePath path) {
+		Object userObject = ((DefaultMutableTreeNode) path.getLastPathComponent()).getUserObject();
+		SymbolIndex.Symbol symbol = null;
+		if (userObject instanceof UsageNode) {
+			symbol = ((UsageNode) userObject).symbol;
+		} else if (userObject instanceof SymbolIndex.Symbol) {
+			symbol = (SymbolIndex.Symbol) userObject;
+		}
+		if (symbol != null) {
+			MainWindow.model.navigateTo(symbol.getUniqueStr());
+		}
+	}
+
+	/**
+	 * Member under its class node: without the class name
+	 */
+	private static class UsageNode {
+		private final SymbolIndex.Symbol symbol;
+
+		private UsageNode(SymbolIndex.Symbol symbol) {
+			this.symbol = symbol;
+		}
+
+		@Override
+		public String toString() {
+			String text = symbol.toString();
+			int typeStart = text.lastIndexOf(" - ");
+			return (typeStart >= 0) ? text.substring(0, typeStart) : text;
+		}
+	}
+}
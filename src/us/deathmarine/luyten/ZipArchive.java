@@ -0,0 +1,572 @@
+package us.deathmarine.luyten;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip file and gives access to the raw
+ * (still compressed) entry data, so entries can be copied into another zip
+ * without inflating and deflating them again. The central directory and the
+ * entry data are memory mapped (zip64 aware): the heap only holds the
+ * offset and name hash of each entry, any archive size is fine. An archive
+ * stored in another one is read from a view of its entry (openNested()).
+ */
+public class ZipArchive implements AutoCloseable {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final int LOCAL_HEADER_SIG = 0x04034b50;
+	static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	static final int END_SIG = 0x06054b50;
+	static final int ZIP64_END_SIG = 0x06064b50;
+	static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	static final int ZIP64_EXTRA_ID = 0x0001;
+	static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	static final int METHOD_STORED = 0;
+	static final int METHOD_DEFLATED = 8;
+
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_END_SIZE = 56;
+	private static final int MAX_END_SEARCH = END_SIZE + 0xFFFF;
+	// entry data is mapped in windows of this size
+	private static final int WINDOW_SHIFT = 30;
+	private static final long WINDOW_SIZE = 1L << WINDOW_SHIFT;
+
+	// null for a nested archive, read from data
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer data;
+	private final long length;
+	// null for a nested archive or when read through plain channel reads
+	private final MappedByteBuffer[] windows;
+	private ByteBuffer central;
+	// bytes in front of the zip, like the launch script of a Spring Boot
+	// jar: the offsets of the archive are relative to its end
+	private long prefixLength;
+	// per entry: offset of its central header
+	private int[] headerOffsets;
+	// open addressing on the hash of the UTF-8 name: entry index + 1
+	private int[] hashSlots;
+	private int[] nameHashes;
+
+	public ZipArchive(File file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * @param listener
+	 *            told about each entry while the central directory is read,
+	 *            may be null
+	 */
+	public ZipArchive(File file, Listener listener) throws IOException {
+		this(file, listener, true);
+	}
+
+	private ZipArchive(File file, Listener listener, boolean isMapped) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		try {
+			channel = raf.getChannel();
+			data = null;
+			length = channel.size();
+			windows = isMapped ? new MappedByteBuffer[(int) ((length + WINDOW_SIZE - 1) >>> WINDOW_SHIFT)] : null;
+			readCentralDirectory(listener);
+		} catch (IOException e) {
+			Closer.tryClose(raf);
+			throw e;
+		}
+	}
+
+	private ZipArchive(ByteBuffer data) throws IOException {
+		raf = null;
+		channel = null;
+		this.data = data;
+		length = data.limit();
+		windows = null;
+		readCentralDirectory(null);
+	}
+
+	/**
+	 * Reads the file through plain channel reads, nothing is mapped: on
+	 * Windows a mapped file cannot be deleted or replaced until the mapping
+	 * is garbage collected, long after close()
+	 */
+	public static ZipArchive openUnmapped(File file) throws IOException {
+		return new ZipArchive(file, null, false);
+	}
+
+	/**
+	 * Opens an archive stored in this one (a jar in BOOT-INF/lib or
+	 * WEB-INF/lib, a module of an EAR) without extracting it: a stored entry
+	 * is mapped where it is, a compressed one is inflated into memory. It
+	 * stays readable after this archive is closed.
+	 */
+	public ZipArchive openNested(Entry entry) throws IOException {
+		if (entry.method == METHOD_STORED) {
+			if (entry.compressedSize > Integer.MAX_VALUE)
+				throw new ZipException("Nested archive too large: " + entry.name);
+			return new ZipArchive(getRegion(getDataOffset(entry), entry.compressedSize));
+		}
+		if (entry.size > Integer.MAX_VALUE)
+			throw new ZipException("Nested archive too large: " + entry.name);
+		byte[] bytes = new byte[(int) entry.size];
+		try (InputStream in = getInputStream(entry)) {
+			int count = 0;
+			while (count < bytes.length) {
+				int read = in.read(bytes, count, bytes.length - count);
+				if (read < 0)
+					throw new EOFException("Unexpected end of nested archive: " + entry.name);
+				count += read;
+			}
+		}
+		return new ZipArchive(ByteBuffer.wrap(bytes));
+	}
+
+	public int getEntryCount() {
+		return headerOffsets.length;
+	}
+
+	/**
+	 * @return the entries in archive order, created on access
+	 */
+	public List<Entry> getEntries() {
+		return new AbstractList<Entry>() {
+			@Override
+			public Entry get(int index) {
+				return getEntry(index);
+			}
+
+			@Override
+			public int size() {
+				return headerOffsets.length;
+			}
+		};
+	}
+
+	public Entry getEntry(int index) {
+		return readEntry(headerOffsets[index]);
+	}
+
+	/**
+	 * @return the first entry of this name, like JarFile, or null
+	 */
+	public Entry getEntry(String name) {
+		byte[] nameBytes = name.getBytes(UTF8);
+		int hash = hash(nameBytes);
+		int mask = hashSlots.length - 1;
+		for (int slot = hash & mask; hashSlots[slot] != 0; slot = (slot + 1) & mask) {
+			int index = hashSlots[slot] - 1;
+			if (nameHashes[index] == hash && isNameEqual(headerOffsets[index], nameBytes))
+				return getEntry(index);
+		}
+		return null;
+	}
+
+	/**
+	 * Stream of the entry's data as it is stored in the archive (compressed
+	 * by the entry's method)
+	 */
+	public InputStream getRawInputStream(Entry entry) throws IOException {
+		return new RawInputStream(getDataOffset(entry), entry.compressedSize);
+	}
+
+	private long getDataOffset(Entry entry) throws IOException {
+		long headerPos = prefixLength + entry.localHeaderOffset;
+		byte[] header = new byte[LOCAL_HEADER_SIZE];
+		read(headerPos, header, 0, LOCAL_HEADER_SIZE);
+		if (getInt(header, 0) != LOCAL_HEADER_SIG)
+			throw new ZipException("Invalid local header: " + entry.name);
+		return headerPos + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28);
+	}
+
+	/**
+	 * Stream of the entry's uncompressed data
+	 */
+	public InputStream getInputStream(Entry entry) throws IOException {
+		InputStream raw = getRawInputStream(entry);
+		if (entry.method == METHOD_STORED)
+			return raw;
+		if (entry.method != METHOD_DEFLATED) {
+			raw.close();
+			throw new ZipException("Unsupported compression method " + entry.method + ": " + entry.name);
+		}
+		// the extra byte is required by the nowrap inflater (like in ZipFile)
+		InputStream padded = new SequenceInputStream(raw, new ByteArrayInputStream(new byte[1]));
+		final Inflater inflater = new Inflater(true);
+		return new InflaterInputStream(padded, inflater, 8192) {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					inflater.end();
+					super.close();
+				}
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the mappings go away with the buffers
+		if (raf != null) {
+			raf.close();
+		}
+	}
+
+	private void readCentralDirectory(Listener listener) throws IOException {
+		int searchLength = (int) Math.min(length, MAX_END_SEARCH);
+		byte[] tail = new byte[searchLength];
+		read(length - searchLength, tail, 0, searchLength);
+
+		int endPos = -1;
+		for (int i = searchLength - END_SIZE; i >= 0; i--) {
+			if (getInt(tail, i) == END_SIG) {
+				endPos = i;
+				break;
+			}
+		}
+		if (endPos < 0)
+			throw new ZipException("End of central directory not found");
+
+		long entryCount = getShort(tail, endPos + 10);
+		long centralSize = getUnsignedInt(tail, endPos + 12);
+		long centralOffset = getUnsignedInt(tail, endPos + 16);
+		// the central directory ends where the end record starts
+		long centralEnd = length - searchLength + endPos;
+
+		// zip64: the real values are in the zip64 end record
+		int locatorPos = endPos - ZIP64_LOCATOR_SIZE;
+		if (locatorPos >= 0 && getInt(tail, locatorPos) == ZIP64_LOCATOR_SIG) {
+			byte[] zip64End = new byte[ZIP64_END_SIZE];
+			// its offset is relative too: else it is right before the locator
+			long zip64EndPos = getLong(tail, locatorPos + 8);
+			if (zip64EndPos < 0 || zip64EndPos + ZIP64_END_SIZE > length
+					|| !isSignatureAt(zip64EndPos, ZIP64_END_SIG, zip64End)) {
+				zip64EndPos = length - searchLength + locatorPos - ZIP64_END_SIZE;
+				if (zip64EndPos < 0 || !isSignatureAt(zip64EndPos, ZIP64_END_SIG, zip64End))
+					throw new ZipException("Invalid zip64 end of central directory");
+			}
+			entryCount = getLong(zip64End, 32);
+			centralSize = getLong(zip64End, 40);
+			centralOffset = getLong(zip64End, 48);
+			centralEnd = zip64EndPos;
+		}
+		if (centralSize > Integer.MAX_VALUE || entryCount > Integer.MAX_VALUE || centralOffset < 0
+				|| centralSize < 0)
+			throw new ZipException("Invalid central directory");
+		prefixLength = centralEnd - centralSize - centralOffset;
+		if (prefixLength < 0 || prefixLength + centralOffset + centralSize > length)
+			throw new ZipException("Invalid central directory");
+		centralOffset += prefixLength;
+		if (listener != null) {
+			listener.onEntryCount(entryCount);
+		}
+
+		central = getRegion(centralOffset, centralSize).order(ByteOrder.LITTLE_ENDIAN);
+		int count = (int) entryCount;
+		headerOffsets = new int[count];
+		nameHashes = new int[count];
+		hashSlots = new int[Integer.highestOneBit(Math.max(count, 1) * 2 + 1) * 2];
+		int mask = hashSlots.length - 1;
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			if (pos + CENTRAL_HEADER_SIZE > centralSize || central.getInt(pos) != CENTRAL_HEADER_SIG)
+				throw new ZipException("Invalid central directory");
+			int nameLength = central.getShort(pos + 28) & 0xffff;
+			int variableLength = nameLength + (central.getShort(pos + 30) & 0xffff)
+					+ (central.getShort(pos + 32) & 0xffff);
+			if (pos + CENTRAL_HEADER_SIZE + variableLength > centralSize)
+				throw new ZipException("Invalid central directory");
+			headerOffsets[i] = pos;
+			int hash = 0;
+			for (int n = pos + CENTRAL_HEADER_SIZE; n < pos + CENTRAL_HEADER_SIZE + nameLength; n++) {
+				hash = 31 * hash + central.get(n);
+			}
+			nameHashes[i] = hash;
+
+			// the first one wins on duplicates, like in JarFile
+			int slot = hash & mask;
+			boolean isDuplicate = false;
+			for (; hashSlots[slot] != 0; slot = (slot + 1) & mask) {
+				int other = hashSlots[slot] - 1;
+				if (nameHashes[other] == hash && isNameEqual(headerOffsets[other], pos)) {
+					isDuplicate = true;
+					break;
+				}
+			}
+			if (!isDuplicate) {
+				hashSlots[slot] = i + 1;
+			}
+			if (listener != null) {
+				listener.onEntry(readEntry(pos));
+			}
+			pos += CENTRAL_HEADER_SIZE + variableLength;
+		}
+	}
+
+	/**
+	 * Reads the record into b when it starts with the signature
+	 */
+	private boolean isSignatureAt(long pos, int signature, byte[] b) throws IOException {
+		read(pos, b, 0, b.length);
+		return getInt(b, 0) == signature;
+	}
+
+	private Entry readEntry(int pos) {
+		Entry entry = new Entry();
+		entry.flags = central.getShort(pos + 8) & 0xffff;
+		entry.method = central.getShort(pos + 10) & 0xffff;
+		entry.dosTime = central.getInt(pos + 12);
+		entry.crc = central.getInt(pos + 16) & 0xFFFFFFFFL;
+		entry.compressedSize = central.getInt(pos + 20) & 0xFFFFFFFFL;
+		entry.size = central.getInt(pos + 24) & 0xFFFFFFFFL;
+		int nameLength = central.getShort(pos + 28) & 0xffff;
+		int extraLength = central.getShort(pos + 30) & 0xffff;
+		entry.localHeaderOffset = central.getInt(pos + 42) & 0xFFFFFFFFL;
+		byte[] variable = new byte[nameLength + extraLength];
+		ByteBuffer buffer = central.duplicate();
+		buffer.position(pos + CENTRAL_HEADER_SIZE);
+		buffer.get(variable);
+		entry.name = new String(variable, 0, nameLength, UTF8);
+		readZip64Extra(entry, variable, nameLength, extraLength);
+		return entry;
+	}
+
+	private boolean isNameEqual(int headerOffset, byte[] name) {
+		if ((central.getShort(headerOffset + 28) & 0xffff) != name.length)
+			return false;
+		int start = headerOffset + CENTRAL_HEADER_SIZE;
+		for (int i = 0; i < name.length; i++) {
+			if (central.get(start + i) != name[i])
+				return false;
+		}
+		return true;
+	}
+
+	private boolean isNameEqual(int headerOffset, int otherHeaderOffset) {
+		int nameLength = central.getShort(headerOffset + 28) & 0xffff;
+		if ((central.getShort(otherHeaderOffset + 28) & 0xffff) != nameLength)
+			return false;
+		for (int i = 0; i < nameLength; i++) {
+			if (central.get(headerOffset + CENTRAL_HEADER_SIZE + i) != central
+					.get(otherHeaderOffset + CENTRAL_HEADER_SIZE + i))
+				return false;
+		}
+		return true;
+	}
+
+	private static int hash(byte[] bytes) {
+		int hash = 0;
+		for (byte b : bytes) {
+			hash = 31 * hash + b;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return a mapped region of the file (a copy when it is not mapped), a
+	 *         view of the data of a nested archive
+	 */
+	private ByteBuffer getRegion(long pos, long size) throws IOException {
+		if (pos < 0 || pos + size > length)
+			throw new EOFException("Unexpected end of zip file");
+		if (data == null && windows == null) {
+			byte[] bytes = new byte[(int) size];
+			read(pos, bytes, 0, bytes.length);
+			return ByteBuffer.wrap(bytes);
+		}
+		if (data == null)
+			return channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+		ByteBuffer region = data.duplicate();
+		region.limit((int) (pos + size));
+		region.position((int) pos);
+		return region.slice();
+	}
+
+	/**
+	 * Reads from the mapped file, across windows, or from the channel
+	 */
+	private void read(long pos, byte[] b, int off, int len) throws IOException {
+		if (pos < 0 || pos + len > length)
+			throw new EOFException("Unexpected end of zip file");
+		if (data != null) {
+			ByteBuffer buffer = data.duplicate();
+			buffer.position((int) pos);
+			buffer.get(b, off, len);
+			return;
+		}
+		if (windows == null) {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, pos + buffer.position() - off) < 0)
+					throw new EOFException("Unexpected end of zip file");
+			}
+			return;
+		}
+		while (len > 0) {
+			int windowIndex = (int) (pos >>> WINDOW_SHIFT);
+			ByteBuffer window = getWindow(windowIndex).duplicate();
+			int windowPos = (int) (pos & (WINDOW_SIZE - 1));
+			int count = Math.min(len, window.limit() - windowPos);
+			window.position(windowPos);
+			window.get(b, off, count);
+			pos += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	private synchronized MappedByteBuffer getWindow(int index) throws IOException {
+		if (windows[index] == null) {
+			long start = (long) index << WINDOW_SHIFT;
+			windows[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, length - start));
+		}
+		return windows[index];
+	}
+
+	private void readZip64Extra(Entry entry, byte[] buf, int off, int length) {
+		int end = off + length;
+		while (off + 4 <= end) {
+			int id = getShort(buf, off);
+			int size = getShort(buf, off + 2);
+			off += 4;
+			if (id == ZIP64_EXTRA_ID) {
+				int pos = off;
+				if (entry.size == ZIP64_MAGIC && pos + 8 <= off + size) {
+					entry.size = getLong(buf, pos);
+					pos += 8;
+				}
+				if (entry.compressedSize == ZIP64_MAGIC && pos + 8 <= off + size) {
+					entry.compressedSize = getLong(buf, pos);
+					pos += 8;
+				}
+				if (entry.localHeaderOffset == ZIP64_MAGIC && pos + 8 <= off + size) {
+					entry.localHeaderOffset = getLong(buf, pos);
+				}
+				return;
+			}
+			off += size;
+		}
+	}
+
+	static int getShort(byte[] b, int off) {
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+	}
+
+	static int getInt(byte[] b, int off) {
+		return getShort(b, off) | (getShort(b, off + 2) << 16);
+	}
+
+	static long getUnsignedInt(byte[] b, int off) {
+		return getInt(b, off) & 0xFFFFFFFFL;
+	}
+
+	static long getLong(byte[] b, int off) {
+		return getUnsignedInt(b, off) | (getUnsignedInt(b, off + 4) << 32);
+	}
+
+	/**
+	 * Gets the entries while the central directory is being read
+	 */
+	public interface Listener {
+		void onEntryCount(long entryCount);
+
+		void onEntry(Entry entry);
+	}
+
+	/**
+	 * Central directory record
+	 */
+	public static class Entry {
+		private String name;
+		private int flags;
+		private int method;
+		private int dosTime;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long localHeaderOffset;
+
+		public String getName() {
+			return name;
+		}
+
+		public int getFlags() {
+			return flags;
+		}
+
+		public int getMethod() {
+			return method;
+		}
+
+		public int getDosTime() {
+			return dosTime;
+		}
+
+		public long getCrc() {
+			return crc;
+		}
+
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		public boolean isEncrypted() {
+			return (flags & 1) != 0;
+		}
+	}
+
+	private class RawInputStream extends InputStream {
+		private long pos;
+		private long remaining;
+
+		private RawInputStream(long pos, long length) {
+			this.pos = pos;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == 1) ? (b[0] & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+			len = (int) Math.min(len, remaining);
+			ZipArchive.this.read(pos, b, off, len);
+			pos += len;
+			remaining -= len;
+			return len;
+		}
+	}
+}
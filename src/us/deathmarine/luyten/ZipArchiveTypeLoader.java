@@ -0,0 +1,117 @@
+package us.deathmarine.luyten;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ITypeLoader;
+
+/**
+ * Loads types from a ZipArchive, like JarTypeLoader does from a JarFile:
+ * classes stored under another name than their own are found again by the
+ * name they were first requested with. The classes of a Spring Boot jar or
+ * a WAR are found under their class root too.
+ */
+public class ZipArchiveTypeLoader implements ITypeLoader {
+
+	private static final String[] CLASS_ROOTS = { "BOOT-INF/classes/", "WEB-INF/classes/" };
+
+	private final ZipArchive archive;
+	// actual internal name -> name it was requested with
+	private final Map<String, String> knownMappings = new ConcurrentHashMap<>();
+	// told about them too, when the loader is indexed by it
+	private final LuytenTypeLoader index;
+
+	public ZipArchiveTypeLoader(ZipArchive archive) {
+		this(archive, null);
+	}
+
+	/**
+	 * @param index
+	 *            the loader this one is indexed by, told about the classes
+	 *            stored under another name than their own; may be null
+	 */
+	public ZipArchiveTypeLoader(ZipArchive archive, LuytenTypeLoader index) {
+		this.archive = archive;
+		this.index = index;
+	}
+
+	/**
+	 * @return the classes a loader of the archive finds by their entry
+	 *         name, for LuytenTypeLoader's index
+	 */
+	public static List<String> getInternalNames(EntryTable table) {
+		List<String> internalNames = new ArrayList<>();
+		for (int entryId = 0; entryId < table.getEntryCount(); entryId++) {
+			if (table.getSimpleName(entryId).endsWith(".class")) {
+				String name = table.getName(entryId);
+				for (String classRoot : CLASS_ROOTS) {
+					if (name.startsWith(classRoot)) {
+						name = name.substring(classRoot.length());
+						break;
+					}
+				}
+				internalNames.add(name.substring(0, name.length() - ".class".length()));
+			}
+		}
+		return internalNames;
+	}
+
+	/**
+	 * @param packagePath
+	 *            like "com/acme"
+	 * @return where its entries may be, like "BOOT-INF/classes/com/acme"
+	 */
+	public static List<String> getEntryPackagePaths(String packagePath) {
+		List<String> packagePaths = new ArrayList<>(CLASS_ROOTS.length + 1);
+		packagePaths.add(packagePath);
+		for (String classRoot : CLASS_ROOTS) {
+			packagePaths.add(packagePath.isEmpty() ? classRoot.substring(0, classRoot.length() - 1)
+					: classRoot + packagePath);
+		}
+		return packagePaths;
+	}
+
+	@Override
+	public boolean tryLoadType(String internalName, Buffer buffer) {
+		ZipArchive.Entry entry = archive.getEntry(internalName + ".class");
+		for (int i = 0; entry == null && i < CLASS_ROOTS.length; i++) {
+			entry = archive.getEntry(CLASS_ROOTS[i] + internalName + ".class");
+		}
+		if (entry == null) {
+			String mappedName = knownMappings.get(internalName);
+			if (mappedName == null || mappedName.equals(internalName))
+				return false;
+			entry = archive.getEntry(mappedName + ".class");
+			if (entry == null)
+				return false;
+		}
+		byte[] bytes;
+		try (InputStream in = archive.getInputStream(entry)) {
+			bytes = ClassFileReader.readAll(in);
+		} catch (IOException e) {
+			// like JarTypeLoader
+			throw new RuntimeException(e);
+		}
+		buffer.reset(bytes.length);
+		buffer.putByteArray(bytes, 0, bytes.length);
+		buffer.position(0);
+
+		try {
+			String actualName = new ClassFileReader(bytes).getThisClassName();
+			if (actualName != null && !actualName.equals(internalName)) {
+				knownMappings.put(actualName, internalName);
+				if (index != null) {
+					index.addMisplacedType(actualName, this);
+				}
+			}
+		} catch (Exception e) {
+			// not a class file, MetadataSystem will tell
+		}
+		return true;
+	}
+}
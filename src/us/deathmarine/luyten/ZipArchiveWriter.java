@@ -0,0 +1,310 @@
+package us.deathmarine.luyten;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal zip writer which, unlike ZipOutputStream, can copy already
+ * compressed entries from a ZipArchive as they are (same data, CRC, size
+ * and method). New entries are deflated in memory, see deflate().
+ */
+public class ZipArchiveWriter implements AutoCloseable {
+
+	private static final int FLAG_DATA_DESCRIPTOR = 8;
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int VERSION_DEFAULT = 20;
+	private static final int VERSION_ZIP64 = 45;
+
+	private final CountingOutputStream out;
+	private final List<CentralRecord> records = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private boolean finished;
+
+	public ZipArchiveWriter(OutputStream out) {
+		this.out = new CountingOutputStream(out);
+	}
+
+	/**
+	 * Thread safe, workers may compress in parallel before the entry is
+	 * written
+	 */
+	public static DeflatedData deflate(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(content);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+			byte[] buf = new byte[8192];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buf);
+				compressed.write(buf, 0, count);
+			}
+			return new DeflatedData(compressed.toByteArray(), crc.getValue(), content.length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @return true if an entry with the same name was written already
+	 */
+	public boolean hasEntry(String name) {
+		return names.contains(name);
+	}
+
+	public void writeEntry(String name, DeflatedData data) throws IOException {
+		CentralRecord record = new CentralRecord();
+		record.name = name.getBytes(ZipArchive.UTF8);
+		record.flags = FLAG_UTF8;
+		record.method = ZipArchive.METHOD_DEFLATED;
+		record.dosTime = javaToDosTime(System.currentTimeMillis());
+		record.crc = data.crc;
+		record.compressedSize = data.data.length;
+		record.size = data.size;
+		writeLocalHeader(record);
+		out.write(data.data);
+		addRecord(name, record);
+	}
+
+	/**
+	 * Copies the entry with its original compressed data, rawData is
+	 * expected from ZipArchive.getRawInputStream()
+	 */
+	public void copyRawEntry(ZipArchive.Entry entry, InputStream rawData) throws IOException {
+		CentralRecord record = new CentralRecord();
+		record.name = entry.getName().getBytes(ZipArchive.UTF8);
+		// sizes and crc are known here: no data descriptor after the data
+		record.flags = (entry.getFlags() & ~FLAG_DATA_DESCRIPTOR) | FLAG_UTF8;
+		record.method = entry.getMethod();
+		record.dosTime = entry.getDosTime();
+		record.crc = entry.getCrc();
+		record.compressedSize = entry.getCompressedSize();
+		record.size = entry.getSize();
+		writeLocalHeader(record);
+		byte[] buf = new byte[64 * 1024];
+		long remaining = record.compressedSize;
+		while (remaining > 0) {
+			int count = rawData.read(buf, 0, (int) Math.min(buf.length, remaining));
+			if (count < 0)
+				throw new IOException("Unexpected end of raw data: " + entry.getName());
+			out.write(buf, 0, count);
+			remaining -= count;
+		}
+		addRecord(entry.getName(), record);
+	}
+
+	public void finish() throws IOException {
+		if (finished)
+			return;
+		finished = true;
+		long centralOffset = out.count;
+		for (CentralRecord record : records) {
+			writeCentralHeader(record);
+		}
+		long centralSize = out.count - centralOffset;
+		boolean isZip64 = records.size() >= 0xFFFF || centralOffset >= ZipArchive.ZIP64_MAGIC
+				|| centralSize >= ZipArchive.ZIP64_MAGIC;
+		if (isZip64) {
+			long zip64EndOffset = out.count;
+			writeInt(ZipArchive.ZIP64_END_SIG);
+			writeLong(44);
+			writeShort(VERSION_ZIP64);
+			writeShort(VERSION_ZIP64);
+			writeInt(0);
+			writeInt(0);
+			writeLong(records.size());
+			writeLong(records.size());
+			writeLong(centralSize);
+			writeLong(centralOffset);
+
+			writeInt(ZipArchive.ZIP64_LOCATOR_SIG);
+			writeInt(0);
+			writeLong(zip64EndOffset);
+			writeInt(1);
+		}
+		writeInt(ZipArchive.END_SIG);
+		writeShort(0);
+		writeShort(0);
+		writeShort(Math.min(records.size(), 0xFFFF));
+		writeShort(Math.min(records.size(), 0xFFFF));
+		writeInt((int) Math.min(centralSize, ZipArchive.ZIP64_MAGIC));
+		writeInt((int) Math.min(centralOffset, ZipArchive.ZIP64_MAGIC));
+		writeShort(0);
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void addRecord(String name, CentralRecord record) {
+		records.add(record);
+		names.add(name);
+	}
+
+	private void writeLocalHeader(CentralRecord record) throws IOException {
+		record.localHeaderOffset = out.count;
+		boolean isZip64 = record.isZip64Size();
+		writeInt(ZipArchive.LOCAL_HEADER_SIG);
+		writeShort(record.getVersionNeeded());
+		writeShort(record.flags);
+		writeShort(record.method);
+		writeInt(record.dosTime);
+		writeInt((int) record.crc);
+		writeInt((int) (isZip64 ? ZipArchive.ZIP64_MAGIC : record.compressedSize));
+		writeInt((int) (isZip64 ? ZipArchive.ZIP64_MAGIC : record.size));
+		writeShort(record.name.length);
+		writeShort(isZip64 ? 20 : 0);
+		out.write(record.name);
+		if (isZip64) {
+			writeShort(ZipArchive.ZIP64_EXTRA_ID);
+			writeShort(16);
+			writeLong(record.size);
+			writeLong(record.compressedSize);
+		}
+	}
+
+	private void writeCentralHeader(CentralRecord record) throws IOException {
+		boolean isZip64Size = record.isZip64Size();
+		boolean isZip64Offset = record.localHeaderOffset >= ZipArchive.ZIP64_MAGIC;
+		int extraLength = (isZip64Size ? 16 : 0) + (isZip64Offset ? 8 : 0);
+		writeInt(ZipArchive.CENTRAL_HEADER_SIG);
+		writeShort(record.getVersionNeeded());
+		writeShort(record.getVersionNeeded());
+		writeShort(record.flags);
+		writeShort(record.method);
+		writeInt(record.dosTime);
+		writeInt((int) record.crc);
+		writeInt((int) (isZip64Size ? ZipArchive.ZIP64_MAGIC : record.compressedSize));
+		writeInt((int) (isZip64Size ? ZipArchive.ZIP64_MAGIC : record.size));
+		writeShort(record.name.length);
+		writeShort(extraLength > 0 ? extraLength + 4 : 0);
+		writeShort(0);
+		writeShort(0);
+		writeShort(0);
+		writeInt(0);
+		writeInt((int) (isZip64Offset ? ZipArchive.ZIP64_MAGIC : record.localHeaderOffset));
+		out.write(record.name);
+		if (extraLength > 0) {
+			writeShort(ZipArchive.ZIP64_EXTRA_ID);
+			writeShort(extraLength);
+			if (isZip64Size) {
+				writeLong(record.size);
+				writeLong(record.compressedSize);
+			}
+			if (isZip64Offset) {
+				writeLong(record.localHeaderOffset);
+			}
+		}
+	}
+
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+	}
+
+	private void writeInt(int v) throws IOException {
+		writeShort(v & 0xffff);
+		writeShort((v >>> 16) & 0xffff);
+	}
+
+	private void writeLong(long v) throws IOException {
+		writeInt((int) v);
+		writeInt((int) (v >>> 32));
+	}
+
+	private static int javaToDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	/**
+	 * Deflated content of a new entry
+	 */
+	public static class DeflatedData {
+		private final byte[] data;
+		private final long crc;
+		private final long size;
+
+		private DeflatedData(byte[] data, long crc, long size) {
+			this.data = data;
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+
+	private static class CentralRecord {
+		private byte[] name;
+		private int flags;
+		private int method;
+		private int dosTime;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long localHeaderOffset;
+
+		private boolean isZip64Size() {
+			return size >= ZipArchive.ZIP64_MAGIC || compressedSize >= ZipArchive.ZIP64_MAGIC;
+		}
+
+		private int getVersionNeeded() {
+			if (isZip64Size() || localHeaderOffset >= ZipArchive.ZIP64_MAGIC)
+				return VERSION_ZIP64;
+			return (method == ZipArchive.METHOD_STORED) ? 10 : VERSION_DEFAULT;
+		}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private final OutputStream out;
+		private long count;
+
+		private CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}